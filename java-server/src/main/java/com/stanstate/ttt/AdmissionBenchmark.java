@@ -0,0 +1,140 @@
+package com.stanstate.ttt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Goodput of the game pool under increasing offered load: the old unbounded FIFO pool against
+ * AdmissionExecutor. Requests arrive open-loop (arrivals don't wait for answers, like real clients)
+ * in the mix moves 40%, state polls 40%, match browser 15%, stats 5%. Each holds a worker for a
+ * fixed service time, standing in for a database round trip, and counts as good only if it is
+ * answered within its deadline. Past capacity the FIFO queue grows until every answer is late;
+ * admission control should keep goodput near capacity, with moves served first.
+ *
+ * Usage: AdmissionBenchmark [workers=4] [serviceMillis=2] [deadlineMillis=200] [secondsPerLoad=3]
+ */
+public class AdmissionBenchmark {
+    private static final AdmissionExecutor.Priority[] MIX = mix();
+
+    public static void main(String[] args) throws Exception {
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        long serviceNanos = TimeUnit.MILLISECONDS.toNanos(args.length > 1 ? Long.parseLong(args[1]) : 2);
+        long deadlineNanos = TimeUnit.MILLISECONDS.toNanos(args.length > 2 ? Long.parseLong(args[2]) : 200);
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        double capacity = workers * 1e9 / serviceNanos;
+
+        System.out.println("=== Admission Benchmark ===");
+        System.out.printf("%d workers x %.1fms service = %.0f req/s capacity, %dms deadline, %ds per load%n",
+            workers, serviceNanos / 1e6, capacity, TimeUnit.NANOSECONDS.toMillis(deadlineNanos), seconds);
+
+        List<String> rows = new ArrayList<>();
+        for (double load : new double[] {0.5, 1.0, 1.5, 2.0, 3.0}) {
+            double rate = capacity * load;
+            Result fifo = runFifo(workers, rate, seconds, serviceNanos, deadlineNanos);
+            Result admitted = runAdmission(workers, rate, seconds, serviceNanos, deadlineNanos);
+            rows.add(String.format(" %4.1fx | %8.0f | %8.0f | %8.0f | %8.0f | %8.0f | %8.0f",
+                load, rate, fifo.goodput(seconds), fifo.moveGoodput(seconds),
+                admitted.goodput(seconds), admitted.moveGoodput(seconds), admitted.rejected(seconds)));
+        }
+
+        System.out.println("\ngood answers/s (within deadline)");
+        System.out.println(" load  |  offered | fifo all | fifo mv  | adm all  | adm mv   | adm shed");
+        for (String row : rows) {
+            System.out.println(row);
+        }
+    }
+
+    private static AdmissionExecutor.Priority[] mix() {
+        AdmissionExecutor.Priority[] mix = new AdmissionExecutor.Priority[20];
+        for (int i = 0; i < mix.length; i++) {
+            mix[i] = i < 8 ? AdmissionExecutor.Priority.MOVE
+                : i < 16 ? AdmissionExecutor.Priority.STATE
+                : i < 19 ? AdmissionExecutor.Priority.MATCHES
+                : AdmissionExecutor.Priority.STATS;
+        }
+        return mix;
+    }
+
+    private static final class Result {
+        final LongAdder good = new LongAdder();
+        final LongAdder goodMoves = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+
+        void complete(AdmissionExecutor.Priority priority, long arrived, long deadlineNanos, Throwable error) {
+            if (error != null) {
+                rejected.increment();
+            } else if (System.nanoTime() - arrived <= deadlineNanos) {
+                good.increment();
+                if (priority == AdmissionExecutor.Priority.MOVE) goodMoves.increment();
+            }
+        }
+
+        double goodput(int seconds) {
+            return good.sum() / (double) seconds;
+        }
+
+        double moveGoodput(int seconds) {
+            return goodMoves.sum() / (double) seconds;
+        }
+
+        double rejected(int seconds) {
+            return rejected.sum() / (double) seconds;
+        }
+    }
+
+    private interface Submitter {
+        CompletableFuture<Void> submit(AdmissionExecutor.Priority priority, Runnable work, long deadline);
+    }
+
+    private static Result runFifo(int workers, double rate, int seconds, long serviceNanos, long deadlineNanos)
+            throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        Result result = drive(rate, seconds, serviceNanos, deadlineNanos,
+            (priority, work, deadline) -> CompletableFuture.runAsync(work, pool));
+        pool.shutdownNow();
+        return result;
+    }
+
+    private static Result runAdmission(int workers, double rate, int seconds, long serviceNanos, long deadlineNanos)
+            throws InterruptedException {
+        AdmissionExecutor pool = new AdmissionExecutor("bench", workers);
+        Result result = drive(rate, seconds, serviceNanos, deadlineNanos,
+            (priority, work, deadline) -> AdmissionExecutor.withDeadline(deadline, null,
+                () -> pool.submit(priority, () -> {
+                    work.run();
+                    return null;
+                })));
+        pool.shutdown();
+        return result;
+    }
+
+    // Open-loop arrivals at the given rate; answers arriving after the run's deadline window are ignored
+    private static Result drive(double rate, int seconds, long serviceNanos, long deadlineNanos, Submitter submitter)
+            throws InterruptedException {
+        Result result = new Result();
+        Runnable work = () -> LockSupport.parkNanos(serviceNanos);
+        long intervalNanos = (long) (1e9 / rate);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long sent = 0;
+        for (long now = start; now < end; now = System.nanoTime()) {
+            long due = (now - start) / intervalNanos;
+            for (; sent < due; sent++) {
+                AdmissionExecutor.Priority priority = MIX[(int) (sent % MIX.length)];
+                long arrived = start + sent * intervalNanos;
+                submitter.submit(priority, work, arrived + deadlineNanos)
+                    .whenComplete((ignored, error) -> result.complete(priority, arrived, deadlineNanos, error));
+            }
+            LockSupport.parkNanos(50_000);
+        }
+        // Anything answered after this is late by definition
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(deadlineNanos) + 50);
+        return result;
+    }
+}
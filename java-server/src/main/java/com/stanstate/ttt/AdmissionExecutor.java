@@ -0,0 +1,290 @@
+package com.stanstate.ttt;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, prioritised executor for GameService work
+ * Each operation class has its own bounded queue and workers always take the highest-priority task
+ * first, so under overload stats and the match browser are shed before state polls, and state polls
+ * before moves. A full queue rejects at once (429) instead of growing until every caller times out.
+ * Every task carries a deadline, the caller's (AsyncRoutes sets it from the route timeout) or the
+ * maximum queue wait, and a task still queued past it is dropped (503) without running, so workers
+ * only spend time on answers someone is still waiting for.
+ *
+ * Configuration (system properties):
+ *   ttt.admission.threads=8            worker threads
+ *   ttt.admission.queue.move=1000      per-class queue bound (also .state, .matches, .stats)
+ *   ttt.admission.maxWaitMillis=5000   deadline for callers that set none (WebSocket commands)
+ */
+public final class AdmissionExecutor {
+    /**
+     * Operation classes, highest priority first; lobby actions (join, create, leave) share MATCHES
+     */
+    public enum Priority {
+        MOVE(1_000), STATE(500), MATCHES(200), STATS(50);
+
+        final int defaultQueueLimit;
+        final String label = name().toLowerCase(Locale.ROOT);
+
+        Priority(int defaultQueueLimit) {
+            this.defaultQueueLimit = defaultQueueLimit;
+        }
+    }
+
+    /**
+     * Work refused without running; status is the HTTP answer (429 queue full, 503 deadline passed)
+     */
+    public static final class OverloadedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private final int status;
+
+        OverloadedException(int status, String message) {
+            super(message, null, false, false);  // thrown often under load; no stack trace
+            this.status = status;
+        }
+
+        public int status() {
+            return status;
+        }
+    }
+
+    private static final long NO_DEADLINE = Long.MIN_VALUE;
+
+    // Deadline for work submitted by the current thread, and where to record it, set around a route's start (see withDeadline)
+    private static final class CallerScope {
+        long deadline = NO_DEADLINE;
+        List<CompletableFuture<?>> submitted;
+    }
+
+    private static final ThreadLocal<CallerScope> CALLER = ThreadLocal.withInitial(CallerScope::new);
+
+    private static final Log log = Log.get("executor");
+
+    private static final class Task<T> {
+        final Priority priority;
+        final Supplier<T> work;
+        final CompletableFuture<T> future;
+        final long enqueuedAt;
+        final long deadline;
+
+        Task(Priority priority, Supplier<T> work, CompletableFuture<T> future, long enqueuedAt, long deadline) {
+            this.priority = priority;
+            this.work = work;
+            this.future = future;
+            this.enqueuedAt = enqueuedAt;
+            this.deadline = deadline;
+        }
+
+        void run() {
+            try {
+                future.complete(work.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private final String name;
+    private final ArrayDeque<Task<?>>[] queues;  // guarded by lock, indexed by Priority.ordinal()
+    private final int[] limits;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Thread[] workers;
+    private final long maxWaitNanos;
+    private final AtomicInteger active = new AtomicInteger();
+    // Moving average of task run time per priority (a stats query costs far more than a move); racy updates are fine
+    private final long[] serviceNanos;
+    private volatile boolean shutdown;
+
+    private final Metrics.Counter[] queueFull;
+    private final Metrics.Counter[] expired;
+    private final Metrics.Timer[] queueWait;
+
+    public AdmissionExecutor(String name, int threads) {
+        this(name, threads, TimeUnit.MILLISECONDS.toNanos(Long.getLong("ttt.admission.maxWaitMillis", 5_000)));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    AdmissionExecutor(String name, int threads, long maxWaitNanos) {
+        this.name = name;
+        this.maxWaitNanos = maxWaitNanos;
+        Priority[] priorities = Priority.values();
+        this.queues = new ArrayDeque[priorities.length];
+        this.limits = new int[priorities.length];
+        this.serviceNanos = new long[priorities.length];
+        this.queueFull = new Metrics.Counter[priorities.length];
+        this.expired = new Metrics.Counter[priorities.length];
+        this.queueWait = new Metrics.Timer[priorities.length];
+        for (Priority priority : priorities) {
+            int i = priority.ordinal();
+            limits[i] = Integer.getInteger("ttt.admission.queue." + priority.label, priority.defaultQueueLimit);
+            queues[i] = new ArrayDeque<>(Math.min(limits[i], 256));
+            queueFull[i] = Metrics.counter("ttt_admission_rejected_total", "Work refused by admission control",
+                "executor", name, "priority", priority.label, "reason", "queue_full");
+            expired[i] = Metrics.counter("ttt_admission_rejected_total", "Work refused by admission control",
+                "executor", name, "priority", priority.label, "reason", "deadline");
+            queueWait[i] = Metrics.timer("ttt_admission_queue_wait_seconds", "Time admitted work spent queued",
+                "executor", name, "priority", priority.label);
+            Metrics.gauge("ttt_admission_queued_tasks", "Work waiting per priority",
+                () -> queued(priority), "executor", name, "priority", priority.label);
+        }
+        this.workers = new Thread[Math.max(1, threads)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(this::workLoop, name + "-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Run start on this thread with deadlineNanos (a System.nanoTime() value) as the deadline of
+     * any work it submits, adding each submitted task's future to submitted (if non-null); used by AsyncRoutes so
+     * queued work expires with its HTTP request and can be cancelled if the client goes away
+     */
+    static <T> T withDeadline(long deadlineNanos, List<CompletableFuture<?>> submitted, Supplier<T> start) {
+        CallerScope scope = CALLER.get();
+        long previousDeadline = scope.deadline;
+        List<CompletableFuture<?>> previousSubmitted = scope.submitted;
+        scope.deadline = deadlineNanos;
+        scope.submitted = submitted;
+        try {
+            return start.get();
+        } finally {
+            scope.deadline = previousDeadline;
+            scope.submitted = previousSubmitted;
+        }
+    }
+
+    /**
+     * Queue work in its class; the future fails with OverloadedException if it is refused
+     */
+    public <T> CompletableFuture<T> submit(Priority priority, Supplier<T> work) {
+        long now = System.nanoTime();
+        CallerScope scope = CALLER.get();
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Task<T> task = new Task<>(priority, work, future, now,
+            scope.deadline != NO_DEADLINE ? scope.deadline : now + maxWaitNanos);
+        if (scope.submitted != null) {
+            scope.submitted.add(future);
+        }
+        int i = priority.ordinal();
+        lock.lock();
+        try {
+            if (!shutdown && queues[i].size() < limits[i]) {
+                queues[i].addLast(task);
+                available.signal();
+                return future;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (shutdown) {
+            future.completeExceptionally(new OverloadedException(503, "Server is shutting down"));
+        } else {
+            queueFull[i].increment();
+            future.completeExceptionally(new OverloadedException(429, "Server busy, retry later"));
+        }
+        return future;
+    }
+
+    private void workLoop() {
+        while (true) {
+            Task<?> task;
+            lock.lock();
+            try {
+                while ((task = next()) == null) {
+                    if (shutdown) return;
+                    available.await();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            int i = task.priority.ordinal();
+            long now = System.nanoTime();
+            if (task.future.isDone()) {
+                continue;  // cancelled by the caller while queued
+            }
+            // Past its deadline, or too close to it to finish: running it would only produce a late answer.
+            // The estimate is capped at half the task's budget, so one long stall can't shed every later
+            // task of its class (the estimate only moves when one runs), and it decays on each shed.
+            long estimate = Math.min(serviceNanos[i], (task.deadline - task.enqueuedAt) >> 1);
+            if (now + estimate - task.deadline > 0) {
+                if (now - task.deadline < 0) {
+                    serviceNanos[i] -= serviceNanos[i] >> 3;
+                }
+                expired[i].increment();
+                task.future.completeExceptionally(new OverloadedException(503, "Request expired while queued"));
+                continue;
+            }
+            queueWait[i].recordMicros((now - task.enqueuedAt) / 1_000);
+            active.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                active.decrementAndGet();
+                long took = System.nanoTime() - now;
+                serviceNanos[i] += (took - serviceNanos[i]) >> 3;
+            }
+        }
+    }
+
+    // Highest-priority queued task; caller holds the lock
+    private Task<?> next() {
+        for (ArrayDeque<Task<?>> queue : queues) {
+            Task<?> task = queue.pollFirst();
+            if (task != null) return task;
+        }
+        return null;
+    }
+
+    public int queued(Priority priority) {
+        lock.lock();
+        try {
+            return queues[priority.ordinal()].size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int queued() {
+        lock.lock();
+        try {
+            int total = 0;
+            for (ArrayDeque<Task<?>> queue : queues) {
+                total += queue.size();
+            }
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int activeCount() {
+        return active.get();
+    }
+
+    /**
+     * Refuse new work; queued work still runs (or expires) before the workers exit
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        log.info("Admission executor shutting down", "executor", name, "queued", queued());
+    }
+}
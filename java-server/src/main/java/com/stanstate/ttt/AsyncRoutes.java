@@ -0,0 +1,301 @@
+package com.stanstate.ttt;
+
+import com.google.gson.JsonObject;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import spark.ExceptionMapper;
+import spark.Request;
+import spark.Response;
+import spark.embeddedserver.EmbeddedServer;
+import spark.embeddedserver.EmbeddedServerFactory;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyServer;
+import spark.embeddedserver.jetty.JettyHandler;
+import spark.embeddedserver.jetty.JettyServerFactory;
+import spark.http.matching.MatcherFilter;
+import spark.route.Routes;
+import spark.staticfiles.StaticFilesConfiguration;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Completes Spark routes from a CompletableFuture instead of blocking a Jetty thread on get()
+ * A route returns respond(...): the request goes async, the Jetty thread is released, and the
+ * response is written when the future completes or the route's timeout fires. Requests waiting
+ * on the game pool then cost memory, not Jetty threads.
+ *
+ * Spark serializes and closes the response for any route that returns a body, so install()
+ * registers a Jetty factory whose filter leaves the response alone when a route returns null.
+ */
+public final class AsyncRoutes {
+    private static final Log log = Log.get("http");
+    private static final AtomicInteger inFlight = new AtomicInteger();
+    private static final LongAdder completed = new LongAdder();
+    private static final LongAdder failed = new LongAdder();
+    private static final LongAdder timedOut = new LongAdder();
+    private static final LongAdder cancelled = new LongAdder();
+    private static final LongAdder shed = new LongAdder();
+    private static final Map<String, RouteMetrics> routeMetrics = new ConcurrentHashMap<>();
+    private static final byte[] SUCCESS = JsonStreamWriter.name("success");
+    private static final byte[] ERROR = JsonStreamWriter.name("error");
+
+    private AsyncRoutes() {
+    }
+
+    /**
+     * Must run before the first Spark call
+     */
+    public static void install() {
+        EmbeddedServers.add(EmbeddedServers.Identifiers.JETTY, new Factory());
+        Metrics.gauge("ttt_http_in_flight", "HTTP requests waiting on their future", inFlight::get);
+    }
+
+    // Latency and status classes per route template, looked up once per route
+    private static final class RouteMetrics {
+        final Metrics.Timer latency;
+        final Metrics.Counter ok;
+        final Metrics.Counter redirect;
+        final Metrics.Counter clientError;
+        final Metrics.Counter serverError;
+
+        RouteMetrics(String route) {
+            latency = Metrics.timer("ttt_http_request_duration_seconds", "HTTP request latency by route", "route", route);
+            ok = responses(route, "2xx");
+            redirect = responses(route, "3xx");
+            clientError = responses(route, "4xx");
+            serverError = responses(route, "5xx");
+        }
+
+        private static Metrics.Counter responses(String route, String status) {
+            return Metrics.counter("ttt_http_responses_total", "HTTP responses by route and status class",
+                "route", route, "status", status);
+        }
+
+        void observe(int status, long startedNanos) {
+            latency.recordSince(startedNanos);
+            if (status >= 500) {
+                serverError.increment();
+            } else if (status >= 400) {
+                clientError.increment();
+            } else if (status >= 300) {
+                redirect.increment();
+            } else {
+                ok.increment();
+            }
+        }
+    }
+
+    private static RouteMetrics metricsFor(String route) {
+        RouteMetrics metrics = routeMetrics.get(route);
+        return metrics != null ? metrics : routeMetrics.computeIfAbsent(route, RouteMetrics::new);
+    }
+
+    /**
+     * Record a request answered synchronously (e.g. a 304) under the same route metrics
+     */
+    public static void observe(Request request, int status, long startedNanos) {
+        metricsFor(request.requestMethod() + " " + request.matchedPath()).observe(status, startedNanos);
+    }
+
+    /**
+     * Run the route's work and answer when it completes; exceptions thrown while starting it
+     * (e.g. a malformed body) are answered the same way as a failed future
+     */
+    public static Object respond(Request request, Response response, long timeoutMillis,
+                                 Supplier<CompletableFuture<String>> work) {
+        return respondJson(request, response, timeoutMillis,
+            () -> work.get().thenApply(text -> (JsonStreamWriter.Body) out -> out.raw(text)));
+    }
+
+    /**
+     * Same, for bodies that stream themselves (no tree, no String) into the response
+     */
+    static Object respondJson(Request request, Response response, long timeoutMillis,
+                              Supplier<? extends CompletableFuture<? extends JsonStreamWriter.Body>> work) {
+        long started = System.nanoTime();
+        // The game-pool tasks behind the route's future, which is usually derived from them by thenApply
+        List<CompletableFuture<?>> sources = new ArrayList<>(2);
+        CompletableFuture<? extends JsonStreamWriter.Body> body;
+        try {
+            // Work queued on the game pool expires with this request rather than running for nobody
+            body = AdmissionExecutor.withDeadline(started + TimeUnit.MILLISECONDS.toNanos(timeoutMillis), sources, work);
+        } catch (Exception e) {
+            body = CompletableFuture.failedFuture(e);
+        }
+
+        AsyncContext async = request.raw().startAsync();
+        async.setTimeout(0);  // our own timeout below, so it can answer with JSON
+        inFlight.incrementAndGet();
+
+        // The route template, not the path, so ids don't each get their own series
+        String route = request.requestMethod() + " " + request.matchedPath();
+        RouteMetrics metrics = metricsFor(route);
+        AtomicBoolean done = new AtomicBoolean();
+        CompletableFuture<? extends JsonStreamWriter.Body> pending = body;
+
+        // Client went away: drop its queued work, not just the future derived from it, then stop caring about the result
+        async.addListener(new AsyncListener() {
+            @Override public void onComplete(AsyncEvent event) { }
+            @Override public void onTimeout(AsyncEvent event) { }
+            @Override public void onStartAsync(AsyncEvent event) { }
+            @Override public void onError(AsyncEvent event) {
+                boolean dropped = false;
+                for (CompletableFuture<?> source : sources) {
+                    dropped |= source.cancel(true);
+                }
+                if (pending.cancel(true) || dropped) {
+                    cancelled.increment();
+                }
+            }
+        });
+
+        body.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((result, error) -> {
+            if (!done.compareAndSet(false, true)) return;
+            if (error == null) {
+                completed.increment();
+                metrics.observe(200, started);
+                finish(async, route, -1, result);
+                return;
+            }
+
+            Throwable cause = unwrap(error);
+            int status;
+            String message;
+            if (cause instanceof TimeoutException) {
+                timedOut.increment();
+                status = 503;
+                message = "Request timed out after " + timeoutMillis + "ms";
+            } else if (cause instanceof AdmissionExecutor.OverloadedException) {
+                shed.increment();
+                status = ((AdmissionExecutor.OverloadedException) cause).status();
+                message = cause.getMessage();
+            } else if (cause instanceof CancellationException) {
+                // Cancelled because the client disconnected; nobody is listening
+                inFlight.decrementAndGet();
+                async.complete();
+                return;
+            } else if (cause instanceof IllegalArgumentException) {
+                failed.increment();
+                status = 400;
+                message = cause.getMessage();
+            } else {
+                failed.increment();
+                status = 500;
+                message = cause.getMessage();
+            }
+            metrics.observe(status, started);
+            if (cause instanceof AdmissionExecutor.OverloadedException) {
+                log.debug("Route shed", "route", route, "status", status);  // counted; too frequent for INFO
+            } else {
+                log.info("Route failed", "route", route, "status", status, "error", message);
+            }
+
+            finish(async, route, status, out -> out.beginObject()
+                .field(SUCCESS, false)
+                .field(ERROR, message)
+                .endObject());
+        });
+        return null;
+    }
+
+    // Written from a Jetty thread so a slow client never stalls the game pool
+    private static void finish(AsyncContext async, String route, int status, JsonStreamWriter.Body body) {
+        try {
+            async.start(() -> {
+                try {
+                    HttpServletResponse raw = (HttpServletResponse) async.getResponse();
+                    if (status > 0) {
+                        raw.setStatus(status);
+                    }
+                    if (status == 429 || status == 503) {
+                        raw.setHeader("Retry-After", "1");
+                    }
+                    if (raw.getContentType() == null) {
+                        raw.setContentType("application/json");
+                    }
+                    JsonStreamWriter writer = JsonStreamWriter.forThread();
+                    body.writeTo(writer);
+                    raw.setContentLength(writer.size());
+                    // Closing commits the response before complete() so Jetty doesn't treat it as unhandled
+                    try (ServletOutputStream out = raw.getOutputStream()) {
+                        writer.writeTo(out);
+                    }
+                } catch (IOException e) {
+                    log.warn("Failed to write response", "route", route, "error", e.getMessage());
+                } finally {
+                    inFlight.decrementAndGet();
+                    async.complete();
+                }
+            });
+        } catch (IllegalStateException e) {
+            // Request already completed (connection closed underneath us)
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    public static JsonObject snapshot() {
+        JsonObject stats = new JsonObject();
+        stats.addProperty("success", true);
+        stats.addProperty("inFlight", inFlight.get());
+        stats.addProperty("completed", completed.sum());
+        stats.addProperty("failed", failed.sum());
+        stats.addProperty("timedOut", timedOut.sum());
+        stats.addProperty("cancelled", cancelled.sum());
+        stats.addProperty("shed", shed.sum());
+        return stats;
+    }
+
+    // Same as Spark's EmbeddedJettyFactory, except the filter leaves unanswered (async) requests alone
+    private static final class Factory implements EmbeddedServerFactory {
+        @Override
+        public EmbeddedServer create(Routes routes, StaticFilesConfiguration staticFiles,
+                                     ExceptionMapper exceptionMapper, boolean hasMultipleHandler) {
+            MatcherFilter filter = new MatcherFilter(routes, staticFiles, exceptionMapper, false, true);
+            filter.init(null);
+            Handler handler = new JettyHandler(filter);
+            return new EmbeddedJettyServer(new ServerFactory(), handler);
+        }
+    }
+
+    private static final class ServerFactory implements JettyServerFactory {
+        @Override
+        public Server create(int maxThreads, int minThreads, int threadTimeoutMillis) {
+            // Spark's defaults when nothing is configured
+            QueuedThreadPool pool = new QueuedThreadPool(maxThreads > 0 ? maxThreads : 200,
+                minThreads > 0 ? minThreads : 8, threadTimeoutMillis > 0 ? threadTimeoutMillis : 60_000);
+            return new Server(pool);
+        }
+
+        @Override
+        public Server create(ThreadPool threadPool) {
+            return threadPool != null ? new Server(threadPool) : create(0, 0, 0);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.stanstate.ttt;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Runs the ops of one /api/batch request through the WebSocket command table
+ * Ops that share a session or a matchId are chained in list order, so a "state" after a "move"
+ * sees the move and a move waits for the opponent's join_match. Everything else, including
+ * session-less ops such as stats, starts together. A failed op doesn't stop the ones after it.
+ * Results come back in list order.
+ *
+ * The request itself pays one STATE token at the HTTP filter; each op then pays its own class
+ * (as the same command would over the WebSocket), so a batch can't carry 32 moves for the price
+ * of one poll. An op over its limit fails alone with "Rate limit exceeded".
+ *
+ * Request:  {"sessionId":"...","ops":[{"op":"move","matchId":"...","cell":4},{"op":"state"},
+ *            {"op":"stats","playerName":"Alice"}]}
+ * Response: {"success":true,"results":[{"op":"move","success":true,...},...]}
+ */
+public class BatchExecutor {
+    static final int MAX_OPS = Integer.getInteger("ttt.http.maxBatchOps", 32);
+
+    private final WebSocketCommandHandler commands;
+    private final RateLimiter rateLimiter = RateLimiter.getInstance();
+
+    public BatchExecutor(WebSocketCommandHandler commands) {
+        this.commands = commands;
+    }
+
+    /**
+     * addressHash keys the rate limit of ops that name no session, as for the HTTP routes
+     */
+    public CompletableFuture<JsonObject> execute(JsonObject request, int addressHash) {
+        if (request == null || !request.has("ops") || !request.get("ops").isJsonArray()) {
+            throw new IllegalArgumentException("Expected an \"ops\" array");
+        }
+        JsonArray ops = request.getAsJsonArray("ops");
+        if (ops.size() > MAX_OPS) {
+            throw new IllegalArgumentException("Too many ops: " + ops.size() + " (max " + MAX_OPS + ")");
+        }
+        String defaultSession = request.has("sessionId") ? request.get("sessionId").getAsString() : null;
+
+        // Last op queued per session / match; the next one touching either waits for it
+        Map<String, CompletableFuture<JsonObject>> tails = new HashMap<>();
+        // Ops without a matchId (state, sync) belong to the match their session last named
+        Map<String, String> sessionMatches = new HashMap<>();
+        List<CompletableFuture<JsonObject>> results = new ArrayList<>(ops.size());
+
+        for (JsonElement element : ops) {
+            if (!element.isJsonObject() || !element.getAsJsonObject().has("op")) {
+                results.add(CompletableFuture.completedFuture(failure(null, "Each op needs an \"op\" field")));
+                continue;
+            }
+            JsonObject op = element.getAsJsonObject();
+            String type = op.get("op").getAsString();
+            String sessionId = op.has("sessionId") ? op.get("sessionId").getAsString() : defaultSession;
+
+            CompletableFuture<JsonObject> result;
+            boolean anonymous = WebSocketCommandHandler.allowsAnonymous(type);
+            if (!WebSocketCommandHandler.isCommand(type)) {
+                result = CompletableFuture.failedFuture(new IllegalArgumentException("Unknown op " + type));
+            } else if (sessionId == null && !anonymous) {
+                result = CompletableFuture.failedFuture(new IllegalArgumentException("No sessionId for " + type));
+            } else if (!rateLimiter.tryAcquire(Server.commandClass(type), sessionId != null ? sessionId.hashCode() : addressHash)) {
+                result = CompletableFuture.failedFuture(new IllegalStateException("Rate limit exceeded"));
+            } else if (anonymous) {
+                result = start(type, null, op);
+            } else {
+                String sessionKey = "session:" + sessionId;
+                String matchId = op.has("matchId") ? op.get("matchId").getAsString() : sessionMatches.get(sessionId);
+                String matchKey = matchId != null ? "match:" + matchId : null;
+                if (matchId != null) sessionMatches.put(sessionId, matchId);
+                CompletableFuture<JsonObject> bySession = tails.get(sessionKey);
+                CompletableFuture<JsonObject> byMatch = matchKey != null ? tails.get(matchKey) : null;
+
+                if (bySession == null && byMatch == null) {
+                    result = start(type, sessionId, op);
+                } else {
+                    CompletableFuture<?> previous = bySession == null ? byMatch
+                        : byMatch == null ? bySession : CompletableFuture.allOf(bySession, byMatch);
+                    result = previous.handle((payload, error) -> null).thenCompose(ignored -> start(type, sessionId, op));
+                }
+                tails.put(sessionKey, result);
+                if (matchKey != null) tails.put(matchKey, result);
+            }
+            results.add(result.handle((payload, error) -> error != null ? failure(type, cause(error).getMessage()) : item(type, payload)));
+        }
+
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            JsonArray items = new JsonArray();
+            boolean allSucceeded = true;
+            for (CompletableFuture<JsonObject> result : results) {
+                JsonObject item = result.join();
+                allSucceeded &= item.has("success") && item.get("success").getAsBoolean();
+                items.add(item);
+            }
+            JsonObject response = new JsonObject();
+            response.addProperty("success", allSucceeded);
+            response.add("results", items);
+            return response;
+        });
+    }
+
+    private CompletableFuture<JsonObject> start(String type, String sessionId, JsonObject op) {
+        try {
+            return commands.execute(null, type, sessionId, op);
+        } catch (Exception e) {
+            // Missing or malformed fields
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Invalid op: " + e.getMessage()));
+        }
+    }
+
+    private static JsonObject item(String type, JsonObject payload) {
+        JsonObject item = new JsonObject();
+        item.addProperty("op", type);
+        for (Map.Entry<String, JsonElement> entry : payload.entrySet()) {
+            item.add(entry.getKey(), entry.getValue());
+        }
+        return item;
+    }
+
+    private static JsonObject failure(String type, String error) {
+        JsonObject item = new JsonObject();
+        if (type != null) item.addProperty("op", type);
+        item.addProperty("success", false);
+        item.addProperty("error", error);
+        return item;
+    }
+
+    private static Throwable cause(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+}
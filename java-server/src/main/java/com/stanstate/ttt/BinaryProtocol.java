@@ -0,0 +1,245 @@
+package com.stanstate.ttt;
+
+import com.google.gson.JsonObject;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Compact binary wire format, negotiated with the "ttt.bin.v1" WebSocket sub-protocol
+ * Clients that don't offer the sub-protocol keep receiving the JSON messages.
+ *
+ * Every frame starts with [version:u8][type:u8]. Integers are big-endian.
+ *   MOVE          c->s  [rid:u16][matchId:16][cell:u8]
+ *   MOVE_RESULT   s->c  [rid:u16][success:u8][flags:u8][board:3][result:u8]
+ *   STATE         s->c  [flags:u8][board:3][result:u8][matchId:16 if HAS_MATCH]
+ *   MATCH_START   s->c  [flags:u8][matchId:16]
+ *   GAME_OVER     s->c  [flags:u8][board:3][result:u8][matchId:16 if HAS_MATCH]
+ *   HEARTBEAT     s->c  [timestamp:u64]
+ *   HEARTBEAT_ACK c->s  [timestamp:u64]
+ *   DELTA         s->c  [flags:u8][seq:u32][cell:u8, 0xFF if none][result:u8][matchId:16]
+ *
+ * Boards pack 2 bits per cell (0 empty, 1 X, 2 O), cell 0 in the lowest bits.
+ * Match ids are sent as raw UUID bytes, so messages for non-UUID ids fall back to JSON.
+ */
+public final class BinaryProtocol {
+    public static final String SUBPROTOCOL = "ttt.bin.v1";
+    public static final byte VERSION = 1;
+
+    public static final byte MOVE = 0x01;
+    public static final byte MOVE_RESULT = 0x02;
+    public static final byte STATE = 0x03;
+    public static final byte MATCH_START = 0x04;
+    public static final byte GAME_OVER = 0x05;
+    public static final byte HEARTBEAT = 0x06;
+    public static final byte HEARTBEAT_ACK = 0x07;
+    public static final byte DELTA = 0x08;
+
+    // flags
+    public static final int NEXT_IS_O = 0x01;
+    public static final int YOUR_TURN = 0x02;
+    public static final int YOUR_MARK_O = 0x04;
+    public static final int HAS_MATCH = 0x08;
+    public static final int MARK_O = 0x10;
+
+    // result codes
+    public static final int ONGOING = 0;
+    public static final int X_WINS = 1;
+    public static final int O_WINS = 2;
+    public static final int DRAW = 3;
+    public static final int FORFEIT_X_WINS = 4;
+    public static final int FORFEIT_O_WINS = 5;
+
+    private BinaryProtocol() {}
+
+    // Decoded client move
+    public static class Move {
+        public final int rid;
+        public final String matchId;
+        public final int cell;
+
+        Move(int rid, String matchId, int cell) {
+            this.rid = rid;
+            this.matchId = matchId;
+            this.cell = cell;
+        }
+    }
+
+    public static class ProtocolException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public ProtocolException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Encode a server notification; returns null when the message has no binary form
+     */
+    public static ByteBuffer encode(JsonObject message) {
+        if (!message.has("t")) return null;
+
+        switch (message.get("t").getAsString()) {
+            case "game_update":
+            case "game_state":
+                return encodeState(STATE, message);
+            case "game_over":
+                return encodeState(GAME_OVER, message);
+            case "match_start":
+                return encodeMatchStart(message);
+            case "delta":
+                return encodeDelta(message);
+            case "heartbeat": {
+                long timestamp = message.has("timestamp") ? message.get("timestamp").getAsLong() : System.currentTimeMillis();
+                return heartbeat(timestamp);
+            }
+            default:
+                return null;
+        }
+    }
+
+    public static ByteBuffer heartbeat(long timestamp) {
+        ByteBuffer buf = ByteBuffer.allocate(10);
+        buf.put(VERSION).put(HEARTBEAT).putLong(timestamp);
+        return buf.flip();
+    }
+
+    public static ByteBuffer moveResult(int rid, boolean success, String board, String currentTurn,
+                                        boolean yourTurn, String result) {
+        int flags = ("O".equals(currentTurn) ? NEXT_IS_O : 0) | (yourTurn ? YOUR_TURN : 0);
+        ByteBuffer buf = ByteBuffer.allocate(10);
+        buf.put(VERSION).put(MOVE_RESULT).putShort((short) rid).put((byte) (success ? 1 : 0)).put((byte) flags);
+        putBoard(buf, board);
+        buf.put((byte) resultCode(result));
+        return buf.flip();
+    }
+
+    public static byte peekType(ByteBuffer frame) {
+        if (frame.remaining() < 2) {
+            throw new ProtocolException("Frame too short");
+        }
+        byte version = frame.get(frame.position());
+        if (version != VERSION) {
+            throw new ProtocolException("Unsupported protocol version " + version);
+        }
+        return frame.get(frame.position() + 1);
+    }
+
+    public static Move decodeMove(ByteBuffer frame) {
+        if (frame.remaining() != 21) {
+            throw new ProtocolException("Bad MOVE length " + frame.remaining());
+        }
+        frame.position(frame.position() + 2);
+        int rid = frame.getShort() & 0xFFFF;
+        String matchId = new UUID(frame.getLong(), frame.getLong()).toString();
+        int cell = frame.get() & 0xFF;
+        return new Move(rid, matchId, cell);
+    }
+
+    public static long decodeHeartbeatAck(ByteBuffer frame) {
+        if (frame.remaining() != 10) {
+            throw new ProtocolException("Bad HEARTBEAT_ACK length " + frame.remaining());
+        }
+        return frame.getLong(frame.position() + 2);
+    }
+
+    private static ByteBuffer encodeState(byte type, JsonObject message) {
+        String board = string(message, "board");
+        if (board == null || board.length() != 9) return null;
+
+        UUID match = matchUuid(message);
+        String matchId = string(message, "matchId", "match_id");
+        if (match == null && matchId != null) return null; // non-UUID id, keep JSON
+
+        String next = string(message, "current_turn", "currentTurn", "next");
+        int flags = "O".equals(next) ? NEXT_IS_O : 0;
+        if (message.has("yourTurn") && message.get("yourTurn").getAsBoolean()) flags |= YOUR_TURN;
+        if (match != null) flags |= HAS_MATCH;
+
+        String result = string(message, "result");
+        if (result == null && type == GAME_OVER) result = string(message, "status");
+
+        ByteBuffer buf = ByteBuffer.allocate(match != null ? 23 : 7);
+        buf.put(VERSION).put(type).put((byte) flags);
+        putBoard(buf, board);
+        buf.put((byte) resultCode(result));
+        if (match != null) putUuid(buf, match);
+        return buf.flip();
+    }
+
+    private static ByteBuffer encodeMatchStart(JsonObject message) {
+        UUID match = matchUuid(message);
+        if (match == null) return null;
+
+        String mark = string(message, "yourMark", "your_mark");
+        int flags = HAS_MATCH | ("O".equals(mark) ? YOUR_MARK_O : 0);
+        if (message.has("yourTurn") && message.get("yourTurn").getAsBoolean()) flags |= YOUR_TURN;
+
+        ByteBuffer buf = ByteBuffer.allocate(19);
+        buf.put(VERSION).put(MATCH_START).put((byte) flags);
+        putUuid(buf, match);
+        return buf.flip();
+    }
+
+    private static ByteBuffer encodeDelta(JsonObject message) {
+        UUID match = matchUuid(message);
+        if (match == null) return null;
+
+        int flags = HAS_MATCH;
+        if ("O".equals(string(message, "mark"))) flags |= MARK_O;
+        if ("O".equals(string(message, "next"))) flags |= NEXT_IS_O;
+        int cell = message.get("cell").getAsInt();
+
+        ByteBuffer buf = ByteBuffer.allocate(25);
+        buf.put(VERSION).put(DELTA).put((byte) flags);
+        buf.putInt((int) message.get("seq").getAsLong());
+        buf.put((byte) (cell < 0 ? 0xFF : cell));
+        buf.put((byte) resultCode(string(message, "result")));
+        putUuid(buf, match);
+        return buf.flip();
+    }
+
+    static void putBoard(ByteBuffer buf, String board) {
+        int packed = 0;
+        for (int i = 0; i < 9 && i < board.length(); i++) {
+            char c = board.charAt(i);
+            int cell = c == 'X' ? 1 : c == 'O' ? 2 : 0;
+            packed |= cell << (i * 2);
+        }
+        buf.put((byte) (packed >>> 16)).put((byte) (packed >>> 8)).put((byte) packed);
+    }
+
+    static int resultCode(String result) {
+        if (result == null) return ONGOING;
+        switch (result) {
+            case "X_wins": case "X": return X_WINS;
+            case "O_wins": case "O": return O_WINS;
+            case "draw": return DRAW;
+            case "forfeit:X": return FORFEIT_X_WINS;
+            case "forfeit:O": return FORFEIT_O_WINS;
+            default: return ONGOING;
+        }
+    }
+
+    private static UUID matchUuid(JsonObject message) {
+        String matchId = string(message, "matchId", "match_id");
+        if (matchId == null || matchId.length() != 36) return null;
+        try {
+            return UUID.fromString(matchId);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void putUuid(ByteBuffer buf, UUID uuid) {
+        buf.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+    }
+
+    private static String string(JsonObject message, String... keys) {
+        for (String key : keys) {
+            if (message.has(key) && !message.get(key).isJsonNull()) {
+                return message.get(key).getAsString();
+            }
+        }
+        return null;
+    }
+}
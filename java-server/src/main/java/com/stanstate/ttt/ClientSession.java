@@ -1,14 +1,19 @@
 package com.stanstate.ttt;
 import com.google.gson.JsonObject;
 import org.java_websocket.WebSocket;
+import java.util.UUID;
 public class ClientSession {
+  private static final Log log = Log.get("ws");
   public final WebSocket conn;
+  public final String connId = UUID.randomUUID().toString();
   public String userId;
   public String matchId;
   public int seat;
   public ClientSession(WebSocket c){ this.conn=c; }
   public void send(JsonObject obj){ 
-    System.out.println("Sending to client: " + obj.toString());
-    conn.send(obj.toString()); 
+    String text = obj.toString();
+    log.trace("Sending to client", "conn", connId, "message", text);
+    // Bounded like every other WebSocket send; superseded room state coalesces under backpressure
+    OutboundBudget.getInstance().send(conn, text, OutboundBudget.supersedeKey(obj));
   }
 }
\ No newline at end of file
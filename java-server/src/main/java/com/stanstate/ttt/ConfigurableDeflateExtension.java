@@ -0,0 +1,137 @@
+package com.stanstate.ttt;
+
+import com.google.gson.JsonObject;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+/**
+ * permessage-deflate with a configurable compression level and size threshold
+ * Opt-in via -Dttt.ws.deflate=true; records bytes before/after compression per message type
+ * so the bandwidth vs CPU tradeoff can be measured in production.
+ */
+public class ConfigurableDeflateExtension extends PerMessageDeflateExtension {
+    public static final boolean ENABLED = Boolean.getBoolean("ttt.ws.deflate");
+    public static final int DEFAULT_LEVEL = Integer.getInteger("ttt.ws.deflateLevel", Deflater.DEFAULT_COMPRESSION);
+    public static final int DEFAULT_THRESHOLD = Integer.getInteger("ttt.ws.deflateThreshold", 256);
+
+    private static final ConcurrentHashMap<String, TypeStats> STATS = new ConcurrentHashMap<>();
+    private static final int MAX_TYPE_LENGTH = 32;
+
+    private final int level;
+
+    // Outbound totals for one message type
+    private static class TypeStats {
+        final LongAdder messages = new LongAdder();
+        final LongAdder compressed = new LongAdder();
+        final LongAdder bytesBefore = new LongAdder();
+        final LongAdder bytesAfter = new LongAdder();
+    }
+
+    public ConfigurableDeflateExtension(int level, int threshold) {
+        this.level = level;
+        setThreshold(threshold);
+        setDeflater(new Deflater(level, true));
+    }
+
+    @Override
+    public void encodeFrame(Framedata frame) {
+        if (!(frame instanceof DataFrame)) {
+            super.encodeFrame(frame);
+            return;
+        }
+        int before = frame.getPayloadData().remaining();
+        String type = messageType(frame);
+        super.encodeFrame(frame);
+        int after = frame.getPayloadData().remaining();
+
+        TypeStats stats = STATS.computeIfAbsent(type, k -> new TypeStats());
+        stats.messages.increment();
+        stats.bytesBefore.add(before);
+        stats.bytesAfter.add(after);
+        if (frame.isRSV1()) {
+            stats.compressed.increment();
+        }
+    }
+
+    // The draft copies extensions per connection; keep our settings instead of the library defaults
+    @Override
+    public IExtension copyInstance() {
+        return new ConfigurableDeflateExtension(level, getThreshold());
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Bytes before and after compression per outbound message type
+     */
+    public static JsonObject snapshot() {
+        JsonObject result = new JsonObject();
+        result.addProperty("success", true);
+        result.addProperty("enabled", ENABLED);
+        result.addProperty("level", DEFAULT_LEVEL);
+        result.addProperty("threshold", DEFAULT_THRESHOLD);
+
+        long totalBefore = 0;
+        long totalAfter = 0;
+        JsonObject types = new JsonObject();
+        for (Map.Entry<String, TypeStats> entry : new TreeMap<>(STATS).entrySet()) {
+            TypeStats stats = entry.getValue();
+            long before = stats.bytesBefore.sum();
+            long after = stats.bytesAfter.sum();
+            totalBefore += before;
+            totalAfter += after;
+
+            JsonObject item = new JsonObject();
+            item.addProperty("messages", stats.messages.sum());
+            item.addProperty("compressed", stats.compressed.sum());
+            item.addProperty("bytesBefore", before);
+            item.addProperty("bytesAfter", after);
+            item.addProperty("ratio", before == 0 ? 1.0 : Math.round(1000.0 * after / before) / 1000.0);
+            types.add(entry.getKey(), item);
+        }
+        result.addProperty("bytesBefore", totalBefore);
+        result.addProperty("bytesAfter", totalAfter);
+        result.add("types", types);
+        return result;
+    }
+
+    // {"t":"<type>",... for JSON text, the type byte for BinaryProtocol frames
+    private static String messageType(Framedata frame) {
+        ByteBuffer payload = frame.getPayloadData();
+        int start = payload.position();
+        if (frame.getOpcode() == Opcode.TEXT) {
+            String prefix = "{\"t\":\"";
+            int limit = Math.min(payload.limit(), start + prefix.length() + MAX_TYPE_LENGTH);
+            if (payload.limit() - start > prefix.length()) {
+                boolean matches = true;
+                for (int i = 0; i < prefix.length() && matches; i++) {
+                    matches = payload.get(start + i) == prefix.charAt(i);
+                }
+                if (matches) {
+                    StringBuilder type = new StringBuilder();
+                    for (int i = start + prefix.length(); i < limit; i++) {
+                        byte b = payload.get(i);
+                        if (b == '"') return type.toString();
+                        type.append((char) b);
+                    }
+                }
+            }
+            return "text";
+        }
+        if (frame.getOpcode() == Opcode.BINARY && payload.remaining() >= 2) {
+            return "binary:" + (payload.get(start + 1) & 0xFF);
+        }
+        return frame.getOpcode().name().toLowerCase();
+    }
+}
@@ -0,0 +1,64 @@
+package com.stanstate.ttt;
+
+import org.java_websocket.WebSocket;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-connection state bound to the WebSocket via setAttachment
+ * Gives O(1) connection -> session lookup; WebSocketNotifier keeps the session -> connection side
+ */
+public class ConnectionContext {
+    public final String remoteAddress;
+    final int addressHash;  // hash of the host address alone, as HTTP's request.ip(); keys RateLimiter
+    public final long openedAt;
+    public final boolean binaryProtocol;  // negotiated BinaryProtocol.SUBPROTOCOL
+    private volatile String sessionId;
+
+    // Outbound backpressure state, guarded by this context's monitor (see OutboundBudget)
+    final LinkedHashMap<String, Object> deferred = new LinkedHashMap<>();
+    long overBudgetSince;
+    long coalesced;
+    long peakBufferedBytes;
+    boolean slowConsumer;   // disconnected for backpressure; later sends are dropped
+    volatile long lastPongNanos = System.nanoTime();   // liveness, see Server.pingConnections
+
+    // Matches this connection spectates (see SpectatorHub)
+    final Set<String> watching = ConcurrentHashMap.newKeySet();
+
+    public ConnectionContext(WebSocket conn) {
+        InetSocketAddress remote = conn.getRemoteSocketAddress();
+        this.remoteAddress = String.valueOf(remote);
+        this.addressHash = remote != null && remote.getAddress() != null
+            ? remote.getAddress().getHostAddress().hashCode() : 0;
+        this.openedAt = System.currentTimeMillis();
+        this.binaryProtocol = conn.getProtocol() != null &&
+            BinaryProtocol.SUBPROTOCOL.equals(conn.getProtocol().getProvidedProtocol());
+    }
+
+    public static ConnectionContext of(WebSocket conn) {
+        if (conn == null) return null;
+        ConnectionContext context = conn.getAttachment();
+        if (context == null) {
+            context = new ConnectionContext(conn);
+            conn.setAttachment(context);
+        }
+        return context;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    void recordBuffered(long bytes) {
+        if (bytes > peakBufferedBytes) {
+            peakBufferedBytes = bytes;
+        }
+    }
+}
@@ -9,9 +9,12 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 public class ConnectionPool {
-    private static final String DB_URL = "jdbc:sqlite:database/ttt_game.db?journal_mode=WAL&synchronous=NORMAL&cache_size=10000&temp_store=memory";
+    static final String DB_FILE = "database/ttt_game.db";
+    private static final String DB_URL = "jdbc:sqlite:" + DB_FILE + "?journal_mode=WAL&synchronous=NORMAL&cache_size=10000&temp_store=memory";
     private static final int POOL_SIZE = 10; // Increased pool size
     private static ConnectionPool instance;
+    private static final Metrics.Timer WAIT = Metrics.timer("ttt_db_pool_wait_seconds",
+        "Time spent waiting for a pooled database connection");
     
     private final BlockingQueue<Connection> pool;
     private volatile boolean shutdown = false;
@@ -53,6 +56,7 @@ public class ConnectionPool {
                 pool.offer(conn);
             }
             
+            Metrics.gauge("ttt_db_pool_idle_connections", "Pooled database connections not in use", this::idleConnections);
             System.out.println("Connection pool initialized with " + POOL_SIZE + " connections");
         } catch (SQLException e) {
             // Cleanup on error
@@ -72,12 +76,21 @@ public class ConnectionPool {
     }
     
     public Connection getConnection() throws SQLException {
+        return getConnection(10_000);
+    }
+    
+    /**
+     * Like getConnection(), but gives up after timeoutMillis (health checks must not queue behind requests)
+     */
+    public Connection getConnection(long timeoutMillis) throws SQLException {
         if (shutdown) {
             throw new SQLException("Connection pool is shutdown");
         }
         
         try {
-            Connection conn = pool.poll(10, TimeUnit.SECONDS); // Increased timeout
+            long waitStart = System.nanoTime();
+            Connection conn = pool.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+            WAIT.recordSince(waitStart);
             if (conn == null) {
                 throw new SQLException("Unable to get connection from pool within timeout");
             }
@@ -99,6 +112,14 @@ public class ConnectionPool {
         }
     }
     
+    public int idleConnections() {
+        return pool.size();
+    }
+    
+    public int capacity() {
+        return POOL_SIZE;
+    }
+    
     public void returnConnection(Connection conn) {
         if (shutdown || conn == null) {
             return;
@@ -0,0 +1,151 @@
+package com.stanstate.ttt;
+
+import com.google.gson.JsonObject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory connection quality per session, measured from WebSocket ping/pong round trips
+ * Used by matchmaking to pair players with similar latency and to flag laggy sessions
+ */
+public class ConnectionQualityTracker implements MatchmakingQueue.ConnectionQuality {
+    private static final double RTT_SMOOTHING = 0.2;          // EWMA weight of the newest sample
+    private static final double POOR_QUALITY_THRESHOLD = 0.5;
+    private static final double POOR_RTT_MILLIS = 400.0;
+    private static final int POOR_MISSED_PINGS = 2;
+
+    private static ConnectionQualityTracker instance;
+    private final ConcurrentHashMap<String, Health> sessions;
+    private final LatencyHistogram globalRtt;   // microseconds, every pong on every connection
+
+    // Per-session health entry
+    public static class Health {
+        public volatile double rttMillis = -1;
+        public volatile double jitterMillis = 0;
+        public volatile double quality = 1.0;
+        public volatile int missedPings = 0;
+        public volatile long samples = 0;
+        public final LatencyHistogram rttHistogram = new LatencyHistogram();   // microseconds
+        volatile boolean awaitingPong = false;
+    }
+
+    private ConnectionQualityTracker() {
+        this.sessions = new ConcurrentHashMap<>();
+        this.globalRtt = new LatencyHistogram();
+    }
+
+    public static synchronized ConnectionQualityTracker getInstance() {
+        if (instance == null) {
+            instance = new ConnectionQualityTracker();
+        }
+        return instance;
+    }
+
+    public void onPingSent(String sessionId) {
+        Health health = sessions.computeIfAbsent(sessionId, k -> new Health());
+        synchronized (health) {
+            // Previous ping never answered
+            if (health.awaitingPong) {
+                health.missedPings++;
+                health.quality = Math.max(0.0, health.quality * 0.9);
+            }
+            health.awaitingPong = true;
+        }
+    }
+
+    /**
+     * Pong for a ping we sent; the round trip is measured from the timestamp echoed in its payload
+     */
+    public void onPong(String sessionId, long rttNanos) {
+        long micros = rttNanos / 1_000;
+        globalRtt.record(micros);
+        if (sessionId == null) return;
+
+        // Entries come from onPingSent; a pong racing the close must not bring one back
+        Health health = sessions.get(sessionId);
+        if (health == null) return;
+        health.rttHistogram.record(micros);
+        synchronized (health) {
+            health.awaitingPong = false;
+            recordRtt(health, rttNanos / 1_000_000.0);
+            health.missedPings = 0;
+            health.quality = Math.min(1.0, health.quality + 0.1);
+        }
+    }
+
+    // Quality reported by the client itself (connection_quality message)
+    public void reportQuality(String sessionId, double quality) {
+        Health health = sessions.computeIfAbsent(sessionId, k -> new Health());
+        health.quality = Math.max(0.0, Math.min(1.0, quality));
+    }
+
+    public void remove(String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    public Health get(String sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    public LatencyHistogram getGlobalRtt() {
+        return globalRtt;
+    }
+
+    /**
+     * Global and per-session RTT percentiles in milliseconds
+     */
+    public JsonObject snapshot() {
+        JsonObject stats = new JsonObject();
+        stats.addProperty("success", true);
+        stats.add("global", describe(globalRtt));
+
+        JsonObject perSession = new JsonObject();
+        for (Map.Entry<String, Health> entry : sessions.entrySet()) {
+            Health health = entry.getValue();
+            JsonObject item = describe(health.rttHistogram);
+            item.addProperty("smoothedMs", Math.round(health.rttMillis * 10) / 10.0);
+            item.addProperty("jitterMs", Math.round(health.jitterMillis * 10) / 10.0);
+            item.addProperty("missedPings", health.missedPings);
+            item.addProperty("poor", isPoor(entry.getKey()));
+            perSession.add(entry.getKey(), item);
+        }
+        stats.add("sessions", perSession);
+        return stats;
+    }
+
+    private static JsonObject describe(LatencyHistogram histogram) {
+        JsonObject item = new JsonObject();
+        item.addProperty("samples", histogram.count());
+        item.addProperty("p50Ms", histogram.percentile(50) / 1000.0);
+        item.addProperty("p90Ms", histogram.percentile(90) / 1000.0);
+        item.addProperty("p99Ms", histogram.percentile(99) / 1000.0);
+        item.addProperty("maxMs", histogram.max() / 1000.0);
+        return item;
+    }
+
+    @Override
+    public double rttMillis(String sessionId) {
+        Health health = sessions.get(sessionId);
+        return health == null ? -1 : health.rttMillis;
+    }
+
+    @Override
+    public boolean isPoor(String sessionId) {
+        Health health = sessions.get(sessionId);
+        if (health == null) return false;
+        return health.quality < POOR_QUALITY_THRESHOLD
+            || health.rttMillis > POOR_RTT_MILLIS
+            || health.missedPings >= POOR_MISSED_PINGS;
+    }
+
+    private static void recordRtt(Health health, double sample) {
+        if (health.rttMillis < 0) {
+            health.rttMillis = sample;
+        } else {
+            double deviation = Math.abs(sample - health.rttMillis);
+            health.jitterMillis += RTT_SMOOTHING * (deviation - health.jitterMillis);
+            health.rttMillis += RTT_SMOOTHING * (sample - health.rttMillis);
+        }
+        health.samples++;
+    }
+}
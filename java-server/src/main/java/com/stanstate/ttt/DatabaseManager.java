@@ -3,20 +3,18 @@ package com.stanstate.ttt;
 import java.sql.*;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public class DatabaseManager {
     private static final String DB_URL = "jdbc:sqlite:database/ttt_game.db";
+    private static final int SCHEMA_VERSION = 4;
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
     private static DatabaseManager instance;
-    private final ScheduledExecutorService cleanupScheduler;
+    private TimerService.Timeout cleanupTask;
     private ConnectionPool connectionPool;
     
     private DatabaseManager() {
         // Private constructor for singleton
-        this.cleanupScheduler = Executors.newScheduledThreadPool(1);
         try {
             this.connectionPool = ConnectionPool.getInstance();
         } catch (SQLException e) {
@@ -174,7 +172,9 @@ public class DatabaseManager {
                 draws INTEGER DEFAULT 0,
                 win_rate REAL DEFAULT 0.0,
                 last_game TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                rating REAL DEFAULT 1200.0,
+                rated_games INTEGER DEFAULT 0
             )
         """);
         
@@ -185,12 +185,12 @@ public class DatabaseManager {
         """);
         
         // Set database version
-        conn.createStatement().execute("INSERT INTO schema_version (version) VALUES (3)");
-        System.out.println("Fresh database created with version 3");
+        conn.createStatement().execute("INSERT INTO schema_version (version) VALUES (" + SCHEMA_VERSION + ")");
+        System.out.println("Fresh database created with version " + SCHEMA_VERSION);
     }
     
     private void migrateDatabase(Connection conn, int currentVersion) throws SQLException {
-        System.out.println("Migrating database from version " + currentVersion + " to version 3...");
+        System.out.println("Migrating database from version " + currentVersion + " to version " + SCHEMA_VERSION + "...");
         
         if (currentVersion < 2) {
             // Add missing columns to existing tables
@@ -279,10 +279,33 @@ public class DatabaseManager {
             }
         }
         
-        // Update version to 3
+        if (currentVersion < 4) {
+            // Add skill rating columns next to player statistics for version 4
+            System.out.println("Adding skill rating columns for version 4...");
+            
+            try {
+                conn.createStatement().execute("ALTER TABLE player_stats ADD COLUMN rating REAL DEFAULT 1200.0");
+                System.out.println("Added rating to player_stats");
+            } catch (SQLException e) {
+                // Column might already exist
+            }
+            
+            try {
+                conn.createStatement().execute("ALTER TABLE player_stats ADD COLUMN rated_games INTEGER DEFAULT 0");
+                System.out.println("Added rated_games to player_stats");
+            } catch (SQLException e) {
+                // Column might already exist
+            }
+        }
+        
+        if (currentVersion >= SCHEMA_VERSION) {
+            return;
+        }
+        
+        // Update version to current
         try {
-            conn.createStatement().execute("INSERT INTO schema_version (version) VALUES (3)");
-            System.out.println("Database migrated to version 3");
+            conn.createStatement().execute("INSERT INTO schema_version (version) VALUES (" + SCHEMA_VERSION + ")");
+            System.out.println("Database migrated to version " + SCHEMA_VERSION);
         } catch (SQLException e) {
             System.err.println("Failed to update schema version: " + e.getMessage());
         }
@@ -292,13 +315,18 @@ public class DatabaseManager {
         return connectionPool.getConnection();
     }
     
+    public Connection getConnection(long timeoutMillis) throws SQLException {
+        return connectionPool.getConnection(timeoutMillis);
+    }
+    
     public ReadWriteLock getLock() {
         return lock;
     }
     
     private void startCleanupTask() {
-        // Run cleanup every 30 seconds
-        cleanupScheduler.scheduleAtFixedRate(this::cleanupDeadConnections, 30, 30, TimeUnit.SECONDS);
+        // Run cleanup every 30 seconds, on the blocking pool so a slow query never holds up matchmaking or pings
+        cleanupTask = TimerService.getInstance().scheduleBlockingAtFixedRate("db-cleanup", this::cleanupDeadConnections,
+            30, 30, TimeUnit.SECONDS);
     }
     
     public void cleanupDeadConnections() {
@@ -344,13 +372,8 @@ public class DatabaseManager {
     }
     
     public void shutdown() {
-        cleanupScheduler.shutdown();
-        try {
-            if (!cleanupScheduler.awaitTermination(5, TimeUnit.SECONDS)) {
-                cleanupScheduler.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            cleanupScheduler.shutdownNow();
+        if (cleanupTask != null) {
+            cleanupTask.cancel();
         }
     }
 }
\ No newline at end of file
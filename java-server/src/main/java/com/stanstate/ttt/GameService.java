@@ -7,109 +7,232 @@ import java.util.concurrent.*;
 
 public class GameService {
     private final DatabaseManager dbManager;
-    private final ExecutorService gameThreadPool;
+    private final AdmissionExecutor admission;
     private final WebSocketNotifier wsNotifier;
     private final GameStateCache gameCache;
+    private final SpectatorHub spectators;
     
-    // Enhanced lobby system with database persistence
-    private volatile String waitingPlayerId = null;
-    private volatile String waitingPlayerName = null;
-    private final Object lobbyLock = new Object();
+    private final MatchmakingQueue matchmakingQueue;
+    
+    private static final Log log = Log.get("game");
+    private static final Metrics.Counter MOVES_ACCEPTED =
+        Metrics.counter("ttt_moves_total", "Moves submitted; rate() gives moves per second", "result", "accepted");
+    private static final Metrics.Counter MOVES_REJECTED =
+        Metrics.counter("ttt_moves_total", "Moves submitted; rate() gives moves per second", "result", "rejected");
+    
+    private static final int GAME_THREADS = Integer.getInteger("ttt.admission.threads", 8);
+    private static final long TICKET_TIMEOUT_MILLIS = 120_000;
+    private static final long SESSION_IDLE_MILLIS = 60_000;
+    
+    // Pre-encoded member names for the streamed lobby listing
+    private static final byte[] SUCCESS = JsonStreamWriter.name("success");
+    private static final byte[] MATCHES = JsonStreamWriter.name("matches");
+    private static final byte[] MATCH_ID = JsonStreamWriter.name("matchId");
+    private static final byte[] HOST_NAME = JsonStreamWriter.name("hostName");
+    private static final byte[] CREATED_AT = JsonStreamWriter.name("createdAt");
+    private static final byte[] PLAYERS_COUNT = JsonStreamWriter.name("playersCount");
+    private static final byte[] MAX_PLAYERS = JsonStreamWriter.name("maxPlayers");
+    private static final byte[] TIME_CONTROL = JsonStreamWriter.name("timeControl");
+    private static final byte[] TOTAL_MATCHES = JsonStreamWriter.name("totalMatches");
+    
+    private final JsonStreamWriter.Body availableMatches;
     
     public GameService() {
         this.dbManager = DatabaseManager.getInstance();
         this.wsNotifier = new WebSocketNotifier();
         this.gameCache = GameStateCache.getInstance();
-        this.gameThreadPool = Executors.newFixedThreadPool(8); // Increased thread pool
-        loadLobbyState(); // Load persistent lobby state
+        this.availableMatches = out -> writeAvailableMatches(out, gameCache.getGames());
+        this.spectators = SpectatorHub.getInstance();
+        this.admission = new AdmissionExecutor("game", GAME_THREADS);
+        this.matchmakingQueue = createMatchmakingQueue();
+        gameCache.setTurnExpiryHandler(this::expireTurn);
+        registerMetrics();
     }
     
     public GameService(DatabaseManager dbManager, WebSocketNotifier wsNotifier) {
         this.dbManager = dbManager;
         this.wsNotifier = wsNotifier;
         this.gameCache = GameStateCache.getInstance();
-        this.gameThreadPool = Executors.newFixedThreadPool(8);
-        loadLobbyState();
+        this.availableMatches = out -> writeAvailableMatches(out, gameCache.getGames());
+        this.spectators = SpectatorHub.getInstance();
+        this.admission = new AdmissionExecutor("game", GAME_THREADS);
+        this.matchmakingQueue = createMatchmakingQueue();
+        gameCache.setTurnExpiryHandler(this::expireTurn);
+        registerMetrics();
     }
     
-    private void loadLobbyState() {
-        // Initialize with empty lobby state - cache-based approach
-        waitingPlayerId = null;
-        waitingPlayerName = null;
-        System.out.println("Lobby state initialized (cache-based)");
+    private void registerMetrics() {
+        Metrics.gauge("ttt_executor_queued_tasks", "Tasks waiting in an executor's queue", admission::queued,
+            "executor", "game");
+        Metrics.gauge("ttt_executor_active_threads", "Threads running a task", admission::activeCount, "executor", "game");
+        Metrics.gauge("ttt_matchmaking_queued_tickets", "Tickets waiting for an opponent", matchmakingQueue::size);
+    }
+    
+    public int queuedTasks() {
+        return admission.queued();
     }
     
     public CompletableFuture<String> joinGame(String sessionId, String playerName) {
-        return CompletableFuture.supplyAsync(() -> {
-            System.out.println("=== GameService.joinGame START (Cache-Based) ===");
-            System.out.println("SessionId: " + sessionId + ", PlayerName: " + playerName);
+        return admission.submit(AdmissionExecutor.Priority.MATCHES, () -> {
+            log.debug("joinGame", "sessionId", sessionId, "player", playerName);
             
             // Update player session in cache
             gameCache.updatePlayerSession(sessionId, playerName);
+            gameCache.setQueueExpired(sessionId, false);
             
-            // CRITICAL: Use synchronized block to prevent race conditions
-            synchronized (lobbyLock) {
-                System.out.println("Acquired lobby lock. Current waiting player: " + waitingPlayerId);
-                
-                if (waitingPlayerId == null) {
-                    // First player - put them in lobby
-                    waitingPlayerId = sessionId;
-                    waitingPlayerName = playerName;
-                    System.out.println("Player " + playerName + " put in lobby (first player)");
-                    
-                    return "waiting";
-                    
-                } else if (!waitingPlayerId.equals(sessionId)) {
-                    // Second player - create match immediately
-                    String matchId = UUID.randomUUID().toString();
-                    String player1Id = waitingPlayerId;
-                    String player1Name = waitingPlayerName;
-                    
-                    System.out.println("Second player " + playerName + " arrived! Creating match with " + player1Name);
-                    
-                    // Clear lobby BEFORE creating match (important!)
-                    waitingPlayerId = null;
-                    waitingPlayerName = null;
-                    
-                    // Create match in cache
-                    gameCache.createGame(matchId, player1Id, sessionId, player1Name, playerName);
-                    
-                    System.out.println("Match created: " + matchId);
-                    System.out.println("Player1 (X): " + player1Name + " (" + player1Id + ")");
-                    System.out.println("Player2 (O): " + playerName + " (" + sessionId + ")");
-                    
-                    return matchId;
-                } else {
-                    // Same player trying to join again - handle gracefully
-                    System.out.println("Same player " + playerName + " rejoining - keeping in lobby");
-                    return "waiting";
-                }
-            } // End synchronized block
-        }, gameThreadPool);
+            // Queue a ticket; the matchmaking pass pairs it and clients pick the match up via game-state polling
+            double rating = SkillRating.getInstance().getRating(playerName);
+            if (matchmakingQueue.enqueue(sessionId, playerName, rating)) {
+                log.info("Queued for matchmaking", "player", playerName, "rating", Math.round(rating));
+            } else {
+                log.debug("Rejoin keeps existing ticket", "player", playerName);
+            }
+            
+            return "waiting";
+        });
+    }
+    
+    private MatchmakingQueue createMatchmakingQueue() {
+        MatchmakingQueue.PairingHandler handler = new MatchmakingQueue.PairingHandler() {
+            @Override
+            public void onPaired(MatchmakingQueue.Ticket first, MatchmakingQueue.Ticket second) {
+                createRankedMatch(first, second);
+            }
+            
+            @Override
+            public void onExpired(MatchmakingQueue.Ticket ticket) {
+                log.info("Matchmaking ticket expired", "player", ticket.playerName, "sessionId", ticket.sessionId);
+                // Pollers see queueExpired in their game state; sockets get told now
+                gameCache.setQueueExpired(ticket.sessionId, true);
+                JsonObject message = new JsonObject();
+                message.addProperty("t", "error");
+                message.addProperty("code", "QUEUE_TIMEOUT");
+                message.addProperty("msg", "No opponent found");
+                wsNotifier.sendIfConnected(ticket.sessionId, message);
+            }
+        };
+        
+        // A ticket is live while its player is still polling or holds an open WebSocket
+        return new MatchmakingQueue(handler,
+            ticket -> gameCache.isSessionActive(ticket.sessionId, SESSION_IDLE_MILLIS) || wsNotifier.isConnected(ticket.sessionId),
+            TICKET_TIMEOUT_MILLIS,
+            ConnectionQualityTracker.getInstance());
+    }
+    
+    public CompletableFuture<Boolean> leaveQueue(String sessionId) {
+        return admission.submit(AdmissionExecutor.Priority.MATCHES, () -> {
+            boolean cancelled = matchmakingQueue.cancel(sessionId);
+            log.debug("Leave queue", "sessionId", sessionId, "cancelled", cancelled);
+            return cancelled;
+        });
+    }
+    
+    // Called from the matchmaking thread for each pair found
+    private void createRankedMatch(MatchmakingQueue.Ticket first, MatchmakingQueue.Ticket second) {
+        String matchId = UUID.randomUUID().toString();
+        gameCache.createGame(matchId, first.sessionId, second.sessionId, first.playerName, second.playerName);
+        
+        log.info("Match created", "matchId", matchId, "x", first.playerName, "o", second.playerName);
+        
+        // Pairing happens off the request path, so push the start instead of waiting for the next poll
+        notifyMatchStartWithRetry(matchId, first.sessionId, first.playerName, second.sessionId, second.playerName);
+    }
+    
+    public JsonObject getMatchmakingStats() {
+        JsonObject stats = new JsonObject();
+        stats.addProperty("success", true);
+        stats.addProperty("queuedTickets", matchmakingQueue.size());
+        stats.addProperty("pairedTotal", matchmakingQueue.getPairedTotal());
+        stats.addProperty("cancelledTotal", matchmakingQueue.getCancelledTotal());
+        stats.addProperty("expiredTotal", matchmakingQueue.getExpiredTotal());
+        stats.addProperty("droppedDeadTotal", matchmakingQueue.getDeadTotal());
+        stats.addProperty("flaggedPoorConnectionTotal", matchmakingQueue.getFlaggedTotal());
+        stats.addProperty("queueTimeP50Ms", matchmakingQueue.getQueueTimePercentile(50));
+        stats.addProperty("queueTimeP99Ms", matchmakingQueue.getQueueTimePercentile(99));
+        stats.addProperty("lastTickMs", matchmakingQueue.getLastTickMillis());
+        stats.addProperty("lastTickPairs", matchmakingQueue.getLastTickPairs());
+        return stats;
     }
     
     public CompletableFuture<Boolean> makeMove(String sessionId, String matchId, int cellPosition) {
-        return CompletableFuture.supplyAsync(() -> {
-            System.out.println("=== GameService.makeMove START (Cache-Based) ===");
-            System.out.println("SessionId: " + sessionId + ", MatchId: " + matchId + ", Cell: " + cellPosition);
+        return admission.submit(AdmissionExecutor.Priority.MOVE, () -> {
+            log.debug("makeMove", "sessionId", sessionId, "matchId", matchId, "cell", cellPosition);
             
             // Use cache for fast move processing
-            boolean success = gameCache.makeMove(matchId, cellPosition, sessionId);
+            GameStateCache.Delta delta = gameCache.applyMove(matchId, cellPosition, sessionId);
+            boolean success = delta != null;
             
             if (success) {
-                System.out.println("MOVE SUCCESSFUL: Position " + cellPosition + " for player " + sessionId);
+                MOVES_ACCEPTED.increment();
+                GameStateCache.GameState game = gameCache.getGame(matchId);
+                if (game != null) {
+                    publishDelta(game, delta);
+                }
                 
                 // Check if game ended
-                GameStateCache.GameState game = gameCache.getGame(matchId);
-                if (game != null && "finished".equals(game.status)) {
-                    System.out.println("GAME FINISHED: " + game.result);
+                if ("finished".equals(delta.status)) {
+                    log.info("Game finished", "matchId", matchId, "result", delta.result);
                 }
             } else {
-                System.out.println("MOVE FAILED: Invalid move for position " + cellPosition);
+                MOVES_REJECTED.increment();
+                log.debug("Move rejected", "matchId", matchId, "cell", cellPosition);
             }
             
             return success;
-        }, gameThreadPool);
+        });
+    }
+    
+    /**
+     * A turn's clock ran out (called on the timer thread): forfeit it on the game pool like a move.
+     * If the pool sheds it, try again shortly; the player can't move in the meantime anyway.
+     */
+    private void expireTurn(String matchId, long seq) {
+        admission.submit(AdmissionExecutor.Priority.MOVE, () -> {
+            GameStateCache.Delta delta = gameCache.expireTurn(matchId, seq);
+            GameStateCache.GameState game = gameCache.getGame(matchId);
+            if (delta != null && game != null) {
+                publishDelta(game, delta);
+                log.info("Turn timed out", "matchId", matchId, "result", delta.result,
+                    "timeControl", game.timeControl.name);
+            }
+            return delta;
+        }).whenComplete((delta, error) -> {
+            if (error instanceof AdmissionExecutor.OverloadedException) {
+                TimerService.getInstance().schedule(() -> expireTurn(matchId, seq), 1, TimeUnit.SECONDS);
+            } else if (error != null) {
+                log.error("Turn expiry failed", "matchId", matchId, error);
+            }
+        });
+    }
+    
+    /**
+     * Push one state change to both seats and the match's spectators; clients that miss it
+     * (gap in seq) resync via "sync" or /api/game-state?since=N, so nothing is queued for offline sessions
+     */
+    private void publishDelta(GameStateCache.GameState game, GameStateCache.Delta delta) {
+        JsonObject message = deltaMessage(game.matchId, delta);
+        wsNotifier.sendIfConnected(game.sessionId1, message);
+        if (game.sessionId2 != null) {
+            wsNotifier.sendIfConnected(game.sessionId2, message);
+        }
+        spectators.publish(game.matchId, message);
+        if ("finished".equals(delta.status)) {
+            spectators.close(game.matchId);
+        }
+    }
+    
+    static JsonObject deltaMessage(String matchId, GameStateCache.Delta delta) {
+        JsonObject message = new JsonObject();
+        message.addProperty("t", "delta");
+        message.addProperty("matchId", matchId);
+        message.addProperty("seq", delta.seq);
+        message.addProperty("cell", delta.cell);
+        if (delta.mark != null) message.addProperty("mark", delta.mark);
+        message.addProperty("next", delta.next);
+        message.addProperty("status", delta.status);
+        message.addProperty("result", delta.result);
+        if (delta.reason != null) message.addProperty("reason", delta.reason);
+        return message;
     }
     
     private String checkGameStatus(String board) {
@@ -142,7 +265,7 @@ public class GameService {
             message.addProperty("role", "waiting");
             wsNotifier.sendToSession(sessionId, message);
         } catch (Exception e) {
-            System.out.println("Error notifying waiting: " + e.getMessage());
+            log.warn("Error notifying waiting", "sessionId", sessionId, "error", e.getMessage());
         }
     }
     
@@ -173,15 +296,13 @@ public class GameService {
             wsNotifier.sendToSession(player2Id, p2Message);
             
         } catch (Exception e) {
-            System.out.println("Error notifying match start: " + e.getMessage());
+            log.warn("Error notifying match start", "matchId", matchId, "error", e.getMessage());
         }
     }
     
     private void notifyGameState(String matchId, String board, String currentTurn, String player1Id, String player2Id) {
         try {
-            System.out.println("=== NOTIFYING GAME STATE ===");
-            System.out.println("Match: " + matchId + ", Board: " + board + ", Turn: " + currentTurn);
-            System.out.println("Player1: " + player1Id + ", Player2: " + player2Id);
+            log.debug("Notifying game state", "matchId", matchId, "board", board, "turn", currentTurn);
             
             // Notify both players with updated game state
             JsonObject p1Message = new JsonObject();
@@ -191,7 +312,6 @@ public class GameService {
             p1Message.addProperty("yourTurn", currentTurn.equals("X"));
             p1Message.addProperty("message", currentTurn.equals("X") ? "Your turn!" : "Waiting for opponent...");
             
-            System.out.println("Sending to Player1 (" + player1Id + "): " + p1Message.toString());
             wsNotifier.sendToSession(player1Id, p1Message);
             
             JsonObject p2Message = new JsonObject();
@@ -201,19 +321,17 @@ public class GameService {
             p2Message.addProperty("yourTurn", currentTurn.equals("O"));
             p2Message.addProperty("message", currentTurn.equals("O") ? "Your turn!" : "Waiting for opponent...");
             
-            System.out.println("Sending to Player2 (" + player2Id + "): " + p2Message.toString());
             wsNotifier.sendToSession(player2Id, p2Message);
             
-            System.out.println("=== GAME STATE NOTIFICATIONS SENT ===");
-            
         } catch (Exception e) {
-            System.out.println("Error notifying game state: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error notifying game state", "matchId", matchId, e);
         }
     }
     
     public void shutdown() {
-        gameThreadPool.shutdown();
+        matchmakingQueue.shutdown();
+        spectators.shutdown();
+        admission.shutdown();
     }
     
     // Enhanced notification methods with retry logic and redundancy
@@ -226,25 +344,12 @@ public class GameService {
             message.addProperty("role", "waiting");
             message.addProperty("timestamp", System.currentTimeMillis());
             
-            // Send immediately
+            // Sent now, or replayed from memory when the client reconnects
             wsNotifier.sendToSession(sessionId, message);
             
-            // Store as pending notification for redundancy
-            wsNotifier.storePendingNotification(sessionId, "waiting", message.toString());
-            
-            System.out.println("Sent waiting notification to " + playerName + " with redundancy");
+            log.debug("Sent waiting notification", "player", playerName);
         } catch (Exception e) {
-            System.err.println("Error in notifyWaitingWithRetry: " + e.getMessage());
-            // Fallback - store as pending only
-            try {
-                JsonObject fallbackMessage = new JsonObject();
-                fallbackMessage.addProperty("t", "waiting");
-                fallbackMessage.addProperty("message", "Waiting for opponent...");
-                fallbackMessage.addProperty("playerName", playerName);
-                wsNotifier.storePendingNotification(sessionId, "waiting", fallbackMessage.toString());
-            } catch (Exception fe) {
-                System.err.println("Fallback notification also failed: " + fe.getMessage());
-            }
+            log.warn("Waiting notification failed", "sessionId", sessionId, "error", e.getMessage());
         }
     }
     
@@ -263,9 +368,8 @@ public class GameService {
             p1Message.addProperty("timestamp", System.currentTimeMillis());
             p1Message.addProperty("stateVersion", 1);
             
-            // Send immediately and store as pending
+            // Sent now, or replayed from memory when the client reconnects
             wsNotifier.sendToSession(player1Id, p1Message);
-            wsNotifier.storePendingNotification(player1Id, "match_start", p1Message.toString());
             
             // Enhanced Player 2 (O) notification with redundancy
             JsonObject p2Message = new JsonObject();
@@ -280,61 +384,92 @@ public class GameService {
             p2Message.addProperty("timestamp", System.currentTimeMillis());
             p2Message.addProperty("stateVersion", 1);
             
-            // Send immediately and store as pending
             wsNotifier.sendToSession(player2Id, p2Message);
-            wsNotifier.storePendingNotification(player2Id, "match_start", p2Message.toString());
             
-            System.out.println("Sent match start notifications with redundancy to both players");
+            log.debug("Sent match start notifications", "matchId", matchId);
             
         } catch (Exception e) {
-            System.err.println("Error in notifyMatchStartWithRetry: " + e.getMessage());
+            log.warn("Match start notification failed", "matchId", matchId, "error", e.getMessage());
             // Fallback - try to send basic notifications
             try {
                 notifyMatchStart(matchId, player1Id, player1Name, player2Id, player2Name);
             } catch (Exception fe) {
-                System.err.println("Fallback match start notification also failed: " + fe.getMessage());
+                log.warn("Fallback match start notification also failed", "matchId", matchId, "error", fe.getMessage());
             }
         }
     }
     
     // NEW: Get available matches for match browser (Cache-Based)
     public CompletableFuture<JsonObject> getAvailableMatches() {
-        return CompletableFuture.supplyAsync(() -> {
-            System.out.println("=== GameService.getAvailableMatches START (Cache-Based) ===");
-            
-            JsonObject response = new JsonObject();
-            response.addProperty("success", true);
-            
-            com.google.gson.JsonArray matchesArray = new com.google.gson.JsonArray();
-            
-            // Get waiting games from cache
-            var waitingGames = gameCache.getWaitingGames();
-            
-            for (var gameState : waitingGames) {
-                JsonObject match = new JsonObject();
-                match.addProperty("matchId", gameState.matchId);
-                match.addProperty("hostName", gameState.player1Name);
-                match.addProperty("createdAt", new java.util.Date(gameState.lastUpdate).toString());
-                match.addProperty("playersCount", 1);
-                match.addProperty("maxPlayers", 2);
-                matchesArray.add(match);
-            }
-            
-            response.add("matches", matchesArray);
-            response.addProperty("totalMatches", matchesArray.size());
-            
-            System.out.println("Found " + matchesArray.size() + " available matches (cache-based)");
+        return admission.submit(AdmissionExecutor.Priority.MATCHES, () -> {
+            JsonObject response = availableMatchesJson(gameCache.getGames());
+            log.debug("Available matches", "total", response.get("totalMatches"));
             return response;
             
-        }, gameThreadPool);
+        });
+    }
+    
+    /**
+     * Lobby listing, admitted (and shed under load) in the MATCHES class like the other lobby work;
+     * the body still streams itself from the live cache when the response is written
+     */
+    CompletableFuture<JsonStreamWriter.Body> availableMatchesBody() {
+        return admission.submit(AdmissionExecutor.Priority.MATCHES, () -> availableMatches);
+    }
+    
+    static JsonObject availableMatchesJson(Iterable<GameStateCache.GameState> games) {
+        JsonObject response = new JsonObject();
+        response.addProperty("success", true);
+        
+        com.google.gson.JsonArray matchesArray = new com.google.gson.JsonArray();
+        for (GameStateCache.GameState gameState : games) {
+            if (!"waiting".equals(gameState.status)) continue;
+            JsonObject match = new JsonObject();
+            match.addProperty("matchId", gameState.matchId);
+            match.addProperty("hostName", gameState.player1Name);
+            match.addProperty("createdAt", gameState.lastUpdateText());
+            match.addProperty("playersCount", 1);
+            match.addProperty("maxPlayers", 2);
+            match.addProperty("timeControl", gameState.timeControl.name);
+            matchesArray.add(match);
+        }
+        
+        response.add("matches", matchesArray);
+        response.addProperty("totalMatches", matchesArray.size());
+        return response;
+    }
+    
+    // Same members as availableMatchesJson, written without building a tree
+    static void writeAvailableMatches(JsonStreamWriter out, Iterable<GameStateCache.GameState> games) {
+        int total = 0;
+        out.beginObject()
+            .field(SUCCESS, true)
+            .name(MATCHES).beginArray();
+        for (GameStateCache.GameState gameState : games) {
+            if (!"waiting".equals(gameState.status)) continue;
+            out.beginObject()
+                .field(MATCH_ID, gameState.matchId)
+                .field(HOST_NAME, gameState.player1Name)
+                .field(CREATED_AT, gameState.lastUpdateText())
+                .field(PLAYERS_COUNT, 1)
+                .field(MAX_PLAYERS, 2)
+                .field(TIME_CONTROL, gameState.timeControl.name)
+                .endObject();
+            total++;
+        }
+        out.endArray()
+            .field(TOTAL_MATCHES, total)
+            .endObject();
     }
     
     // NEW: Create a new match that others can join (Cache-Based)
     public CompletableFuture<String> createMatch(String sessionId, String playerName, String matchName) {
-        return CompletableFuture.supplyAsync(() -> {
-            System.out.println("=== GameService.createMatch START (Cache-Based) ===");
-            System.out.println("SessionId: " + sessionId + ", PlayerName: " + playerName + ", MatchName: " + matchName);
-            
+        return createMatch(sessionId, playerName, matchName, TimeControl.custom());
+    }
+    
+    public CompletableFuture<String> createMatch(String sessionId, String playerName, String matchName,
+                                                 TimeControl timeControl) {
+        return admission.submit(AdmissionExecutor.Priority.MATCHES, () -> {
             // Create new match with unique ID
             String matchId = UUID.randomUUID().toString();
             
@@ -342,19 +477,18 @@ public class GameService {
             gameCache.updatePlayerSession(sessionId, playerName);
             
             // Create match in cache with waiting status (only one player initially)
-            gameCache.createGameWaiting(matchId, sessionId, playerName);
+            gameCache.createGameWaiting(matchId, sessionId, playerName, timeControl);
             
-            System.out.println("Created match: " + matchId + " hosted by " + playerName);
+            log.info("Match created", "matchId", matchId, "host", playerName, "name", matchName);
             
             return matchId;
-        }, gameThreadPool);
+        });
     }
     
     // NEW: Join a specific existing match (Cache-Based)
     public CompletableFuture<Boolean> joinSpecificMatch(String sessionId, String playerName, String matchId) {
-        return CompletableFuture.supplyAsync(() -> {
-            System.out.println("=== GameService.joinSpecificMatch START (Cache-Based) ===");
-            System.out.println("SessionId: " + sessionId + ", PlayerName: " + playerName + ", MatchId: " + matchId);
+        return admission.submit(AdmissionExecutor.Priority.MATCHES, () -> {
+            log.debug("joinSpecificMatch", "sessionId", sessionId, "player", playerName, "matchId", matchId);
             
             // Update player session in cache
             gameCache.updatePlayerSession(sessionId, playerName);
@@ -363,108 +497,186 @@ public class GameService {
             GameStateCache.GameState game = gameCache.getGame(matchId);
             
             if (game == null) {
-                System.out.println("JOIN SPECIFIC MATCH FAILED: Match not found");
+                log.debug("Join failed: match not found", "matchId", matchId);
                 return false;
             }
             
             if (!"waiting".equals(game.status)) {
-                System.out.println("JOIN SPECIFIC MATCH FAILED: Match status is " + game.status + " (not waiting)");
+                log.debug("Join failed: match not waiting", "matchId", matchId, "status", game.status);
                 return false;
             }
             
             if (game.sessionId2 != null) {
-                System.out.println("JOIN SPECIFIC MATCH FAILED: Match already has 2 players");
+                log.debug("Join failed: match full", "matchId", matchId);
                 return false;
             }
             
             if (game.sessionId1.equals(sessionId)) {
-                System.out.println("JOIN SPECIFIC MATCH FAILED: Cannot join own match");
+                log.debug("Join failed: own match", "matchId", matchId);
                 return false;
             }
             
-            // Join the match as player 2
-            game.sessionId2 = sessionId;
-            game.player2Name = playerName;
-            game.status = "active";
-            game.lastUpdate = System.currentTimeMillis();
+            // Join the match as player 2 (re-checked atomically by the cache)
+            GameStateCache.Delta delta = gameCache.joinWaitingGame(matchId, sessionId, playerName);
+            if (delta == null) {
+                log.debug("Join failed: taken concurrently", "matchId", matchId);
+                return false;
+            }
+            publishDelta(game, delta);
             
-            System.out.println("Successfully joined match: " + matchId);
-            System.out.println("Player1 (X): " + game.player1Name + " (" + game.sessionId1 + ")");
-            System.out.println("Player2 (O): " + playerName + " (" + sessionId + ")");
+            log.info("Match joined", "matchId", matchId, "x", game.player1Name, "o", playerName);
             
             return true;
-        }, gameThreadPool);
+        });
     }
     
     /**
      * NEW: Get current game state for a session - replaces WebSocket notifications
      */
     public CompletableFuture<JsonObject> getGameStateForSession(String sessionId) {
-        return CompletableFuture.supplyAsync(() -> {
-            System.out.println("=== GET GAME STATE FOR SESSION (Cache-Based) ===");
-            System.out.println("Session: " + sessionId);
-            
-            JsonObject response = new JsonObject();
-            response.addProperty("success", true);
-            response.addProperty("sessionId", sessionId);
-            
-            // Update player session heartbeat
-            gameCache.updatePlayerSession(sessionId, "Player" + sessionId.substring(sessionId.length() - 4));
+        return getGameStateForSession(sessionId, -1);
+    }
+    
+    /**
+     * Same as above, but when the client already holds state up to seq "since" and the
+     * match still retains the changes after it, only those deltas are returned
+     */
+    public CompletableFuture<JsonObject> getGameStateForSession(String sessionId, long since) {
+        return admission.submit(AdmissionExecutor.Priority.STATE, () -> {
+            // Update player session heartbeat (the name set at join stays)
+            gameCache.touchPlayerSession(sessionId);
             
             // Find active match for this session
             GameStateCache.GameState game = gameCache.getGameBySessionId(sessionId);
             
             if (game != null) {
-                System.out.println("Found active match: " + game.matchId);
-                System.out.println("Status: " + game.status + ", Turn: " + game.currentPlayer);
-                System.out.println("Board: " + game.board);
-                
-                response.addProperty("hasMatch", true);
-                response.addProperty("matchId", game.matchId);
-                response.addProperty("board", game.board);
-                response.addProperty("status", game.status);
-                response.addProperty("result", game.result != null ? game.result : "ongoing");
-                
-                // Determine if it's this player's turn
-                boolean isPlayerOne = sessionId.equals(game.sessionId1);
-                String playerMark = isPlayerOne ? "X" : "O";
-                boolean isMyTurn = false;
-                
-                if ("active".equals(game.status)) {
-                    isMyTurn = (isPlayerOne && "X".equals(game.currentPlayer)) || 
-                              (!isPlayerOne && "O".equals(game.currentPlayer));
-                }
-                
-                response.addProperty("yourTurn", isMyTurn);
-                response.addProperty("yourMark", playerMark);
-                response.addProperty("currentTurn", game.currentPlayer);
-                
-                String message;
-                if ("waiting".equals(game.status)) {
-                    message = "Waiting for opponent to join...";
-                } else if ("active".equals(game.status)) {
-                    message = isMyTurn ? "Your turn!" : "Waiting for opponent...";
-                } else {
-                    message = "Game finished: " + game.result;
+                if (since >= 0) {
+                    java.util.List<GameStateCache.Delta> deltas = game.deltasSince(since);
+                    if (deltas != null) {
+                        com.google.gson.JsonArray deltaArray = new com.google.gson.JsonArray();
+                        for (GameStateCache.Delta delta : deltas) {
+                            deltaArray.add(deltaMessage(game.matchId, delta));
+                        }
+                        JsonObject response = new JsonObject();
+                        response.addProperty("success", true);
+                        response.addProperty("sessionId", sessionId);
+                        response.addProperty("hasMatch", true);
+                        response.addProperty("matchId", game.matchId);
+                        response.addProperty("seq", deltas.isEmpty() ? since : deltas.get(deltas.size() - 1).seq);
+                        response.add("deltas", deltaArray);
+                        return response;
+                    }
+                    // Gap too old for the retained history - fall through to a full snapshot
                 }
-                response.addProperty("message", message);
                 
-                return response;
+                return GameStateView.of(sessionId, game, ConnectionQualityTracker.getInstance()).toJson();
             } else {
                 // No active match
-                System.out.println("No active match found for session: " + sessionId);
-                response.addProperty("hasMatch", false);
-                response.addProperty("message", "No active match");
-                
+                return GameStateView.noMatch(sessionId, matchmakingQueue.isQueued(sessionId),
+                    gameCache.isQueueExpired(sessionId)).toJson();
+            }
+        });
+    }
+    
+    /**
+     * Full game state as a view that streams itself into the HTTP response (see GameStateView)
+     */
+    CompletableFuture<GameStateView> getGameStateView(String sessionId) {
+        return admission.submit(AdmissionExecutor.Priority.STATE, () -> {
+            gameCache.touchPlayerSession(sessionId);
+            GameStateCache.GameState game = gameCache.getGameBySessionId(sessionId);
+            return game != null
+                ? GameStateView.of(sessionId, game, ConnectionQualityTracker.getInstance())
+                : GameStateView.noMatch(sessionId, matchmakingQueue.isQueued(sessionId), gameCache.isQueueExpired(sessionId));
+        });
+    }
+    
+    /**
+     * Validator for a session's full game-state response. It changes with the match seq, the queue
+     * status (queued or timed out) and the poor-connection flag; rttMs alone doesn't, so the tag is weak.
+     * Running clocks don't change the body either: it carries their deadlines, not the time left.
+     */
+    public String stateTag(String sessionId) {
+        GameStateCache.GameState game = gameCache.getGameBySessionId(sessionId);
+        if (game == null) {
+            return noMatchTag(matchmakingQueue.isQueued(sessionId), gameCache.isQueueExpired(sessionId));
+        }
+        return stateTag(game.matchId, game.seq, ConnectionQualityTracker.getInstance().isPoor(sessionId));
+    }
+    
+    static String stateTag(String matchId, long seq, boolean poorConnection) {
+        return "W/\"" + matchId + "." + seq + "." + (poorConnection ? 1 : 0) + "\"";
+    }
+    
+    static String noMatchTag(boolean queued, boolean queueExpired) {
+        return "W/\"none." + (queued ? 1 : queueExpired ? 2 : 0) + "\"";
+    }
+    
+    /**
+     * Conditional poll: the current tag if it is one the client already holds (the poll then still
+     * counts as session activity), else null
+     */
+    public String unchangedStateTag(String sessionId, String ifNoneMatch) {
+        String current = stateTag(sessionId);
+        for (String candidate : ifNoneMatch.split(",")) {
+            if (candidate.trim().equals(current)) {
+                gameCache.touchPlayerSession(sessionId);
+                return current;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Spectator view of a match: deltas after "since" when still retained, else a full snapshot
+     * Watchers subscribe before asking, so anything published meanwhile arrives with seq <= the
+     * returned seq and can be ignored.
+     */
+    public CompletableFuture<JsonObject> spectate(String matchId, long since) {
+        return admission.submit(AdmissionExecutor.Priority.STATE, () -> {
+            JsonObject response = new JsonObject();
+            GameStateCache.GameState game = gameCache.getGame(matchId);
+            if (game == null) {
+                response.addProperty("success", false);
+                response.addProperty("error", "Match not found");
                 return response;
             }
-        }, gameThreadPool);
+            
+            response.addProperty("success", true);
+            response.addProperty("matchId", matchId);
+            response.addProperty("watchers", spectators.audienceSize(matchId));
+            
+            if (since >= 0) {
+                java.util.List<GameStateCache.Delta> deltas = game.deltasSince(since);
+                if (deltas != null) {
+                    com.google.gson.JsonArray deltaArray = new com.google.gson.JsonArray();
+                    for (GameStateCache.Delta delta : deltas) {
+                        deltaArray.add(deltaMessage(matchId, delta));
+                    }
+                    response.addProperty("seq", deltas.isEmpty() ? since : deltas.get(deltas.size() - 1).seq);
+                    response.add("deltas", deltaArray);
+                    return response;
+                }
+            }
+            
+            synchronized (game) {
+                response.addProperty("seq", game.seq);
+                response.addProperty("board", game.board);
+                response.addProperty("status", game.status);
+                response.addProperty("result", game.result != null ? game.result : "ongoing");
+                response.addProperty("currentTurn", game.currentPlayer);
+                response.addProperty("player1", game.player1Name);
+                if (game.player2Name != null) response.addProperty("player2", game.player2Name);
+                response.addProperty("timeControl", game.timeControl.name);
+                if (game.endReason != null) response.addProperty("reason", game.endReason);
+            }
+            return response;
+        });
     }
     
     public CompletableFuture<JsonObject> getPlayerStats(String playerName) {
-        return CompletableFuture.supplyAsync(() -> {
-            System.out.println("=== GameService.getPlayerStats START ===");
-            System.out.println("Player Name: " + playerName);
+        return admission.submit(AdmissionExecutor.Priority.STATS, () -> {
+            log.debug("getPlayerStats", "player", playerName);
             
             JsonObject response = new JsonObject();
             
@@ -484,10 +696,9 @@ public class GameService {
                             response.addProperty("losses", rs.getInt("losses"));
                             response.addProperty("draws", rs.getInt("draws"));
                             response.addProperty("winRate", rs.getDouble("win_rate"));
+                            response.addProperty("rating", Math.round(rs.getDouble("rating")));
                             response.addProperty("lastGame", rs.getString("last_game"));
                             response.addProperty("createdAt", rs.getString("created_at"));
-                            
-                            System.out.println("Found stats for player: " + playerName);
                         } else {
                             // Player has no stats yet
                             response.addProperty("success", true);
@@ -498,20 +709,18 @@ public class GameService {
                             response.addProperty("losses", 0);
                             response.addProperty("draws", 0);
                             response.addProperty("winRate", 0.0);
+                            response.addProperty("rating", Math.round(SkillRating.DEFAULT_RATING));
                             response.addProperty("message", "No games played yet");
-                            
-                            System.out.println("No stats found for player: " + playerName);
                         }
                     }
                 }
             } catch (Exception e) {
-                System.err.println("Error getting player stats: " + e.getMessage());
-                e.printStackTrace();
+                log.error("Error getting player stats", "player", playerName, e);
                 response.addProperty("success", false);
                 response.addProperty("error", e.getMessage());
             }
             
             return response;
-        }, gameThreadPool);
+        });
     }
 }
\ No newline at end of file
@@ -4,9 +4,11 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -14,14 +16,40 @@ import java.util.concurrent.TimeUnit;
  * Reduces database hits during active gameplay
  */
 public class GameStateCache {
+    private static final Log log = Log.get("cache");
+    private static final Metrics.Counter RANKED_CREATED =
+        Metrics.counter("ttt_matches_created_total", "Matches created", "kind", "ranked");
+    private static final Metrics.Counter CUSTOM_CREATED =
+        Metrics.counter("ttt_matches_created_total", "Matches created", "kind", "custom");
     private static GameStateCache instance;
+    private static final Metrics.Counter SAVE_FAILURES =
+        Metrics.counter("ttt_result_save_failures_total", "Finished games whose result could not be saved");
+    private static final Metrics.Counter TURN_TIMEOUTS =
+        Metrics.counter("ttt_turn_timeouts_total", "Matches forfeited because the player to move ran out of time");
+    
     private final ConcurrentHashMap<String, GameState> activeGames;
     private final ConcurrentHashMap<String, PlayerSession> activeSessions;
+    private final ConcurrentHashMap<String, String> sessionGames;  // sessionId -> latest matchId
+    // Finished games whose result hasn't reached the database yet: matchId -> finish time (millis)
+    private final ConcurrentHashMap<String, Long> unpersistedResults = new ConcurrentHashMap<>();
     private final DatabaseManager dbManager;
-    private final ScheduledExecutorService syncScheduler;
+    private final TimerService timer;
+    private final TimerService.Timeout sessionCleanup;
+    private volatile TurnExpiryHandler turnExpiryHandler =
+        (matchId, seq) -> java.util.concurrent.CompletableFuture.runAsync(() -> expireTurn(matchId, seq));
+    
+    /**
+     * Receives turns whose clock ran out, on the timer thread; must hand off to a thread that may
+     * block, since expireTurn saves the result
+     */
+    public interface TurnExpiryHandler {
+        void onTurnExpired(String matchId, long seq);
+    }
     
     // Game state cache entry
     public static class GameState {
+        public static final int HISTORY_LIMIT = 16;
+        
         public String matchId;
         public String sessionId1;
         public String sessionId2;
@@ -32,6 +60,18 @@ public class GameStateCache {
         public long lastUpdate;
         public String player1Name;
         public String player2Name;
+        public volatile long seq;  // bumped on every state change
+        public TimeControl timeControl = TimeControl.UNTIMED;
+        public String endReason;  // "timeout" when the player to move ran out of time
+        // Clock, guarded by this: total time left per mark (as of the turn start) and the running turn
+        private long xClockNanos;
+        private long oClockNanos;
+        private long turnStartedNanos;
+        private long turnStartedMillis;  // the same instant on the wall clock, for clients
+        private long turnDeadlineNanos;
+        private TimerService.Timeout turnTimeout;
+        private volatile LastUpdateText lastUpdateText;
+        private final ArrayDeque<Delta> history = new ArrayDeque<>(); // guarded by this
         
         public GameState(String matchId, String sessionId1, String sessionId2, 
                         String player1Name, String player2Name) {
@@ -46,6 +86,112 @@ public class GameStateCache {
             this.result = "ongoing";
             this.lastUpdate = System.currentTimeMillis();
         }
+        
+        // Caller holds the game's monitor
+        Delta recordDelta(int cell, String mark) {
+            seq++;
+            Delta delta = new Delta(seq, cell, mark, currentPlayer, status, result, endReason);
+            history.addLast(delta);
+            if (history.size() > HISTORY_LIMIT) {
+                history.removeFirst();
+            }
+            return delta;
+        }
+        
+        /**
+         * Total time a mark had when the running turn started (the mover's clock runs down from
+         * there); -1 without a total clock. Caller holds the game's monitor.
+         */
+        long clockNanos(String mark) {
+            if (!timeControl.hasTotal()) {
+                return -1;
+            }
+            return "X".equals(mark) ? xClockNanos : oClockNanos;
+        }
+        
+        /**
+         * Epoch millis the running turn started; -1 when the game is untimed or not in play.
+         * Caller holds the game's monitor.
+         */
+        long turnStartedAtMillis() {
+            if (!timeControl.isTimed() || !"active".equals(status)) {
+                return -1;
+            }
+            return turnStartedMillis;
+        }
+        
+        /**
+         * Epoch millis the move being awaited times out; -1 when the game is untimed or not in play.
+         * Caller holds the game's monitor.
+         */
+        long turnEndsAtMillis() {
+            if (!timeControl.isTimed() || !"active".equals(status)) {
+                return -1;
+            }
+            return turnStartedMillis + (turnDeadlineNanos - turnStartedNanos) / 1_000_000;
+        }
+        
+        /**
+         * lastUpdate as Date.toString(), formatted once per change rather than on every listing
+         */
+        public String lastUpdateText() {
+            LastUpdateText text = lastUpdateText;
+            long at = lastUpdate;
+            if (text == null || text.at != at) {
+                text = new LastUpdateText(at, new java.util.Date(at).toString());
+                lastUpdateText = text;
+            }
+            return text.text;
+        }
+        
+        /**
+         * Changes after the given seq, oldest first; null if they are no longer retained
+         * and the caller has to fall back to a full snapshot
+         */
+        public synchronized List<Delta> deltasSince(long since) {
+            if (since >= seq) {
+                return Collections.emptyList();
+            }
+            if (since < 0 || history.isEmpty() || since < history.peekFirst().seq - 1) {
+                return null;
+            }
+            List<Delta> deltas = new ArrayList<>();
+            for (Delta delta : history) {
+                if (delta.seq > since) deltas.add(delta);
+            }
+            return deltas;
+        }
+    }
+    
+    private static final class LastUpdateText {
+        final long at;
+        final String text;
+        
+        LastUpdateText(long at, String text) {
+            this.at = at;
+            this.text = text;
+        }
+    }
+    
+    // One state change: a move (cell >= 0) or a status change such as an opponent joining (cell == -1)
+    public static class Delta {
+        public final long seq;
+        public final int cell;
+        public final String mark;
+        public final String next;
+        public final String status;
+        public final String result;
+        public final String reason;  // why the game ended, when not by the board (e.g. "timeout")
+        
+        Delta(long seq, int cell, String mark, String next, String status, String result, String reason) {
+            this.seq = seq;
+            this.cell = cell;
+            this.mark = mark;
+            this.next = next;
+            this.status = status;
+            this.result = result;
+            this.reason = reason;
+        }
     }
     
     // Player session cache entry
@@ -55,6 +201,7 @@ public class GameStateCache {
         public String connectionStatus;
         public long lastHeartbeat;
         public String currentMatch;
+        public volatile boolean queueExpired;  // last matchmaking search timed out; cleared on the next join
         
         public PlayerSession(String sessionId, String playerName) {
             this.sessionId = sessionId;
@@ -67,16 +214,23 @@ public class GameStateCache {
     private GameStateCache() {
         this.activeGames = new ConcurrentHashMap<>();
         this.activeSessions = new ConcurrentHashMap<>();
+        this.sessionGames = new ConcurrentHashMap<>();
         this.dbManager = DatabaseManager.getInstance();
-        this.syncScheduler = Executors.newScheduledThreadPool(2);
+        this.timer = TimerService.getInstance();
         
         // Enable selective database sync for completed games only
         // No background sync - only sync when games finish
         
         // Keep session cleanup for expired sessions every 5 minutes
-        syncScheduler.scheduleAtFixedRate(this::cleanupExpiredSessions, 300, 300, TimeUnit.SECONDS);
+        this.sessionCleanup = timer.scheduleAtFixedRate("session-cleanup",
+            this::cleanupExpiredSessions, 300, 300, TimeUnit.SECONDS);
         
-        System.out.println("GameStateCache initialized with SELECTIVE database sync for completed games");
+        Metrics.gauge("ttt_cache_games", "Games held in the state cache", activeGames::size);
+        Metrics.gauge("ttt_cache_sessions", "Player sessions held in the state cache", activeSessions::size);
+        Metrics.gauge("ttt_cache_session_index", "Entries in the session -> match index", sessionGames::size);
+        Metrics.gauge("ttt_unpersisted_results", "Finished games not yet saved to the database", unpersistedResults::size);
+        
+        log.info("GameStateCache initialized with selective database sync for completed games");
     }
     
     public static synchronized GameStateCache getInstance() {
@@ -86,11 +240,28 @@ public class GameStateCache {
         return instance;
     }
     
+    /**
+     * Route expired turns through handler instead of the common pool (GameService queues them as moves)
+     */
+    public void setTurnExpiryHandler(TurnExpiryHandler handler) {
+        this.turnExpiryHandler = handler;
+    }
+    
     // Game state operations (in-memory)
     public void createGame(String matchId, String sessionId1, String sessionId2, 
                           String player1Name, String player2Name) {
+        createGame(matchId, sessionId1, sessionId2, player1Name, player2Name, TimeControl.ranked());
+    }
+    
+    public void createGame(String matchId, String sessionId1, String sessionId2,
+                          String player1Name, String player2Name, TimeControl timeControl) {
         GameState game = new GameState(matchId, sessionId1, sessionId2, player1Name, player2Name);
+        synchronized (game) {
+            startClock(game, timeControl);
+        }
         activeGames.put(matchId, game);
+        sessionGames.put(sessionId1, matchId);
+        sessionGames.put(sessionId2, matchId);
         
         // Update player sessions
         PlayerSession session1 = activeSessions.get(sessionId1);
@@ -98,32 +269,46 @@ public class GameStateCache {
         if (session1 != null) session1.currentMatch = matchId;
         if (session2 != null) session2.currentMatch = matchId;
         
-        System.out.println("Created active game: " + matchId + " with players " + player1Name + " vs " + player2Name);
+        RANKED_CREATED.increment();
+        log.debug("Created active game", "matchId", matchId, "x", player1Name, "o", player2Name);
     }
     
     public void createGameWaiting(String matchId, String sessionId1, String player1Name) {
+        createGameWaiting(matchId, sessionId1, player1Name, TimeControl.custom());
+    }
+    
+    public void createGameWaiting(String matchId, String sessionId1, String player1Name, TimeControl timeControl) {
         GameState game = new GameState(matchId, sessionId1, null, player1Name, null);
         game.status = "waiting";  // Set status to waiting
+        game.timeControl = timeControl;  // the clock starts when an opponent joins
         activeGames.put(matchId, game);
+        sessionGames.put(sessionId1, matchId);
         
         // Update player session
         PlayerSession session1 = activeSessions.get(sessionId1);
         if (session1 != null) session1.currentMatch = matchId;
         
-        System.out.println("Created waiting game: " + matchId + " hosted by " + player1Name);
+        CUSTOM_CREATED.increment();
+        log.debug("Created waiting game", "matchId", matchId, "host", player1Name);
     }
     
     public GameState getGame(String matchId) {
         return activeGames.get(matchId);
     }
     
+    /**
+     * The session's most recent game, via the session index instead of a scan over all games
+     */
     public GameState getGameBySessionId(String sessionId) {
-        for (GameState game : activeGames.values()) {
-            if (sessionId.equals(game.sessionId1) || sessionId.equals(game.sessionId2)) {
-                return game;
-            }
-        }
-        return null;
+        String matchId = sessionGames.get(sessionId);
+        return matchId == null ? null : activeGames.get(matchId);
+    }
+    
+    /**
+     * Live view of every cached game (no copy); callers filter by status
+     */
+    public java.util.Collection<GameState> getGames() {
+        return activeGames.values();
     }
     
     public java.util.List<GameState> getWaitingGames() {
@@ -133,49 +318,198 @@ public class GameStateCache {
     }
     
     public boolean makeMove(String matchId, int position, String playerId) {
+        return applyMove(matchId, position, playerId) != null;
+    }
+    
+    /**
+     * Validate and apply a move; returns the recorded delta, or null if the move was rejected
+     */
+    public Delta applyMove(String matchId, int position, String playerId) {
         GameState game = activeGames.get(matchId);
-        if (game == null || !"active".equals(game.status)) {
-            return false;
+        if (game == null) {
+            return null;
         }
         
-        // Validate move
-        if (position < 0 || position > 8) {
-            return false;
+        Delta delta;
+        synchronized (game) {
+            if (!"active".equals(game.status)) {
+                return null;
+            }
+            
+            // Validate move
+            if (position < 0 || position > 8) {
+                return null;
+            }
+            
+            if (game.board.charAt(position) != '.') {
+                return null; // Position already taken
+            }
+            
+            // Check if it's the player's turn
+            String expectedPlayer = "X".equals(game.currentPlayer) ? game.sessionId1 : game.sessionId2;
+            
+            if (!playerId.equals(expectedPlayer)) {
+                return null; // Not this player's turn
+            }
+            
+            // Flag already fell; the pending timeout forfeits the game within a tick
+            long now = System.nanoTime();
+            if (game.timeControl.isTimed() && now - game.turnDeadlineNanos >= 0) {
+                return null;
+            }
+            
+            // Make the move
+            String mark = game.currentPlayer;
+            StringBuilder boardBuilder = new StringBuilder(game.board);
+            boardBuilder.setCharAt(position, mark.charAt(0));
+            game.board = boardBuilder.toString();
+            
+            stopTurn(game, now);
+            
+            // Check for game end
+            String result = checkGameResult(game.board);
+            if (!"ongoing".equals(result)) {
+                game.status = "finished";
+                game.result = result;
+            } else {
+                // Switch turns
+                game.currentPlayer = "X".equals(game.currentPlayer) ? "O" : "X";
+            }
+            
+            game.lastUpdate = System.currentTimeMillis();
+            delta = game.recordDelta(position, mark);
+            if ("active".equals(game.status)) {
+                startTurn(game, now);
+            }
         }
         
-        if (game.board.charAt(position) != '.') {
-            return false; // Position already taken
+        if ("finished".equals(delta.status)) {
+            finishGame(game, delta);
         }
         
-        // Check if it's the player's turn
-        String expectedPlayer = "X".equals(game.currentPlayer) ? game.sessionId1 : game.sessionId2;
+        log.debug("Move made", "matchId", matchId, "cell", position, "sessionId", playerId);
+        return delta;
+    }
+    
+    /**
+     * Forfeit the player to move if the game is still at seq, i.e. nobody moved since the turn
+     * timeout was armed; returns the finishing delta, or null if the turn had already ended
+     */
+    public Delta expireTurn(String matchId, long seq) {
+        GameState game = activeGames.get(matchId);
+        if (game == null) {
+            return null;
+        }
         
-        if (!playerId.equals(expectedPlayer)) {
-            return false; // Not this player's turn
+        Delta delta;
+        String loser;
+        synchronized (game) {
+            if (game.seq != seq || !"active".equals(game.status)) {
+                return null;
+            }
+            loser = game.currentPlayer;
+            stopTurn(game, System.nanoTime());
+            game.status = "finished";
+            game.result = ("X".equals(loser) ? "O" : "X") + "_wins";
+            game.endReason = "timeout";
+            game.lastUpdate = System.currentTimeMillis();
+            delta = game.recordDelta(-1, null);
         }
         
-        // Make the move
-        StringBuilder boardBuilder = new StringBuilder(game.board);
-        boardBuilder.setCharAt(position, game.currentPlayer.charAt(0));
-        game.board = boardBuilder.toString();
+        TURN_TIMEOUTS.increment();
+        log.debug("Turn timed out", "matchId", matchId, "loser", loser, "timeControl", game.timeControl.name);
+        finishGame(game, delta);
+        return delta;
+    }
+    
+    // Save the result and update player stats, on whichever thread finished the game
+    private void finishGame(GameState game, Delta delta) {
+        unpersistedResults.put(game.matchId, game.lastUpdate);
+        saveCompletedGameToDatabase(game);
+        Metrics.counter("ttt_matches_finished_total", "Matches finished, by result", "result", delta.result).increment();
+        log.debug("Game finished", "matchId", game.matchId, "result", delta.result, "reason", delta.reason);
+    }
+    
+    // Give both players their budget and start X's turn; caller holds the game's monitor
+    private void startClock(GameState game, TimeControl timeControl) {
+        game.timeControl = timeControl;
+        game.xClockNanos = timeControl.totalNanos;
+        game.oClockNanos = timeControl.totalNanos;
+        startTurn(game, System.nanoTime());
+    }
+    
+    /**
+     * Arm one wheel timeout for the turn just started: O(1) to schedule and to cancel, so a move
+     * costs the same with a handful of matches or hundreds of thousands. Caller holds the monitor,
+     * after recordDelta, so the timeout carries the seq a move would bump.
+     */
+    private void startTurn(GameState game, long now) {
+        TimeControl control = game.timeControl;
+        if (!control.isTimed()) {
+            return;
+        }
+        long deadline = now + (control.perMoveNanos > 0 ? control.perMoveNanos : control.totalNanos);
+        if (control.hasTotal()) {
+            long left = "X".equals(game.currentPlayer) ? game.xClockNanos : game.oClockNanos;
+            if (left < deadline - now) deadline = now + left;
+        }
+        game.turnStartedNanos = now;
+        game.turnStartedMillis = System.currentTimeMillis();
+        game.turnDeadlineNanos = deadline;
+        String matchId = game.matchId;
+        long seq = game.seq;
+        game.turnTimeout = timer.scheduleAt(deadline, () -> turnExpiryHandler.onTurnExpired(matchId, seq));
+    }
+    
+    // Disarm the turn timeout and charge the mover's clock; caller holds the monitor
+    private void stopTurn(GameState game, long now) {
+        if (game.turnTimeout == null) {
+            return;
+        }
+        game.turnTimeout.cancel();
+        game.turnTimeout = null;
+        TimeControl control = game.timeControl;
+        if (control.hasTotal()) {
+            long left = "X".equals(game.currentPlayer) ? game.xClockNanos : game.oClockNanos;
+            left = Math.max(0, left - (now - game.turnStartedNanos));
+            if ("active".equals(game.status) && now - game.turnDeadlineNanos < 0) {
+                left += control.incrementNanos;
+            }
+            if ("X".equals(game.currentPlayer)) {
+                game.xClockNanos = left;
+            } else {
+                game.oClockNanos = left;
+            }
+        }
+    }
+    
+    /**
+     * Seat a second player in a waiting game; returns the status delta, or null if the game can't be joined
+     */
+    public Delta joinWaitingGame(String matchId, String sessionId, String playerName) {
+        GameState game = activeGames.get(matchId);
+        if (game == null) {
+            return null;
+        }
         
-        // Check for game end
-        String result = checkGameResult(game.board);
-        if (!"ongoing".equals(result)) {
-            game.status = "finished";
-            game.result = result;
+        synchronized (game) {
+            if (!"waiting".equals(game.status) || game.sessionId2 != null || game.sessionId1.equals(sessionId)) {
+                return null;
+            }
+            
+            game.sessionId2 = sessionId;
+            game.player2Name = playerName;
+            sessionGames.put(sessionId, matchId);
+            game.status = "active";
+            game.lastUpdate = System.currentTimeMillis();
             
-            // Save completed game to database and update player stats
-            saveCompletedGameToDatabase(game);
-            System.out.println("Game " + matchId + " finished with result: " + result);
-        } else {
-            // Switch turns
-            game.currentPlayer = "X".equals(game.currentPlayer) ? "O" : "X";
+            PlayerSession session = activeSessions.get(sessionId);
+            if (session != null) session.currentMatch = matchId;
+            
+            Delta delta = game.recordDelta(-1, null);
+            startClock(game, game.timeControl);
+            return delta;
         }
-        
-        game.lastUpdate = System.currentTimeMillis();
-        System.out.println("Move made in game " + matchId + ": position " + position + " by " + playerId);
-        return true;
     }
     
     public void updatePlayerSession(String sessionId, String playerName) {
@@ -188,6 +522,34 @@ public class GameStateCache {
         }
     }
     
+    /**
+     * Record activity (e.g. a state poll) without changing the stored player name
+     */
+    public void touchPlayerSession(String sessionId) {
+        PlayerSession session = activeSessions.computeIfAbsent(sessionId, k -> new PlayerSession(sessionId, null));
+        session.lastHeartbeat = System.currentTimeMillis();
+        session.connectionStatus = "connected";
+    }
+    
+    /**
+     * Flag (or clear) a timed-out matchmaking search so polling clients learn why they have no match
+     */
+    public void setQueueExpired(String sessionId, boolean expired) {
+        PlayerSession session = activeSessions.get(sessionId);
+        if (session != null) session.queueExpired = expired;
+    }
+    
+    public boolean isQueueExpired(String sessionId) {
+        PlayerSession session = activeSessions.get(sessionId);
+        return session != null && session.queueExpired;
+    }
+    
+    public boolean isSessionActive(String sessionId, long maxIdleMillis) {
+        PlayerSession session = activeSessions.get(sessionId);
+        return session != null && "connected".equals(session.connectionStatus) &&
+               System.currentTimeMillis() - session.lastHeartbeat <= maxIdleMillis;
+    }
+    
     private String checkGameResult(String board) {
         // Check rows
         for (int i = 0; i < 3; i++) {
@@ -225,7 +587,7 @@ public class GameStateCache {
     
     private void syncToDatabase() {
         try {
-            System.out.println("Syncing " + activeGames.size() + " games to database...");
+            log.debug("Syncing games to database", "count", activeGames.size());
             
             for (GameState game : activeGames.values()) {
                 try (Connection conn = dbManager.getConnection()) {
@@ -243,7 +605,7 @@ public class GameStateCache {
                     stmt.setString(7, game.result);
                     stmt.executeUpdate();
                 } catch (Exception e) {
-                    System.err.println("Error syncing game " + game.matchId + ": " + e.getMessage());
+                    log.warn("Error syncing game", "matchId", game.matchId, "error", e.getMessage());
                 }
             }
             
@@ -260,15 +622,27 @@ public class GameStateCache {
                     stmt.setString(3, session.connectionStatus);
                     stmt.executeUpdate();
                 } catch (Exception e) {
-                    System.err.println("Error syncing session " + session.sessionId + ": " + e.getMessage());
+                    log.warn("Error syncing session", "sessionId", session.sessionId, "error", e.getMessage());
                 }
             }
             
         } catch (Exception e) {
-            System.err.println("Error during database sync: " + e.getMessage());
+            log.warn("Error during database sync", "error", e.getMessage());
         }
     }
     
+    /**
+     * How long the oldest finished game has waited to be saved; 0 when nothing is waiting
+     * A save blocked on the connection pool or a locked database shows up here as growing lag
+     */
+    public long oldestUnpersistedMillis() {
+        long oldest = Long.MAX_VALUE;
+        for (long finishedAt : unpersistedResults.values()) {
+            oldest = Math.min(oldest, finishedAt);
+        }
+        return oldest == Long.MAX_VALUE ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+    }
+    
     // Save completed game and update player statistics
     private void saveCompletedGameToDatabase(GameState game) {
         try (Connection conn = dbManager.getConnection()) {
@@ -287,15 +661,20 @@ public class GameStateCache {
             matchStmt.setString(7, game.result);
             matchStmt.executeUpdate();
             
-            System.out.println("Saved completed game " + game.matchId + " to database");
+            log.debug("Saved completed game", "matchId", game.matchId);
             
             // Update player statistics
             updatePlayerStats(conn, game.player1Name, game.result, "X");
             updatePlayerStats(conn, game.player2Name, game.result, "O");
             
+            // Update skill ratings used by matchmaking
+            SkillRating.getInstance().recordResult(conn, game.player1Name, game.player2Name, game.result);
+            
         } catch (Exception e) {
-            System.err.println("Error saving completed game " + game.matchId + ": " + e.getMessage());
-            e.printStackTrace();
+            SAVE_FAILURES.increment();
+            log.error("Error saving completed game", "matchId", game.matchId, e);
+        } finally {
+            unpersistedResults.remove(game.matchId);
         }
     }
     
@@ -338,10 +717,14 @@ public class GameStateCache {
             double winRate = totalGames > 0 ? (double) wins / totalGames : 0.0;
             
             // Save updated stats
+            // Upsert so columns owned elsewhere (rating, created_at) are preserved
             PreparedStatement updateStmt = conn.prepareStatement(
-                "INSERT OR REPLACE INTO player_stats " +
+                "INSERT INTO player_stats " +
                 "(player_name, total_games, wins, losses, draws, win_rate, last_game) " +
-                "VALUES (?, ?, ?, ?, ?, ?, datetime('now'))"
+                "VALUES (?, ?, ?, ?, ?, ?, datetime('now')) " +
+                "ON CONFLICT(player_name) DO UPDATE SET total_games = excluded.total_games, " +
+                "wins = excluded.wins, losses = excluded.losses, draws = excluded.draws, " +
+                "win_rate = excluded.win_rate, last_game = excluded.last_game"
             );
             updateStmt.setString(1, playerName);
             updateStmt.setInt(2, totalGames);
@@ -351,10 +734,10 @@ public class GameStateCache {
             updateStmt.setDouble(6, winRate);
             updateStmt.executeUpdate();
             
-            System.out.println("Updated stats for " + playerName + ": " + wins + "W-" + losses + "L-" + draws + "D (WR: " + String.format("%.1f%%", winRate * 100) + ")");
+            log.debug("Updated stats", "player", playerName, "record", wins + "W-" + losses + "L-" + draws + "D", "winRate", winRate);
             
         } catch (Exception e) {
-            System.err.println("Error updating stats for " + playerName + ": " + e.getMessage());
+            log.warn("Error updating stats", "player", playerName, "error", e.getMessage());
         }
     }
     
@@ -364,7 +747,7 @@ public class GameStateCache {
         activeSessions.entrySet().removeIf(entry -> {
             PlayerSession session = entry.getValue();
             if (session.lastHeartbeat < expiredThreshold) {
-                System.out.println("Removing expired session: " + session.sessionId);
+                log.debug("Removing expired session", "sessionId", session.sessionId);
                 return true;
             }
             return false;
@@ -375,7 +758,9 @@ public class GameStateCache {
         activeGames.entrySet().removeIf(entry -> {
             GameState game = entry.getValue();
             if ("finished".equals(game.status) && game.lastUpdate < gameExpiredThreshold) {
-                System.out.println("Removing old finished game: " + game.matchId);
+                log.debug("Removing old finished game", "matchId", game.matchId);
+                sessionGames.remove(game.sessionId1, game.matchId);
+                if (game.sessionId2 != null) sessionGames.remove(game.sessionId2, game.matchId);
                 return true;
             }
             return false;
@@ -383,16 +768,6 @@ public class GameStateCache {
     }
     
     public void shutdown() {
-        if (syncScheduler != null) {
-            syncScheduler.shutdown();
-            try {
-                if (!syncScheduler.awaitTermination(10, TimeUnit.SECONDS)) {
-                    syncScheduler.shutdownNow();
-                }
-            } catch (InterruptedException e) {
-                syncScheduler.shutdownNow();
-                Thread.currentThread().interrupt();
-            }
-        }
+        sessionCleanup.cancel();
     }
 }
\ No newline at end of file
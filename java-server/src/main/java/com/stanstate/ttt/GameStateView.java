@@ -0,0 +1,218 @@
+package com.stanstate.ttt;
+
+import com.google.gson.JsonObject;
+
+/**
+ * One session's view of its current game, captured under the game's lock
+ * Rendered either as a Gson tree (WebSocket replies, /api/batch) or straight to a JsonStreamWriter
+ * for /api/game-state; both produce the same members in the same order.
+ *
+ * Clocks are sent as fixed points rather than time remaining, so the body only changes with the
+ * seq and the ETag stays valid while a clock runs: turnEndsAt is when the awaited move times out,
+ * and xClockMs/oClockMs are each player's total as of turnStartedAt (all epoch millis). The client
+ * computes what is left, e.g. the mover's clock is its xClockMs or oClockMs - (now - turnStartedAt).
+ */
+final class GameStateView implements JsonStreamWriter.Body {
+    private static final byte[] SUCCESS = JsonStreamWriter.name("success");
+    private static final byte[] SESSION_ID = JsonStreamWriter.name("sessionId");
+    private static final byte[] HAS_MATCH = JsonStreamWriter.name("hasMatch");
+    private static final byte[] QUEUED = JsonStreamWriter.name("queued");
+    private static final byte[] QUEUE_EXPIRED = JsonStreamWriter.name("queueExpired");
+    private static final byte[] MATCH_ID = JsonStreamWriter.name("matchId");
+    private static final byte[] SEQ = JsonStreamWriter.name("seq");
+    private static final byte[] BOARD = JsonStreamWriter.name("board");
+    private static final byte[] STATUS = JsonStreamWriter.name("status");
+    private static final byte[] RESULT = JsonStreamWriter.name("result");
+    private static final byte[] YOUR_TURN = JsonStreamWriter.name("yourTurn");
+    private static final byte[] YOUR_MARK = JsonStreamWriter.name("yourMark");
+    private static final byte[] CURRENT_TURN = JsonStreamWriter.name("currentTurn");
+    private static final byte[] MESSAGE = JsonStreamWriter.name("message");
+    private static final byte[] RTT_MS = JsonStreamWriter.name("rttMs");
+    private static final byte[] POOR_CONNECTION = JsonStreamWriter.name("poorConnection");
+    private static final byte[] REASON = JsonStreamWriter.name("reason");
+    private static final byte[] TIME_CONTROL = JsonStreamWriter.name("timeControl");
+    private static final byte[] TURN_STARTED_AT = JsonStreamWriter.name("turnStartedAt");
+    private static final byte[] TURN_ENDS_AT = JsonStreamWriter.name("turnEndsAt");
+    private static final byte[] X_CLOCK_MS = JsonStreamWriter.name("xClockMs");
+    private static final byte[] O_CLOCK_MS = JsonStreamWriter.name("oClockMs");
+
+    final String sessionId;
+    final String matchId;   // null when the session has no match
+    final boolean queued;
+    final boolean queueExpired;  // the last matchmaking search timed out without an opponent
+    final long seq;
+    final String board;
+    final String status;
+    final String result;
+    final boolean yourTurn;
+    final String yourMark;
+    final String currentTurn;
+    final String message;
+    final long rttMs;       // -1 when not measured
+    final boolean poorConnection;
+    final String reason;    // null unless the game ended off the board
+    final String timeControl;
+    final long turnStartedAt;  // epoch millis; -1 when untimed or not in play
+    final long turnEndsAt;
+    final long xClockMs;       // as of turnStartedAt; -1 without a total clock
+    final long oClockMs;
+
+    private GameStateView(String sessionId, String matchId, boolean queued, boolean queueExpired, long seq, String board, String status,
+                          String result, boolean yourTurn, String yourMark, String currentTurn, String message,
+                          long rttMs, boolean poorConnection, String reason, String timeControl, long turnStartedAt,
+                          long turnEndsAt, long xClockMs, long oClockMs) {
+        this.sessionId = sessionId;
+        this.matchId = matchId;
+        this.queued = queued;
+        this.queueExpired = queueExpired;
+        this.seq = seq;
+        this.board = board;
+        this.status = status;
+        this.result = result;
+        this.yourTurn = yourTurn;
+        this.yourMark = yourMark;
+        this.currentTurn = currentTurn;
+        this.message = message;
+        this.rttMs = rttMs;
+        this.poorConnection = poorConnection;
+        this.reason = reason;
+        this.timeControl = timeControl;
+        this.turnStartedAt = turnStartedAt;
+        this.turnEndsAt = turnEndsAt;
+        this.xClockMs = xClockMs;
+        this.oClockMs = oClockMs;
+    }
+
+    static GameStateView noMatch(String sessionId, boolean queued, boolean queueExpired) {
+        boolean expired = !queued && queueExpired;
+        return new GameStateView(sessionId, null, queued, expired, 0, null, null, null, false, null, null,
+            queued ? "Searching for opponent..." : expired ? "No opponent found, search timed out" : "No active match",
+            -1, false, null, null, -1, -1, -1, -1);
+    }
+
+    static GameStateView of(String sessionId, GameStateCache.GameState game, ConnectionQualityTracker tracker) {
+        long seq;
+        String board;
+        String status;
+        String result;
+        String currentTurn;
+        boolean isPlayerOne;
+        String reason;
+        long turnStartedAt;
+        long turnEndsAt;
+        long xClockNanos;
+        long oClockNanos;
+        synchronized (game) {
+            seq = game.seq;
+            board = game.board;
+            status = game.status;
+            result = game.result != null ? game.result : "ongoing";
+            currentTurn = game.currentPlayer;
+            isPlayerOne = sessionId.equals(game.sessionId1);
+            reason = game.endReason;
+            turnStartedAt = game.turnStartedAtMillis();
+            turnEndsAt = game.turnEndsAtMillis();
+            xClockNanos = game.clockNanos("X");
+            oClockNanos = game.clockNanos("O");
+        }
+
+        // Determine if it's this player's turn
+        boolean yourTurn = "active".equals(status) &&
+            ((isPlayerOne && "X".equals(currentTurn)) || (!isPlayerOne && "O".equals(currentTurn)));
+
+        String message;
+        if ("waiting".equals(status)) {
+            message = "Waiting for opponent to join...";
+        } else if ("active".equals(status)) {
+            message = yourTurn ? "Your turn!" : "Waiting for opponent...";
+        } else if ("timeout".equals(reason)) {
+            message = "Game finished: " + result + " (" + currentTurn + " ran out of time)";
+        } else {
+            message = "Game finished: " + result;
+        }
+
+        double rtt = tracker.rttMillis(sessionId);
+        return new GameStateView(sessionId, game.matchId, false, false, seq, board, status, result, yourTurn,
+            isPlayerOne ? "X" : "O", currentTurn, message, rtt >= 0 ? Math.round(rtt) : -1, tracker.isPoor(sessionId),
+            reason, game.timeControl.name, turnStartedAt, turnEndsAt, toMillis(xClockNanos), toMillis(oClockNanos));
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos < 0 ? -1 : nanos / 1_000_000;
+    }
+
+    boolean hasMatch() {
+        return matchId != null;
+    }
+
+    /**
+     * Validator for this snapshot, see GameService.stateTag
+     */
+    String etag() {
+        return hasMatch() ? GameService.stateTag(matchId, seq, poorConnection) : GameService.noMatchTag(queued, queueExpired);
+    }
+
+    JsonObject toJson() {
+        JsonObject response = new JsonObject();
+        response.addProperty("success", true);
+        response.addProperty("sessionId", sessionId);
+        response.addProperty("hasMatch", hasMatch());
+        if (!hasMatch()) {
+            response.addProperty("queued", queued);
+            if (queueExpired) response.addProperty("queueExpired", true);
+            response.addProperty("message", message);
+            return response;
+        }
+        response.addProperty("matchId", matchId);
+        response.addProperty("seq", seq);
+        response.addProperty("board", board);
+        response.addProperty("status", status);
+        response.addProperty("result", result);
+        response.addProperty("yourTurn", yourTurn);
+        response.addProperty("yourMark", yourMark);
+        response.addProperty("currentTurn", currentTurn);
+        response.addProperty("message", message);
+        if (rttMs >= 0) response.addProperty("rttMs", rttMs);
+        response.addProperty("poorConnection", poorConnection);
+        if (reason != null) response.addProperty("reason", reason);
+        response.addProperty("timeControl", timeControl);
+        if (turnStartedAt >= 0) response.addProperty("turnStartedAt", turnStartedAt);
+        if (turnEndsAt >= 0) response.addProperty("turnEndsAt", turnEndsAt);
+        if (xClockMs >= 0) response.addProperty("xClockMs", xClockMs);
+        if (oClockMs >= 0) response.addProperty("oClockMs", oClockMs);
+        return response;
+    }
+
+    @Override
+    public void writeTo(JsonStreamWriter out) {
+        out.beginObject()
+            .field(SUCCESS, true)
+            .field(SESSION_ID, sessionId)
+            .field(HAS_MATCH, hasMatch());
+        if (!hasMatch()) {
+            out.field(QUEUED, queued);
+            if (queueExpired) out.field(QUEUE_EXPIRED, true);
+            out.field(MESSAGE, message)
+                .endObject();
+            return;
+        }
+        out.field(MATCH_ID, matchId)
+            .field(SEQ, seq)
+            .field(BOARD, board)
+            .field(STATUS, status)
+            .field(RESULT, result)
+            .field(YOUR_TURN, yourTurn)
+            .field(YOUR_MARK, yourMark)
+            .field(CURRENT_TURN, currentTurn)
+            .field(MESSAGE, message);
+        if (rttMs >= 0) out.field(RTT_MS, rttMs);
+        out.field(POOR_CONNECTION, poorConnection);
+        if (reason != null) out.field(REASON, reason);
+        out.field(TIME_CONTROL, timeControl);
+        if (turnStartedAt >= 0) out.field(TURN_STARTED_AT, turnStartedAt);
+        if (turnEndsAt >= 0) out.field(TURN_ENDS_AT, turnEndsAt);
+        if (xClockMs >= 0) out.field(X_CLOCK_MS, xClockMs);
+        if (oClockMs >= 0) out.field(O_CLOCK_MS, oClockMs);
+        out.endObject();
+    }
+}
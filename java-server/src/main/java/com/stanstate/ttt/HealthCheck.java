@@ -0,0 +1,124 @@
+package com.stanstate.ttt;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+
+/**
+ * Liveness and readiness for load balancers and orchestrators
+ * Liveness only says the process answers HTTP, so a restart is the wrong fix for a slow database.
+ * Readiness checks saturation signals against thresholds and reports every one of them, so a 503
+ * says which resource ran out. All checks are cheap: gauges and a file size, no database query.
+ *
+ * Thresholds (system properties):
+ *   ttt.ready.minIdleDbConnections=1                 free pooled connections
+ *   ttt.ready.maxQueuedTasks=1000                    game pool + WebSocket worker backlog
+ *   ttt.ready.maxPersistLagMillis=5000               oldest finished game not yet saved
+ *   ttt.ready.maxPendingNotificationAgeMillis=60000  oldest message a connected client hasn't been sent
+ *   ttt.ready.maxWalBytes=67108864                   SQLite write-ahead log size
+ */
+public class HealthCheck {
+    private static final int MIN_IDLE_DB_CONNECTIONS = Integer.getInteger("ttt.ready.minIdleDbConnections", 1);
+    private static final long MAX_QUEUED_TASKS = Long.getLong("ttt.ready.maxQueuedTasks", 1_000);
+    private static final long MAX_PERSIST_LAG_MILLIS = Long.getLong("ttt.ready.maxPersistLagMillis", 5_000);
+    private static final long MAX_NOTIFICATION_AGE_MILLIS =
+        Long.getLong("ttt.ready.maxPendingNotificationAgeMillis", 60_000);
+    private static final long MAX_WAL_BYTES = Long.getLong("ttt.ready.maxWalBytes", 64L * 1024 * 1024);
+
+    private static final Log log = Log.get("http");
+
+    private final GameService gameService;
+    private final WebSocketNotifier notifier;
+    private final long startedAt = System.currentTimeMillis();
+
+    public HealthCheck(GameService gameService, WebSocketNotifier notifier) {
+        this.gameService = gameService;
+        this.notifier = notifier;
+    }
+
+    public JsonObject liveness() {
+        JsonObject live = new JsonObject();
+        live.addProperty("status", "ok");
+        live.addProperty("uptimeMillis", System.currentTimeMillis() - startedAt);
+        live.addProperty("timestamp", System.currentTimeMillis());
+        return live;
+    }
+
+    /**
+     * Every check with its value and limit; "ready" is false if any check failed
+     */
+    public JsonObject readiness() {
+        JsonObject checks = new JsonObject();
+        JsonArray failing = new JsonArray();
+
+        try {
+            ConnectionPool pool = ConnectionPool.getInstance();
+            int idle = pool.idleConnections();
+            check(checks, failing, "dbPool", idle, MIN_IDLE_DB_CONNECTIONS, idle >= MIN_IDLE_DB_CONNECTIONS)
+                .addProperty("capacity", pool.capacity());
+        } catch (SQLException e) {
+            check(checks, failing, "dbPool", -1, MIN_IDLE_DB_CONNECTIONS, false).addProperty("error", e.getMessage());
+        }
+
+        int gameQueued = gameService.queuedTasks();
+        int workerQueued = Server.queuedWorkerTasks();
+        JsonObject executors = check(checks, failing, "executorBacklog", gameQueued + workerQueued, MAX_QUEUED_TASKS,
+            gameQueued + workerQueued <= MAX_QUEUED_TASKS);
+        executors.addProperty("game", gameQueued);
+        executors.addProperty("wsWorkers", workerQueued);
+
+        long persistLag = GameStateCache.getInstance().oldestUnpersistedMillis();
+        check(checks, failing, "persistLagMillis", persistLag, MAX_PERSIST_LAG_MILLIS,
+            persistLag <= MAX_PERSIST_LAG_MILLIS);
+
+        // Held in the replay buffer: sent to nobody yet although the session's socket is open
+        long notificationAge = notifier.oldestUndeliveredMillis();
+        check(checks, failing, "pendingNotificationAgeMillis", notificationAge, MAX_NOTIFICATION_AGE_MILLIS,
+            notificationAge <= MAX_NOTIFICATION_AGE_MILLIS);
+
+        long walBytes = walBytes();
+        check(checks, failing, "walBytes", walBytes, MAX_WAL_BYTES, walBytes >= 0 && walBytes <= MAX_WAL_BYTES);
+
+        JsonObject ready = new JsonObject();
+        ready.addProperty("status", failing.size() == 0 ? "ready" : "not_ready");
+        ready.addProperty("ready", failing.size() == 0);
+        ready.add("failing", failing);
+        ready.add("checks", checks);
+        ready.addProperty("timestamp", System.currentTimeMillis());
+        if (failing.size() > 0) {
+            StringBuilder names = new StringBuilder();
+            for (int i = 0; i < failing.size(); i++) {
+                if (i > 0) names.append(',');
+                names.append(failing.get(i).getAsString());
+            }
+            log.warn("Not ready", "failing", names);
+        }
+        return ready;
+    }
+
+    private static JsonObject check(JsonObject checks, JsonArray failing, String name, long value, long limit,
+                                    boolean ok) {
+        JsonObject check = new JsonObject();
+        check.addProperty("value", value);
+        check.addProperty("limit", limit);
+        check.addProperty("ok", ok);
+        checks.add(name, check);
+        if (!ok) failing.add(name);
+        return check;
+    }
+
+    // 0 when no WAL exists yet (checkpointed or never written), -1 if the size can't be read
+    private static long walBytes() {
+        try {
+            return Files.size(Paths.get(ConnectionPool.DB_FILE + "-wal"));
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
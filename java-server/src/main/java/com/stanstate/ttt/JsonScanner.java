@@ -0,0 +1,274 @@
+package com.stanstate.ttt;
+
+/**
+ * Minimal pull scanner for inbound WebSocket messages
+ * Reads the top-level object in place: keys and string values are compared as spans of the
+ * source text and fields nobody asks for are skipped without being materialized. One instance
+ * per thread is reset for every message, so picking a handler or a shard allocates nothing.
+ */
+final class JsonScanner {
+    private String src;
+    private int length;
+    private int pos;
+    private int objectStart = -1;
+
+    // Span of the last key or string value read
+    private int spanStart;
+    private int spanEnd;
+    private boolean spanEscaped;
+
+    static final class MalformedJsonException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        MalformedJsonException(String message) {
+            super(message);
+        }
+    }
+
+    JsonScanner reset(String text) {
+        this.src = text;
+        this.length = text.length();
+        this.pos = 0;
+        this.objectStart = -1;
+        return this;
+    }
+
+    /**
+     * Enter the top-level object; false when the text is not a JSON object at all
+     */
+    boolean beginObject() {
+        skipWhitespace();
+        if (pos >= length || src.charAt(pos) != '{') {
+            return false;
+        }
+        objectStart = ++pos;
+        return true;
+    }
+
+    /**
+     * Position on the value of a top-level field; every other member is skipped
+     */
+    boolean findField(String key) {
+        pos = objectStart;
+        while (nextKey()) {
+            if (spanEquals(key)) {
+                return true;
+            }
+            skipValue();
+        }
+        return false;
+    }
+
+    /**
+     * Read the current value as a string span; non-string values are skipped and return false
+     */
+    boolean readString() {
+        skipWhitespace();
+        if (pos < length && src.charAt(pos) == '"') {
+            readStringSpan();
+            return true;
+        }
+        skipValue();
+        return false;
+    }
+
+    boolean spanEquals(String value) {
+        if (spanEscaped) {
+            return spanString().equals(value);
+        }
+        int spanLength = spanEnd - spanStart;
+        return spanLength == value.length() && src.regionMatches(spanStart, value, 0, spanLength);
+    }
+
+    /**
+     * Index of the table entry equal to the current span, or -1
+     */
+    int spanIndex(String[] table) {
+        for (int i = 0; i < table.length; i++) {
+            if (spanEquals(table[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Same value as spanString().hashCode(), without materializing the string
+     */
+    int spanHash() {
+        if (spanEscaped) {
+            return spanString().hashCode();
+        }
+        int h = 0;
+        for (int i = spanStart; i < spanEnd; i++) {
+            h = 31 * h + src.charAt(i);
+        }
+        return h;
+    }
+
+    String spanString() {
+        return spanEscaped ? unescape(spanStart, spanEnd) : src.substring(spanStart, spanEnd);
+    }
+
+    // Numbers may also arrive quoted, as Gson's getAsLong accepted them
+    long longValue() {
+        skipWhitespace();
+        int start;
+        int end;
+        if (pos < length && src.charAt(pos) == '"') {
+            readStringSpan();
+            start = spanStart;
+            end = spanEnd;
+        } else {
+            start = pos;
+            skipScalar();
+            end = pos;
+        }
+
+        int i = start;
+        boolean negative = i < end && src.charAt(i) == '-';
+        if (negative || (i < end && src.charAt(i) == '+')) i++;
+        if (i == end) throw new MalformedJsonException("Expected number at " + start);
+
+        long value = 0;
+        for (; i < end; i++) {
+            char c = src.charAt(i);
+            if (c < '0' || c > '9') {
+                // Fraction or exponent: rare, let the JDK handle it
+                return (long) parseDouble(start, end);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    double doubleValue() {
+        skipWhitespace();
+        if (pos < length && src.charAt(pos) == '"') {
+            readStringSpan();
+            return parseDouble(spanStart, spanEnd);
+        }
+        int start = pos;
+        skipScalar();
+        return parseDouble(start, pos);
+    }
+
+    private boolean nextKey() {
+        skipWhitespace();
+        if (pos >= length) throw new MalformedJsonException("Unterminated object");
+        char c = src.charAt(pos);
+        if (c == '}') {
+            return false;
+        }
+        if (c == ',') {
+            pos++;
+            skipWhitespace();
+        }
+        readStringSpan();
+        skipWhitespace();
+        if (pos >= length || src.charAt(pos) != ':') {
+            throw new MalformedJsonException("Expected ':' at " + pos);
+        }
+        pos++;
+        return true;
+    }
+
+    private void skipValue() {
+        skipWhitespace();
+        if (pos >= length) throw new MalformedJsonException("Expected value at " + pos);
+        char c = src.charAt(pos);
+        if (c == '"') {
+            readStringSpan();
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            while (pos < length) {
+                c = src.charAt(pos);
+                if (c == '"') {
+                    readStringSpan();
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if ((c == '}' || c == ']') && --depth == 0) {
+                    pos++;
+                    return;
+                }
+                pos++;
+            }
+            throw new MalformedJsonException("Unterminated value");
+        } else {
+            skipScalar();
+        }
+    }
+
+    private void skipScalar() {
+        int start = pos;
+        while (pos < length) {
+            char c = src.charAt(pos);
+            if (c == ',' || c == '}' || c == ']' || c <= ' ') break;
+            pos++;
+        }
+        if (pos == start) throw new MalformedJsonException("Expected value at " + start);
+    }
+
+    private void readStringSpan() {
+        if (pos >= length || src.charAt(pos) != '"') {
+            throw new MalformedJsonException("Expected string at " + pos);
+        }
+        int start = ++pos;
+        boolean escaped = false;
+        while (pos < length) {
+            char c = src.charAt(pos);
+            if (c == '"') {
+                spanStart = start;
+                spanEnd = pos++;
+                spanEscaped = escaped;
+                return;
+            }
+            if (c == '\\') {
+                escaped = true;
+                pos++;
+            }
+            pos++;
+        }
+        throw new MalformedJsonException("Unterminated string");
+    }
+
+    private void skipWhitespace() {
+        while (pos < length && src.charAt(pos) <= ' ') pos++;
+    }
+
+    private double parseDouble(int start, int end) {
+        try {
+            return Double.parseDouble(src.substring(start, end));
+        } catch (NumberFormatException e) {
+            throw new MalformedJsonException("Bad number at " + start);
+        }
+    }
+
+    private String unescape(int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = src.charAt(i);
+            if (c != '\\' || i + 1 >= end) {
+                sb.append(c);
+                continue;
+            }
+            char e = src.charAt(++i);
+            switch (e) {
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (i + 4 >= end) throw new MalformedJsonException("Bad unicode escape");
+                    sb.append((char) Integer.parseInt(src.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                default: sb.append(e);
+            }
+        }
+        return sb.toString();
+    }
+}
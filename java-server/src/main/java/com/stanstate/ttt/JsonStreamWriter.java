@@ -0,0 +1,269 @@
+package com.stanstate.ttt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal streaming JSON encoder for HTTP responses
+ * Writes UTF-8 straight into a byte buffer that is reused per thread, and field names are
+ * pre-encoded once as constants (see name()), so writing a response allocates nothing: no
+ * JsonObject tree, no intermediate String, no per-request byte[]. The encoded bytes go to the
+ * servlet stream in one write. The counterpart of JsonScanner on the way out.
+ */
+final class JsonStreamWriter {
+    /**
+     * A response that knows how to write itself
+     */
+    interface Body {
+        void writeTo(JsonStreamWriter out);
+    }
+
+    private static final ThreadLocal<JsonStreamWriter> PER_THREAD = ThreadLocal.withInitial(JsonStreamWriter::new);
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buf = new byte[INITIAL_CAPACITY];
+    private int size;
+    private boolean needComma;
+
+    /**
+     * This thread's writer, emptied; don't hold on to it across responses
+     */
+    static JsonStreamWriter forThread() {
+        return PER_THREAD.get().reset();
+    }
+
+    /**
+     * Pre-encode a field name as "name": for use with the field() methods
+     */
+    static byte[] name(String name) {
+        JsonStreamWriter out = new JsonStreamWriter();
+        out.string(name);
+        out.put((byte) ':');
+        return out.toByteArray();
+    }
+
+    JsonStreamWriter reset() {
+        if (buf.length > MAX_RETAINED_CAPACITY) {
+            // One huge response shouldn't pin that much memory to the thread forever
+            buf = new byte[INITIAL_CAPACITY];
+        }
+        size = 0;
+        needComma = false;
+        return this;
+    }
+
+    JsonStreamWriter beginObject() {
+        separator();
+        put((byte) '{');
+        needComma = false;
+        return this;
+    }
+
+    JsonStreamWriter endObject() {
+        put((byte) '}');
+        needComma = true;
+        return this;
+    }
+
+    JsonStreamWriter beginArray() {
+        separator();
+        put((byte) '[');
+        needComma = false;
+        return this;
+    }
+
+    JsonStreamWriter endArray() {
+        put((byte) ']');
+        needComma = true;
+        return this;
+    }
+
+    /**
+     * Start a member; the next value written belongs to it
+     */
+    JsonStreamWriter name(byte[] encodedName) {
+        separator();
+        put(encodedName);
+        needComma = false;
+        return this;
+    }
+
+    JsonStreamWriter field(byte[] encodedName, String value) {
+        return name(encodedName).value(value);
+    }
+
+    JsonStreamWriter field(byte[] encodedName, long value) {
+        return name(encodedName).value(value);
+    }
+
+    JsonStreamWriter field(byte[] encodedName, boolean value) {
+        return name(encodedName).value(value);
+    }
+
+    JsonStreamWriter value(String value) {
+        separator();
+        if (value == null) {
+            put(NULL);
+        } else {
+            string(value);
+        }
+        needComma = true;
+        return this;
+    }
+
+    JsonStreamWriter value(long value) {
+        separator();
+        if (value == Long.MIN_VALUE) {
+            put(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+        } else {
+            if (value < 0) {
+                put((byte) '-');
+                value = -value;
+            }
+            int digits = 1;
+            for (long v = value; v >= 10; v /= 10) digits++;
+            ensure(digits);
+            for (int i = size + digits - 1; i >= size; i--) {
+                buf[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            size += digits;
+        }
+        needComma = true;
+        return this;
+    }
+
+    JsonStreamWriter value(boolean value) {
+        separator();
+        put(value ? TRUE : FALSE);
+        needComma = true;
+        return this;
+    }
+
+    /**
+     * Append already-encoded JSON, e.g. a constant response body
+     */
+    JsonStreamWriter raw(byte[] json) {
+        separator();
+        put(json);
+        needComma = true;
+        return this;
+    }
+
+    /**
+     * Append JSON that is already a String (bodies from routes that still build Gson trees)
+     */
+    JsonStreamWriter raw(String json) {
+        separator();
+        utf8(json, false);
+        needComma = true;
+        return this;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, size);
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buf, size);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, size, StandardCharsets.UTF_8);
+    }
+
+    private void separator() {
+        if (needComma) {
+            put((byte) ',');
+        }
+    }
+
+    private void string(String value) {
+        put((byte) '"');
+        utf8(value, true);
+        put((byte) '"');
+    }
+
+    private void utf8(String value, boolean escape) {
+        int length = value.length();
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (escape && (c < 0x20 || c == '"' || c == '\\')) {
+                    escape(c);
+                } else {
+                    if (size == buf.length) ensure(1);
+                    buf[size++] = (byte) c;
+                }
+            } else if (c < 0x800) {
+                ensure(2);
+                buf[size++] = (byte) (0xC0 | (c >> 6));
+                buf[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                ensure(4);
+                buf[size++] = (byte) (0xF0 | (cp >> 18));
+                buf[size++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[size++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                // Lone surrogates are not valid UTF-8; write the replacement character
+                if (Character.isSurrogate(c)) c = '\uFFFD';
+                ensure(3);
+                buf[size++] = (byte) (0xE0 | (c >> 12));
+                buf[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void escape(char c) {
+        ensure(6);
+        buf[size++] = '\\';
+        switch (c) {
+            case '"': buf[size++] = '"'; return;
+            case '\\': buf[size++] = '\\'; return;
+            case '\n': buf[size++] = 'n'; return;
+            case '\r': buf[size++] = 'r'; return;
+            case '\t': buf[size++] = 't'; return;
+            case '\b': buf[size++] = 'b'; return;
+            case '\f': buf[size++] = 'f'; return;
+            default:
+                buf[size++] = 'u';
+                buf[size++] = '0';
+                buf[size++] = '0';
+                buf[size++] = HEX[c >> 4];
+                buf[size++] = HEX[c & 0xF];
+        }
+    }
+
+    private void put(byte b) {
+        ensure(1);
+        buf[size++] = b;
+    }
+
+    private void put(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+        }
+    }
+}
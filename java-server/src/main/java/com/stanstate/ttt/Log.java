@@ -0,0 +1,226 @@
+package com.stanstate.ttt;
+
+import com.google.gson.JsonObject;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logging facade for one category ("game", "http", "ws", ...), backed by the async LogWriter
+ * Calls take a constant message plus up to three key/value fields instead of a concatenated
+ * string, so a disabled level costs one volatile read and no allocation. Guard with
+ * isDebugEnabled() only when computing a field value is itself expensive.
+ *
+ * Configuration (system properties; level and sampling also changeable at runtime via POST
+ * /api/logging, which needs the ttt.admin.token):
+ *   ttt.log.level=INFO              default threshold
+ *   ttt.log.level.game=DEBUG        per-category threshold
+ *   ttt.log.sample.http=10          keep 1 in 10 DEBUG/INFO events of a category (WARN/ERROR always kept)
+ *   ttt.log.bufferSize=8192         ring capacity
+ */
+public final class Log {
+    public enum Level {
+        TRACE("TRACE"), DEBUG("DEBUG"), INFO("INFO "), WARN("WARN "), ERROR("ERROR"), OFF("OFF  ");
+
+        final String label;
+
+        Level(String label) {
+            this.label = label;
+        }
+
+        static Level parse(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private static final Level DEFAULT_LEVEL = Level.parse(System.getProperty("ttt.log.level", "INFO"));
+    private static final Map<String, Log> categories = new ConcurrentHashMap<>();
+    private static volatile LogWriter console;
+
+    private final String category;
+    private final LogWriter writer;
+    private volatile int threshold;
+    private volatile int sampleEvery;
+    private final LongAdder sampledOut = new LongAdder();
+
+    Log(String category, LogWriter writer, Level level, int sampleEvery) {
+        this.category = category;
+        this.writer = writer;
+        this.threshold = level.ordinal();
+        this.sampleEvery = Math.max(1, sampleEvery);
+    }
+
+    /**
+     * The logger for a category; categories are code constants, so the set stays small
+     */
+    public static Log get(String category) {
+        return categories.computeIfAbsent(category, name -> {
+            String level = System.getProperty("ttt.log.level." + name);
+            return new Log(name, console(), level != null ? Level.parse(level) : DEFAULT_LEVEL,
+                Integer.getInteger("ttt.log.sample." + name, 1));
+        });
+    }
+
+    private static LogWriter console() {
+        LogWriter writer = console;
+        if (writer == null) {
+            synchronized (Log.class) {
+                if (console == null) {
+                    console = LogWriter.console(Integer.getInteger("ttt.log.bufferSize", 8192));
+                }
+                writer = console;
+            }
+        }
+        return writer;
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.ordinal() >= threshold;
+    }
+
+    public boolean isTraceEnabled() {
+        return Level.TRACE.ordinal() >= threshold;
+    }
+
+    public boolean isDebugEnabled() {
+        return Level.DEBUG.ordinal() >= threshold;
+    }
+
+    public void setLevel(Level level) {
+        threshold = level.ordinal();
+    }
+
+    public void setSampleEvery(int every) {
+        sampleEvery = Math.max(1, every);
+    }
+
+    public void trace(String message) {
+        log(Level.TRACE, message, null, null, null, null, null, null, null);
+    }
+
+    public void trace(String message, String k1, Object v1) {
+        log(Level.TRACE, message, k1, v1, null, null, null, null, null);
+    }
+
+    public void trace(String message, String k1, Object v1, String k2, Object v2) {
+        log(Level.TRACE, message, k1, v1, k2, v2, null, null, null);
+    }
+
+    public void trace(String message, String k1, Object v1, String k2, Object v2, String k3, Object v3) {
+        log(Level.TRACE, message, k1, v1, k2, v2, k3, v3, null);
+    }
+
+    public void debug(String message) {
+        log(Level.DEBUG, message, null, null, null, null, null, null, null);
+    }
+
+    public void debug(String message, String k1, Object v1) {
+        log(Level.DEBUG, message, k1, v1, null, null, null, null, null);
+    }
+
+    public void debug(String message, String k1, Object v1, String k2, Object v2) {
+        log(Level.DEBUG, message, k1, v1, k2, v2, null, null, null);
+    }
+
+    public void debug(String message, String k1, Object v1, String k2, Object v2, String k3, Object v3) {
+        log(Level.DEBUG, message, k1, v1, k2, v2, k3, v3, null);
+    }
+
+    public void info(String message) {
+        log(Level.INFO, message, null, null, null, null, null, null, null);
+    }
+
+    public void info(String message, String k1, Object v1) {
+        log(Level.INFO, message, k1, v1, null, null, null, null, null);
+    }
+
+    public void info(String message, String k1, Object v1, String k2, Object v2) {
+        log(Level.INFO, message, k1, v1, k2, v2, null, null, null);
+    }
+
+    public void info(String message, String k1, Object v1, String k2, Object v2, String k3, Object v3) {
+        log(Level.INFO, message, k1, v1, k2, v2, k3, v3, null);
+    }
+
+    public void warn(String message) {
+        log(Level.WARN, message, null, null, null, null, null, null, null);
+    }
+
+    public void warn(String message, String k1, Object v1) {
+        log(Level.WARN, message, k1, v1, null, null, null, null, null);
+    }
+
+    public void warn(String message, String k1, Object v1, String k2, Object v2) {
+        log(Level.WARN, message, k1, v1, k2, v2, null, null, null);
+    }
+
+    public void warn(String message, String k1, Object v1, String k2, Object v2, String k3, Object v3) {
+        log(Level.WARN, message, k1, v1, k2, v2, k3, v3, null);
+    }
+
+    public void warn(String message, Throwable error) {
+        log(Level.WARN, message, null, null, null, null, null, null, error);
+    }
+
+    public void error(String message) {
+        log(Level.ERROR, message, null, null, null, null, null, null, null);
+    }
+
+    public void error(String message, String k1, Object v1) {
+        log(Level.ERROR, message, k1, v1, null, null, null, null, null);
+    }
+
+    public void error(String message, Throwable error) {
+        log(Level.ERROR, message, null, null, null, null, null, null, error);
+    }
+
+    public void error(String message, String k1, Object v1, Throwable error) {
+        log(Level.ERROR, message, k1, v1, null, null, null, null, error);
+    }
+
+    private void log(Level level, String message, String k1, Object v1, String k2, Object v2, String k3, Object v3,
+                     Throwable error) {
+        if (level.ordinal() < threshold) return;
+        int every = sampleEvery;
+        if (every > 1 && level.compareTo(Level.WARN) < 0 && ThreadLocalRandom.current().nextInt(every) != 0) {
+            sampledOut.increment();
+            return;
+        }
+        writer.publish(level, category, message, k1, v1, k2, v2, k3, v3, error);
+    }
+
+    /**
+     * Change an existing category's threshold and/or sampling at runtime; null leaves a setting unchanged
+     */
+    public static void configure(String category, Level level, Integer sampleEvery) {
+        Log log = categories.get(category);
+        if (log == null) {
+            throw new IllegalArgumentException("Unknown log category " + category);
+        }
+        if (level != null) log.setLevel(level);
+        if (sampleEvery != null) log.setSampleEvery(sampleEvery);
+    }
+
+    public static JsonObject snapshot() {
+        JsonObject stats = new JsonObject();
+        stats.addProperty("success", true);
+        LogWriter writer = console();
+        stats.addProperty("capacity", writer.capacity());
+        stats.addProperty("queued", writer.depth());
+        stats.addProperty("written", writer.written());
+        stats.addProperty("dropped", writer.dropped());
+        stats.addProperty("synchronous", writer.synchronous());
+        JsonObject byCategory = new JsonObject();
+        for (Log log : categories.values()) {
+            JsonObject entry = new JsonObject();
+            entry.addProperty("level", Level.values()[log.threshold].name());
+            entry.addProperty("sampleEvery", log.sampleEvery);
+            entry.addProperty("sampledOut", log.sampledOut.sum());
+            byCategory.add(log.category, entry);
+        }
+        stats.add("categories", byCategory);
+        return stats;
+    }
+}
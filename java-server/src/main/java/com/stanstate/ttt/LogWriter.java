@@ -0,0 +1,280 @@
+package com.stanstate.ttt;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free ring of log events drained by one background thread
+ * Producers claim a slot with a CAS, fill it and publish it; they never block and never touch
+ * the console. When the ring is full, DEBUG/INFO events are dropped and counted, WARN/ERROR are
+ * written synchronously instead so failures are never lost. Formatting (timestamp, key=value
+ * fields, stack traces) happens on the writer thread, which flushes whenever the ring runs dry.
+ */
+final class LogWriter {
+    private static final DateTimeFormatter TIMESTAMP =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+    private static final long MAX_IDLE_PARK_NANOS = 10_000_000;
+
+    // Pre-allocated slot; fields are written by one producer, then read and cleared by the writer
+    private static final class Event {
+        long timeMillis;
+        Log.Level level;
+        String category;
+        String thread;
+        String message;
+        String k1, k2, k3;
+        Object v1, v2, v3;
+        Throwable error;
+
+        void clear() {
+            message = null;
+            k1 = k2 = k3 = null;
+            v1 = v2 = v3 = null;
+            error = null;
+            thread = null;
+        }
+    }
+
+    private final Event[] slots;
+    private final AtomicLongArray published;  // sequence held by each slot once it is readable
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();  // next sequence to claim
+    private final AtomicLong tail = new AtomicLong();  // next sequence the writer reads
+    private final Writer out;
+    private final Writer err;
+    private final StringBuilder line = new StringBuilder(256);
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder synchronous = new LongAdder();
+
+    LogWriter(int capacity, Writer out, Writer err) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Event[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Event();
+            published.set(i, -1);
+        }
+        this.mask = size - 1;
+        this.out = out;
+        this.err = err;
+        this.thread = new Thread(this::drainLoop, "log-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Writer on the process's stdout/stderr, bypassing the synchronized System.out
+     */
+    static LogWriter console(int capacity) {
+        LogWriter writer = new LogWriter(capacity,
+            new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8),
+            new OutputStreamWriter(new FileOutputStream(FileDescriptor.err), StandardCharsets.UTF_8));
+        Runtime.getRuntime().addShutdownHook(new Thread(writer::close, "log-writer-shutdown"));
+        return writer;
+    }
+
+    void publish(Log.Level level, String category, String message, String k1, Object v1, String k2, Object v2,
+                 String k3, Object v3, Throwable error) {
+        long seq;
+        do {
+            seq = head.get();
+            if (!running || seq - tail.get() >= slots.length) {
+                overflow(level, category, message, k1, v1, k2, v2, k3, v3, error);
+                return;
+            }
+        } while (!head.compareAndSet(seq, seq + 1));
+
+        int index = (int) seq & mask;
+        Event event = slots[index];
+        event.timeMillis = System.currentTimeMillis();
+        event.level = level;
+        event.category = category;
+        event.thread = Thread.currentThread().getName();
+        event.message = message;
+        event.k1 = k1;
+        event.v1 = v1;
+        event.k2 = k2;
+        event.v2 = v2;
+        event.k3 = k3;
+        event.v3 = v3;
+        event.error = error;
+        published.setRelease(index, seq);
+    }
+
+    private void overflow(Log.Level level, String category, String message, String k1, Object v1, String k2,
+                          Object v2, String k3, Object v3, Throwable error) {
+        if (running && level.compareTo(Log.Level.WARN) < 0) {
+            dropped.increment();
+            return;
+        }
+        // Full ring (or shut down): warnings and errors still get out, in the caller's thread
+        Event event = new Event();
+        event.timeMillis = System.currentTimeMillis();
+        event.level = level;
+        event.category = category;
+        event.thread = Thread.currentThread().getName();
+        event.message = message;
+        event.k1 = k1;
+        event.v1 = v1;
+        event.k2 = k2;
+        event.v2 = v2;
+        event.k3 = k3;
+        event.v3 = v3;
+        event.error = error;
+        synchronized (this) {
+            StringBuilder text = new StringBuilder(128);
+            Writer target = format(event, text);
+            try {
+                target.append(text);
+                target.flush();
+            } catch (IOException e) {
+                // Nowhere left to report it
+            }
+        }
+        synchronous.increment();
+    }
+
+    private void drainLoop() {
+        long idleNanos = 0;
+        while (running || tail.get() < head.get()) {
+            if (drain() > 0) {
+                idleNanos = 0;
+                flush();
+            } else {
+                idleNanos = idleNanos == 0 ? 100_000 : Math.min(idleNanos * 2, MAX_IDLE_PARK_NANOS);
+                LockSupport.parkNanos(idleNanos);
+            }
+        }
+        flush();
+    }
+
+    private int drain() {
+        int count = 0;
+        long seq = tail.get();
+        // Bounded batch so a steady stream still gets flushed and counted
+        while (count < slots.length) {
+            int index = (int) seq & mask;
+            if (published.getAcquire(index) != seq) {
+                // Not claimed yet, or claimed and still being filled
+                break;
+            }
+            Event event = slots[index];
+            line.setLength(0);
+            Writer target = format(event, line);
+            synchronized (this) {
+                try {
+                    target.append(line);
+                } catch (IOException e) {
+                    dropped.increment();
+                }
+            }
+            event.clear();
+            seq++;
+            tail.lazySet(seq);
+            count++;
+        }
+        written.add(count);
+        return count;
+    }
+
+    private Writer format(Event event, StringBuilder text) {
+        TIMESTAMP.formatTo(Instant.ofEpochMilli(event.timeMillis), text);
+        text.append(' ').append(event.level.label).append(' ').append(event.category)
+            .append(" [").append(event.thread).append("] ").append(event.message);
+        field(text, event.k1, event.v1);
+        field(text, event.k2, event.v2);
+        field(text, event.k3, event.v3);
+        text.append(System.lineSeparator());
+        if (event.error != null) {
+            java.io.StringWriter trace = new java.io.StringWriter();
+            event.error.printStackTrace(new PrintWriter(trace));
+            text.append(trace);
+        }
+        return event.level.compareTo(Log.Level.WARN) >= 0 ? err : out;
+    }
+
+    // key=value, quoting values that would otherwise be ambiguous
+    private static void field(StringBuilder text, String key, Object value) {
+        if (key == null) return;
+        text.append(' ').append(key).append('=');
+        String s = String.valueOf(value);
+        boolean quote = s.isEmpty();
+        for (int i = 0; i < s.length() && !quote; i++) {
+            char c = s.charAt(i);
+            quote = c <= ' ' || c == '"' || c == '=';
+        }
+        if (!quote) {
+            text.append(s);
+            return;
+        }
+        text.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') text.append('\\');
+            if (c == '\n') {
+                text.append("\\n");
+            } else {
+                text.append(c);
+            }
+        }
+        text.append('"');
+    }
+
+    private synchronized void flush() {
+        try {
+            out.flush();
+            err.flush();
+        } catch (IOException e) {
+            // Console gone; keep draining so producers never stall
+        }
+    }
+
+    /**
+     * Stop accepting events, drain what's queued and flush; later events are written synchronously
+     */
+    void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(2_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    long depth() {
+        return Math.max(0, head.get() - tail.get());
+    }
+
+    long written() {
+        return written.sum();
+    }
+
+    long dropped() {
+        return dropped.sum();
+    }
+
+    long synchronous() {
+        return synchronous.sum();
+    }
+}
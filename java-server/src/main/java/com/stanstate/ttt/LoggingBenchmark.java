@@ -0,0 +1,134 @@
+package com.stanstate.ttt;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Request throughput with logging on the hot path, across thread counts
+ * Each simulated request does a little work and logs like a move request used to: once with a
+ * synchronized PrintStream and string concatenation (the old System.out pattern), then through
+ * Log with debug disabled, enabled, and enabled with 1-in-10 sampling. Output goes to null sinks
+ * so the numbers show contention and formatting cost rather than terminal speed.
+ *
+ * Usage: LoggingBenchmark [requestsPerThread=500000] [maxThreads=cores]
+ */
+public class LoggingBenchmark {
+    private static final com.sun.management.ThreadMXBean threadBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private interface Request {
+        void run(int i);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int cores = Runtime.getRuntime().availableProcessors();
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : cores;
+
+        System.out.println("=== Logging Benchmark ===");
+        System.out.println(requests + " requests per thread, up to " + maxThreads + " threads");
+
+        PrintStream console = new PrintStream(OutputStream.nullOutputStream());
+        LogWriter writer = new LogWriter(8192, Writer.nullWriter(), Writer.nullWriter());
+        Log disabled = new Log("bench", writer, Log.Level.INFO, 1);
+        Log enabled = new Log("bench", writer, Log.Level.DEBUG, 1);
+        Log sampled = new Log("bench", writer, Log.Level.DEBUG, 10);
+
+        List<String> results = new ArrayList<>();
+        for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+            StringBuilder row = new StringBuilder(String.format(" %7d", threads));
+            row.append(run(threads, requests, writer, i -> work(i)));
+            row.append(run(threads, requests, writer, i -> {
+                console.println("=== MOVE REQUEST ===");
+                console.println("Move request - Session: session-" + (i & 7) + ", Match: match-1, Cell: " + (i % 9));
+                int result = work(i);
+                console.println("Move result: " + (result >= 0));
+            }));
+            row.append(run(threads, requests, writer, i -> {
+                disabled.debug("Move request", "sessionId", "session-1", "matchId", "match-1", "cell", i % 9);
+                work(i);
+            }));
+            row.append(run(threads, requests, writer, i -> {
+                enabled.debug("Move request", "sessionId", "session-1", "matchId", "match-1", "cell", i % 9);
+                work(i);
+            }));
+            row.append(run(threads, requests, writer, i -> {
+                sampled.debug("Move request", "sessionId", "session-1", "matchId", "match-1", "cell", i % 9);
+                work(i);
+            }));
+            results.add(row.toString());
+            if (threads >= maxThreads) break;
+        }
+
+        System.out.println("\nrequests/s (thousands)");
+        System.out.println(" threads |  no logs | println  | disabled | async    | sampled");
+        for (String line : results) {
+            System.out.println(line);
+        }
+
+        long before = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < requests; i++) {
+            disabled.debug("Move request", "sessionId", "session-1", "matchId", "match-1", "cell", i % 9);
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        System.out.printf("%nDisabled debug call: %.2f bytes allocated per call%n", allocated / (double) requests);
+        System.out.println("Async writer: " + writer.written() + " written, " + writer.dropped()
+            + " dropped (ring full), " + writer.synchronous() + " written synchronously");
+        writer.close();
+    }
+
+    // Stand-in for request handling: a board check over a few cells
+    private static int work(int i) {
+        int board = i * 0x9E3779B9;
+        int marks = 0;
+        for (int cell = 0; cell < 9; cell++) {
+            if ((board >>> cell & 1) != 0) marks++;
+        }
+        return marks;
+    }
+
+    private static String run(int threads, int requests, LogWriter writer, Request request) throws InterruptedException {
+        // Warm-up pass, then the measured one, each starting from an empty ring
+        measure(threads, requests / 4, request);
+        awaitDrained(writer);
+        double perSecond = measure(threads, requests, request);
+        awaitDrained(writer);
+        return String.format(" | %8.0f", perSecond / 1000);
+    }
+
+    private static void awaitDrained(LogWriter writer) throws InterruptedException {
+        for (int i = 0; i < 2_000 && writer.depth() > 0; i++) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static double measure(int threads, int requests, Request request) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < requests; i++) {
+                        request.run(i);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        return (double) threads * requests / (elapsed / 1e9);
+    }
+}
@@ -1,15 +1,22 @@
 package com.stanstate.ttt;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class Main {
   public static void main(String[] args) throws Exception {
-    int wsPort = 8080;
+    // WebSocket ports may be a comma-separated list (e.g. 8080,8082); every listener shares one registry
+    String wsPorts = System.getProperty("ttt.ws.ports", "8080");
     int httpPort = 8081;
     
-    if (args.length > 0) wsPort = Integer.parseInt(args[0]);
+    if (args.length > 0) wsPorts = args[0];
     if (args.length > 1) httpPort = Integer.parseInt(args[1]);
     
     System.out.println("=== Starting Enhanced Multithreaded TTT Server ===");
     
+    // Match clock settings; a bad value stops here, before anything is listening
+    TimeControl.configure();
+    
     // Initialize SQLite database with enhanced schema
     System.out.println("Initializing enhanced database...");
     DatabaseManager dbManager = DatabaseManager.getInstance();
@@ -20,18 +27,33 @@ public class Main {
     GameStateCache gameCache = GameStateCache.getInstance();
     System.out.println("Game state cache initialized successfully");
     
-    // Start WebSocket server for real-time notifications
-    System.out.println("Starting WebSocket server on port " + wsPort + "...");
-    Server wsServer = new Server(wsPort);
-    wsServer.start();
+    // Start WebSocket servers for real-time notifications
+    List<Server> wsServers = new ArrayList<>();
+    for (String port : wsPorts.split(",")) {
+      int wsPort = Integer.parseInt(port.trim());
+      System.out.println("Starting WebSocket server on port " + wsPort + " (" + Server.DEFAULT_DECODERS +
+                         " decoders, " + Server.DEFAULT_WORKERS + " workers" +
+                         (ConfigurableDeflateExtension.ENABLED ? ", permessage-deflate" : "") + ")...");
+      Server wsServer = new Server(wsPort);
+      wsServer.start();
+      wsServers.add(wsServer);
+    }
     
     // Start HTTP REST API server for game actions
     System.out.println("Starting HTTP API server on port " + httpPort + "...");
     RestApiServer httpServer = new RestApiServer(httpPort);
     httpServer.start();
     
+    // Route WebSocket commands into the same GameService as the HTTP API
+    WebSocketCommandHandler commandHandler = new WebSocketCommandHandler(httpServer.getGameService());
+    for (Server wsServer : wsServers) {
+      wsServer.setCommandHandler(commandHandler);
+    }
+    
     System.out.println("\n=== Server Configuration ===");
-    System.out.println("TTT WebSocket server: ws://127.0.0.1:" + wsPort);
+    for (Server wsServer : wsServers) {
+      System.out.println("TTT WebSocket server: ws://127.0.0.1:" + wsServer.getPort());
+    }
     System.out.println("TTT HTTP API server: http://127.0.0.1:" + httpPort);
     System.out.println("Enhanced Features Enabled:");
     System.out.println("  ✓ Persistent lobby system");
@@ -46,10 +68,11 @@ public class Main {
     Runtime.getRuntime().addShutdownHook(new Thread(() -> {
       System.out.println("\n=== Shutting down server gracefully ===");
       try {
-        if (wsServer != null) {
-          System.out.println("Stopping WebSocket server...");
+        for (Server wsServer : wsServers) {
+          System.out.println("Stopping WebSocket server on port " + wsServer.getPort() + "...");
           wsServer.stop();
         }
+        Server.shutdownWorkers();
         
         // Shutdown WebSocket notifier
         if (Server.getNotifier() != null) {
@@ -64,6 +87,7 @@ public class Main {
         // Shutdown game state cache
         System.out.println("Shutting down game state cache...");
         GameStateCache.getInstance().shutdown();
+        TimerService.getInstance().shutdown();
         
         System.out.println("Server shutdown complete.");
       } catch (Exception e) {
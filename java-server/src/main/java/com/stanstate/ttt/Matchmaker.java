@@ -5,32 +5,54 @@ import java.util.UUID;
 import java.util.concurrent.*;
 import java.util.function.Consumer;
 public class Matchmaker {
+  private static final long TICKET_TIMEOUT_MILLIS = 120_000;
   private final ScheduledExecutorService sched;
-  private final ConcurrentLinkedQueue<ClientSession> tttWait = new ConcurrentLinkedQueue<>();
+  private final Map<String, ClientSession> queued = new ConcurrentHashMap<>();
+  private final MatchmakingQueue tttQueue;
   private final Map<String, Room> rooms = new ConcurrentHashMap<>();
-  public Matchmaker(ScheduledExecutorService s){ this.sched=s; }
+  public Matchmaker(ScheduledExecutorService s){
+    this.sched=s;
+    this.tttQueue = new MatchmakingQueue(new MatchmakingQueue.PairingHandler() {
+      @Override public void onPaired(MatchmakingQueue.Ticket a, MatchmakingQueue.Ticket b){ startRoom(a, b); }
+      @Override public void onExpired(MatchmakingQueue.Ticket t){
+        ClientSession s = queued.remove(t.sessionId);
+        if (s == null) return;
+        var err = new JsonObject(); err.addProperty("t","error"); err.addProperty("code","QUEUE_TIMEOUT"); err.addProperty("msg","No opponent found");
+        s.send(err);
+      }
+    }, t -> { ClientSession c = queued.get(t.sessionId); return c != null && c.conn.isOpen(); }, TICKET_TIMEOUT_MILLIS);
+  }
   public void requestJoin(ClientSession s, String game){
     if (!"ttt".equals(game)) {
       var err = new JsonObject(); err.addProperty("t","error"); err.addProperty("code","UNSUPPORTED_GAME"); err.addProperty("msg","Only 'ttt'");
       s.send(err); return;
     }
-    ClientSession other = tttWait.poll();
-    if (other == null) {
-      tttWait.add(s);
+    queued.put(s.connId, s);
+    if (tttQueue.enqueue(s.connId, s.userId, SkillRating.getInstance().getRating(s.userId))) {
       var waiting = new JsonObject(); waiting.addProperty("t","waiting"); s.send(waiting);
-    } else {
-      String id = "M-" + UUID.randomUUID();
-      TttRoom room = new TttRoom(id, sched);
-      rooms.put(id, room);
-      room.addPlayer(other,1);
-      room.addPlayer(s,2);
-      room.start();
     }
   }
+  // Runs on the matchmaking thread; both sessions passed the liveness check just before pairing
+  private void startRoom(MatchmakingQueue.Ticket a, MatchmakingQueue.Ticket b){
+    ClientSession first = queued.remove(a.sessionId), second = queued.remove(b.sessionId);
+    if (first == null || second == null) {
+      // One side left after the liveness check; the other keeps its place in the queue
+      if (first != null) { queued.put(a.sessionId, first); tttQueue.requeue(a); }
+      if (second != null) { queued.put(b.sessionId, second); tttQueue.requeue(b); }
+      return;
+    }
+    String id = "M-" + UUID.randomUUID();
+    TttRoom room = new TttRoom(id, sched);
+    rooms.put(id, room);
+    room.addPlayer(first,1);
+    room.addPlayer(second,2);
+    room.start();
+  }
   public void routeToRoom(String id, Consumer<Room> fn){ var r=rooms.get(id); if(r!=null) fn.accept(r); }
   public void onDisconnect(ClientSession s){
     if (s == null) return;
     if (s.matchId != null) { var r=rooms.get(s.matchId); if (r!=null) r.onLeave(s); }
-    else { tttWait.remove(s); }
+    else { tttQueue.cancel(s.connId); queued.remove(s.connId); }
   }
-}
\ No newline at end of file
+  public void shutdown(){ tttQueue.shutdown(); }
+}
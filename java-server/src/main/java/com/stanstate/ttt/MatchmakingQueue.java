@@ -0,0 +1,418 @@
+package com.stanstate.ttt;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Skill-based matchmaking queue
+ * Tickets are bucketed by rating band and paired in a periodic batch pass on a single thread.
+ * The acceptable rating gap for a ticket widens the longer it waits.
+ *
+ * Producers never take a lock: enqueue is a map putIfAbsent plus a lock-free inbox append,
+ * and cancellation is a CAS on the ticket state. The pass drains the inbox in batches,
+ * drops cancelled, expired and dead tickets, and claims both tickets of a pair by CAS.
+ */
+public class MatchmakingQueue {
+    private static final Log log = Log.get("matchmaking");
+    private static final int BAND_WIDTH = 100;
+    private static final double BASE_WINDOW = 50.0;
+    private static final double WINDOW_GROWTH_PER_SECOND = 25.0;
+    private static final double MAX_WINDOW = 1000.0;
+    private static final long TICK_MILLIS = 200;
+    private static final long DEFAULT_TICKET_TIMEOUT_MILLIS = 120_000;
+    private static final double LATENCY_WEIGHT = 0.5;          // rating points per ms of RTT difference
+    private static final long POOR_CONNECTION_HOLDOFF_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final PairingHandler pairingHandler;
+    private final LivenessCheck livenessCheck;
+    private final long ticketTimeoutNanos;
+    private final ConnectionQuality connectionQuality;
+    private final ConcurrentLinkedQueue<Ticket> inbox;
+    private final Map<String, Ticket> queuedBySession;
+    private final TreeMap<Integer, List<Ticket>> bands; // owned by the matchmaking thread
+    private final TimerService.Timeout matchTick;
+    private final LatencyHistogram queueTimeMillis;
+    private final AtomicLong pairedTotal;
+    private final AtomicLong cancelledTotal;
+    private final AtomicLong expiredTotal;
+    private final AtomicLong deadTotal;
+    private final AtomicLong flaggedTotal;
+    private volatile long lastTickMillis;
+    private volatile int lastTickPairs;
+
+    public interface PairingHandler {
+        // first is the longer-waiting ticket and plays X; if this throws, both tickets are requeued
+        void onPaired(Ticket first, Ticket second);
+        
+        // Ticket waited longer than the timeout without being paired
+        default void onExpired(Ticket ticket) {}
+    }
+
+    public interface LivenessCheck {
+        boolean isAlive(Ticket ticket);
+    }
+
+    public interface ConnectionQuality {
+        ConnectionQuality NONE = new ConnectionQuality() {
+            @Override public double rttMillis(String sessionId) { return -1; }
+            @Override public boolean isPoor(String sessionId) { return false; }
+        };
+
+        // Smoothed round trip time, negative when not yet measured
+        double rttMillis(String sessionId);
+
+        boolean isPoor(String sessionId);
+    }
+
+    // Queue ticket for one waiting player
+    public static class Ticket {
+        static final int QUEUED = 0;
+        static final int PAIRED = 1;
+        static final int CANCELLED = 2;
+        static final int EXPIRED = 3;
+        // Held by the matchmaking thread while it claims the opponent
+        static final int CLAIMING = 4;
+
+        public final String sessionId;
+        public final String playerName;
+        public final double rating;
+        public final long enqueuedNanos;
+        private final AtomicInteger state = new AtomicInteger(QUEUED);
+        // Refreshed by the matchmaking thread each pass
+        double rttMillis = -1;
+        boolean poorConnection;
+        boolean flagged;
+
+        public Ticket(String sessionId, String playerName, double rating) {
+            this(sessionId, playerName, rating, System.nanoTime());
+        }
+
+        private Ticket(String sessionId, String playerName, double rating, long enqueuedNanos) {
+            this.sessionId = sessionId;
+            this.playerName = playerName;
+            this.rating = rating;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+
+        boolean isQueued() {
+            return state.get() == QUEUED;
+        }
+
+        boolean transition(int from, int to) {
+            return state.compareAndSet(from, to);
+        }
+
+        // Waits out a transient CLAIMING state, which always resolves to QUEUED or PAIRED
+        boolean transitionFromQueued(int to) {
+            while (true) {
+                if (state.compareAndSet(QUEUED, to)) return true;
+                if (state.get() != CLAIMING) return false;
+                Thread.onSpinWait();
+            }
+        }
+
+        double window(long nowNanos) {
+            double waitedSeconds = (nowNanos - enqueuedNanos) / 1_000_000_000.0;
+            return Math.min(MAX_WINDOW, BASE_WINDOW + WINDOW_GROWTH_PER_SECOND * waitedSeconds);
+        }
+    }
+
+    public MatchmakingQueue(PairingHandler pairingHandler) {
+        this(pairingHandler, ticket -> true, DEFAULT_TICKET_TIMEOUT_MILLIS);
+    }
+
+    public MatchmakingQueue(PairingHandler pairingHandler, LivenessCheck livenessCheck, long ticketTimeoutMillis) {
+        this(pairingHandler, livenessCheck, ticketTimeoutMillis, ConnectionQuality.NONE);
+    }
+
+    public MatchmakingQueue(PairingHandler pairingHandler, LivenessCheck livenessCheck, long ticketTimeoutMillis,
+                            ConnectionQuality connectionQuality) {
+        this.pairingHandler = pairingHandler;
+        this.connectionQuality = connectionQuality;
+        this.livenessCheck = livenessCheck;
+        this.ticketTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(ticketTimeoutMillis);
+        this.inbox = new ConcurrentLinkedQueue<>();
+        this.queuedBySession = new ConcurrentHashMap<>();
+        this.bands = new TreeMap<>();
+        this.queueTimeMillis = new LatencyHistogram();
+        this.pairedTotal = new AtomicLong();
+        this.cancelledTotal = new AtomicLong();
+        this.expiredTotal = new AtomicLong();
+        this.deadTotal = new AtomicLong();
+        this.flaggedTotal = new AtomicLong();
+
+        // Passes never overlap, so the band structures stay confined to one pass at a time
+        this.matchTick = TimerService.getInstance().scheduleAtFixedRate("matchmaking", this::runMatchmakingPass,
+            TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        log.info("MatchmakingQueue initialized", "band", BAND_WIDTH, "tickMs", TICK_MILLIS);
+    }
+
+    /**
+     * Queue a player; returns false if the session already has a ticket
+     */
+    public boolean enqueue(String sessionId, String playerName, double rating) {
+        Ticket ticket = new Ticket(sessionId, playerName, rating);
+        if (queuedBySession.putIfAbsent(sessionId, ticket) != null) {
+            return false;
+        }
+        inbox.add(ticket);
+        return true;
+    }
+
+    /**
+     * Put a paired ticket back in the queue, keeping its original wait (and so its widened window and
+     * its timeout), e.g. when the opponent vanished before the match could start. Returns false if
+     * the session has queued again meanwhile.
+     */
+    public boolean requeue(Ticket ticket) {
+        Ticket fresh = new Ticket(ticket.sessionId, ticket.playerName, ticket.rating, ticket.enqueuedNanos);
+        if (queuedBySession.putIfAbsent(ticket.sessionId, fresh) != null) {
+            return false;
+        }
+        inbox.add(fresh);
+        return true;
+    }
+
+    /**
+     * Withdraw a session's ticket; returns false if it was not queued or was already paired
+     */
+    public boolean cancel(String sessionId) {
+        Ticket ticket = queuedBySession.get(sessionId);
+        if (ticket == null || !ticket.transitionFromQueued(Ticket.CANCELLED)) {
+            return false;
+        }
+        queuedBySession.remove(sessionId, ticket);
+        cancelledTotal.incrementAndGet();
+        return true;
+    }
+
+    public boolean isQueued(String sessionId) {
+        return queuedBySession.containsKey(sessionId);
+    }
+
+    public int size() {
+        return queuedBySession.size();
+    }
+
+    // Batch pass: drain new tickets into their bands, retire stale tickets, then pair oldest tickets first
+    private void runMatchmakingPass() {
+        long start = System.nanoTime();
+        int pairs = 0;
+
+        try {
+            Ticket incoming;
+            while ((incoming = inbox.poll()) != null) {
+                bands.computeIfAbsent(band(incoming.rating), k -> new ArrayList<>()).add(incoming);
+            }
+
+            long now = System.nanoTime();
+            List<Ticket> byAge = new ArrayList<>(queuedBySession.size());
+            for (List<Ticket> band : bands.values()) {
+                for (Ticket ticket : band) {
+                    if (!ticket.isQueued()) continue;
+
+                    if (now - ticket.enqueuedNanos > ticketTimeoutNanos) {
+                        retire(ticket, Ticket.EXPIRED);
+                    } else {
+                        refreshConnectionQuality(ticket);
+                        byAge.add(ticket);
+                    }
+                }
+            }
+
+            if (byAge.size() >= 2) {
+                byAge.sort((a, b) -> Long.compare(a.enqueuedNanos, b.enqueuedNanos));
+
+                for (Ticket ticket : byAge) {
+                    if (!ticket.isQueued()) continue;
+
+                    Ticket opponent = findOpponent(ticket, now);
+                    if (opponent == null) continue;
+
+                    // Liveness is only checked once a candidate pair exists
+                    if (!isAlive(ticket)) {
+                        retire(ticket, Ticket.CANCELLED);
+                        continue;
+                    }
+                    while (opponent != null && !isAlive(opponent)) {
+                        retire(opponent, Ticket.CANCELLED);
+                        opponent = findOpponent(ticket, now);
+                    }
+
+                    if (opponent != null && claimPair(ticket, opponent)) {
+                        completePair(ticket, opponent, now);
+                        pairs++;
+                    }
+                }
+            }
+
+            // Drop everything that is no longer queued (paired, cancelled, expired)
+            for (Iterator<List<Ticket>> it = bands.values().iterator(); it.hasNext(); ) {
+                List<Ticket> band = it.next();
+                band.removeIf(t -> !t.isQueued());
+                if (band.isEmpty()) it.remove();
+            }
+        } catch (Exception e) {
+            log.error("Matchmaking pass failed", e);
+        } finally {
+            lastTickMillis = (System.nanoTime() - start) / 1_000_000;
+            lastTickPairs = pairs;
+        }
+    }
+
+    private void refreshConnectionQuality(Ticket ticket) {
+        ticket.rttMillis = connectionQuality.rttMillis(ticket.sessionId);
+        ticket.poorConnection = connectionQuality.isPoor(ticket.sessionId);
+        if (ticket.poorConnection && !ticket.flagged) {
+            ticket.flagged = true;
+            flaggedTotal.incrementAndGet();
+            log.info("Flagged poor connection in matchmaking", "sessionId", ticket.sessionId,
+                "rttMs", Math.round(ticket.rttMillis));
+        }
+    }
+
+    // Laggy sessions are held back and only matched with each other until the holdoff passes
+    private static boolean compatibleConnections(Ticket ticket, Ticket candidate, long now) {
+        if (ticket.poorConnection == candidate.poorConnection) {
+            return true;
+        }
+        Ticket poor = ticket.poorConnection ? ticket : candidate;
+        return now - poor.enqueuedNanos >= POOR_CONNECTION_HOLDOFF_NANOS;
+    }
+
+    // Both tickets must still be queued; a concurrent cancel on either side wins.
+    // first is held in CLAIMING rather than PAIRED so a cancel racing a failed
+    // claim on second waits for the rollback instead of reporting "already paired"
+    private boolean claimPair(Ticket first, Ticket second) {
+        if (!second.isQueued() || !first.transition(Ticket.QUEUED, Ticket.CLAIMING)) {
+            return false;
+        }
+        if (!second.transition(Ticket.QUEUED, Ticket.PAIRED)) {
+            first.transition(Ticket.CLAIMING, Ticket.QUEUED);
+            return false;
+        }
+        first.transition(Ticket.CLAIMING, Ticket.PAIRED);
+        return true;
+    }
+
+    private boolean isAlive(Ticket ticket) {
+        try {
+            return livenessCheck.isAlive(ticket);
+        } catch (Exception e) {
+            log.warn("Liveness check failed", "sessionId", ticket.sessionId, "error", e.getMessage());
+            return false;
+        }
+    }
+
+    private void retire(Ticket ticket, int newState) {
+        if (!ticket.transition(Ticket.QUEUED, newState)) {
+            return;
+        }
+        queuedBySession.remove(ticket.sessionId, ticket);
+
+        if (newState == Ticket.EXPIRED) {
+            expiredTotal.incrementAndGet();
+            try {
+                pairingHandler.onExpired(ticket);
+            } catch (Exception e) {
+                log.warn("Expiry handler failed", "sessionId", ticket.sessionId, "error", e.getMessage());
+            }
+        } else {
+            deadTotal.incrementAndGet();
+            log.debug("Dropped ticket for disconnected session", "sessionId", ticket.sessionId);
+        }
+    }
+
+    // Best unpaired ticket inside the searching ticket's rating window, preferring similar latency
+    private Ticket findOpponent(Ticket ticket, long now) {
+        double window = ticket.window(now);
+        int lowBand = band(ticket.rating - window);
+        int highBand = band(ticket.rating + window);
+
+        Ticket best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (List<Ticket> band : bands.subMap(lowBand, true, highBand, true).values()) {
+            for (Ticket candidate : band) {
+                if (candidate == ticket || !candidate.isQueued()) continue;
+                double gap = Math.abs(candidate.rating - ticket.rating);
+                if (gap > window || !compatibleConnections(ticket, candidate, now)) continue;
+
+                double score = gap;
+                if (ticket.rttMillis >= 0 && candidate.rttMillis >= 0) {
+                    score += LATENCY_WEIGHT * Math.abs(candidate.rttMillis - ticket.rttMillis);
+                }
+                if (score < bestScore) {
+                    best = candidate;
+                    bestScore = score;
+                }
+            }
+        }
+        return best;
+    }
+
+    private void completePair(Ticket first, Ticket second, long now) {
+        queuedBySession.remove(first.sessionId, first);
+        queuedBySession.remove(second.sessionId, second);
+        queueTimeMillis.record((now - first.enqueuedNanos) / 1_000_000);
+        queueTimeMillis.record((now - second.enqueuedNanos) / 1_000_000);
+        pairedTotal.incrementAndGet();
+
+        try {
+            pairingHandler.onPaired(first, second);
+        } catch (Exception e) {
+            // No match was started; neither player should be left paired with nothing
+            log.warn("Pairing handler failed, requeueing both tickets", "error", e.getMessage());
+            pairedTotal.decrementAndGet();
+            requeue(first);
+            requeue(second);
+        }
+    }
+
+    private static int band(double rating) {
+        return (int) Math.floor(rating / BAND_WIDTH);
+    }
+
+    public long getQueueTimePercentile(double percentile) {
+        return queueTimeMillis.percentile(percentile);
+    }
+
+    public long getPairedTotal() {
+        return pairedTotal.get();
+    }
+
+    public long getCancelledTotal() {
+        return cancelledTotal.get();
+    }
+
+    public long getExpiredTotal() {
+        return expiredTotal.get();
+    }
+
+    public long getDeadTotal() {
+        return deadTotal.get();
+    }
+
+    public long getFlaggedTotal() {
+        return flaggedTotal.get();
+    }
+
+    public long getLastTickMillis() {
+        return lastTickMillis;
+    }
+
+    public int getLastTickPairs() {
+        return lastTickPairs;
+    }
+
+    public void shutdown() {
+        matchTick.cancel();
+    }
+}
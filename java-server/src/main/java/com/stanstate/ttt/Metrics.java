@@ -0,0 +1,207 @@
+package com.stanstate.ttt;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Process-wide metrics registry rendered in the Prometheus text exposition format at /metrics
+ * Counters are LongAdders and histograms are LatencyHistograms, so recording is a striped add
+ * with no lock. Gauges are read from callbacks at scrape time, so they cost nothing in between.
+ * Look a metric up once and keep the reference on hot paths; lookups hash the name and labels.
+ *
+ * Labels are passed as alternating name/value strings: counter("ttt_moves_total", "help", "result", "accepted")
+ */
+public final class Metrics {
+    // Histogram bucket bounds in seconds; values are recorded in microseconds
+    private static final double[] BUCKETS_SECONDS = {
+        0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+    private static final String[] BUCKET_LABELS = new String[BUCKETS_SECONDS.length];
+    static {
+        for (int i = 0; i < BUCKETS_SECONDS.length; i++) {
+            BUCKET_LABELS[i] = "le=\"" + BigDecimal.valueOf(BUCKETS_SECONDS[i]).stripTrailingZeros().toPlainString() + "\"}";
+        }
+    }
+
+    private enum Type { COUNTER, GAUGE, HISTOGRAM }
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final Type type;
+        final Map<String, Object> series = new ConcurrentHashMap<>();  // rendered labels -> metric
+
+        Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * Latency histogram; record in microseconds, exported in seconds
+     */
+    public static final class Timer {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        public void recordMicros(long micros) {
+            histogram.record(micros);
+        }
+
+        public void recordSince(long startNanos) {
+            histogram.record((System.nanoTime() - startNanos) / 1_000);
+        }
+
+        public LatencyHistogram histogram() {
+            return histogram;
+        }
+    }
+
+    private static final Map<String, Family> families = new ConcurrentHashMap<>();
+    private static final List<String> order = new ArrayList<>();  // registration order, guarded by itself
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, Type.COUNTER).series.computeIfAbsent(labels(labels), key -> new Counter());
+    }
+
+    public static Timer timer(String name, String help, String... labels) {
+        return (Timer) family(name, help, Type.HISTOGRAM).series.computeIfAbsent(labels(labels), key -> new Timer());
+    }
+
+    /**
+     * Register (or replace) a gauge read at scrape time
+     */
+    public static void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, Type.GAUGE).series.put(labels(labels), value);
+    }
+
+    private static Family family(String name, String help, Type type) {
+        Family family = families.get(name);
+        if (family == null) {
+            synchronized (order) {
+                family = families.get(name);
+                if (family == null) {
+                    family = new Family(name, help, type);
+                    families.put(name, family);
+                    order.add(name);
+                }
+            }
+        }
+        if (family.type != type) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    // {a="1",b="2"} with values escaped per the exposition format
+    private static String labels(String... labels) {
+        if (labels.length == 0) return "";
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        StringBuilder text = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) text.append(',');
+            text.append(labels[i]).append("=\"");
+            String value = labels[i + 1] == null ? "" : labels[i + 1];
+            for (int c = 0; c < value.length(); c++) {
+                char ch = value.charAt(c);
+                if (ch == '\\' || ch == '"') text.append('\\');
+                if (ch == '\n') {
+                    text.append("\\n");
+                } else {
+                    text.append(ch);
+                }
+            }
+            text.append('"');
+        }
+        return text.append('}').toString();
+    }
+
+    public static String render() {
+        List<String> names;
+        synchronized (order) {
+            names = new ArrayList<>(order);
+        }
+        StringBuilder out = new StringBuilder(8192);
+        for (String name : names) {
+            Family family = families.get(name);
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type.name().toLowerCase(java.util.Locale.ROOT)).append('\n');
+            for (Map.Entry<String, Object> entry : family.series.entrySet()) {
+                String labels = entry.getKey();
+                switch (family.type) {
+                    case COUNTER:
+                        sample(out, name, labels, ((Counter) entry.getValue()).get());
+                        break;
+                    case GAUGE:
+                        double value;
+                        try {
+                            value = ((DoubleSupplier) entry.getValue()).getAsDouble();
+                        } catch (RuntimeException e) {
+                            value = Double.NaN;
+                        }
+                        sample(out, name, labels, value);
+                        break;
+                    case HISTOGRAM:
+                        renderHistogram(out, name, labels, ((Timer) entry.getValue()).histogram);
+                        break;
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    // Cumulative buckets from the log-linear histogram; a bucket bound is exact to its ~6% precision
+    private static void renderHistogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        long count = histogram.count();
+        String prefix = labels.isEmpty() ? "{" : labels.substring(0, labels.length() - 1) + ",";
+        for (int i = 0; i < BUCKETS_SECONDS.length; i++) {
+            long atOrBelow = histogram.countAtOrBelow((long) (BUCKETS_SECONDS[i] * 1_000_000));
+            sample(out, name + "_bucket", prefix + BUCKET_LABELS[i], Math.min(atOrBelow, count));
+        }
+        sample(out, name + "_bucket", prefix + "le=\"+Inf\"}", count);
+        sample(out, name + "_sum", labels, histogram.sum() / 1e6);
+        sample(out, name + "_count", labels, count);
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append(labels).append(' ');
+        if (Double.isNaN(value)) {
+            out.append("NaN");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+}
@@ -0,0 +1,261 @@
+package com.stanstate.ttt;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-connection outbound budget for WebSocket sends
+ * Java-WebSocket queues outgoing frames on the heap without limit, so a client that stops
+ * reading would grow its queue forever. Under budget, sends go straight out. Over budget,
+ * superseded messages (state snapshots, deltas) are held back and only the latest
+ * per key goes out once the socket drains. A connection that stays over budget, or reaches the
+ * hard limit, is disconnected as a slow consumer.
+ */
+public class OutboundBudget {
+    private static final Log log = Log.get("ws");
+    static final long MAX_BUFFERED_BYTES = Long.getLong("ttt.ws.maxBufferedBytes", 256 * 1024);
+    static final int MAX_BUFFERED_FRAMES = Integer.getInteger("ttt.ws.maxBufferedFrames", 512);
+    static final int HARD_LIMIT_FACTOR = 4;
+    static final long SLOW_CONSUMER_MILLIS = Long.getLong("ttt.ws.slowConsumerMillis", 15_000);
+    private static final long FLUSH_INTERVAL_MILLIS = 100;
+    private static final int BYTES_SAMPLE_FRAMES = 32;
+
+    public enum Outcome { SENT, DEFERRED, DISCONNECTED, CLOSED }
+
+    private static OutboundBudget instance;
+    private final Set<WebSocket> backlogged;
+    private final TimerService.Timeout flusher;
+    private final LongAdder coalescedTotal = new LongAdder();
+    private final LongAdder deferredTotal = new LongAdder();
+    private final LongAdder slowConsumerDisconnects = new LongAdder();
+
+    private OutboundBudget() {
+        this.backlogged = ConcurrentHashMap.newKeySet();
+        this.flusher = TimerService.getInstance().scheduleWithFixedDelay("ws-outbound-flush", this::flushBacklogged,
+            FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized OutboundBudget getInstance() {
+        if (instance == null) {
+            instance = new OutboundBudget();
+        }
+        return instance;
+    }
+
+    public Outcome send(WebSocket conn, String text, String supersedeKey) {
+        return sendPayload(conn, text, supersedeKey);
+    }
+
+    public Outcome send(WebSocket conn, ByteBuffer frame, String supersedeKey) {
+        return sendPayload(conn, frame, supersedeKey);
+    }
+
+    // Prebuilt frame, e.g. a payload encoded once and shared by many connections
+    public Outcome send(WebSocket conn, Framedata frame, String supersedeKey) {
+        return sendPayload(conn, frame, supersedeKey);
+    }
+
+    /**
+     * Messages with the same key replace each other while the connection is over budget
+     * Deltas may be dropped too: the client sees the seq gap and resyncs.
+     */
+    public static String supersedeKey(JsonObject message) {
+        String key = ReplayBuffer.collapseKey(message);
+        if (key != null || !message.has("t")) {
+            return key;
+        }
+        switch (message.get("t").getAsString()) {
+            case "delta":
+                return "delta:" + (message.has("matchId") ? message.get("matchId").getAsString() : "");
+            default:
+                return null;
+        }
+    }
+
+    private Outcome sendPayload(WebSocket conn, Object payload, String supersedeKey) {
+        if (conn == null || !conn.isOpen()) {
+            return Outcome.CLOSED;
+        }
+        ConnectionContext context = ConnectionContext.of(conn);
+
+        synchronized (context) {
+            if (context.slowConsumer) {
+                return Outcome.CLOSED;
+            }
+            long bytes = bufferedBytes(conn);
+            int frames = bufferedFrames(conn);
+            context.recordBuffered(bytes);
+
+            if (bytes <= MAX_BUFFERED_BYTES && frames <= MAX_BUFFERED_FRAMES) {
+                context.overBudgetSince = 0;
+                flushDeferred(conn, context);
+                write(conn, payload);
+                return Outcome.SENT;
+            }
+
+            if (context.overBudgetSince == 0) {
+                context.overBudgetSince = System.currentTimeMillis();
+            }
+            backlogged.add(conn);
+
+            if (bytes > MAX_BUFFERED_BYTES * HARD_LIMIT_FACTOR || frames > MAX_BUFFERED_FRAMES * HARD_LIMIT_FACTOR) {
+                disconnect(conn, context, "buffer hard limit (" + bytes + " bytes, " + frames + " frames)");
+                return Outcome.DISCONNECTED;
+            }
+
+            if (supersedeKey != null) {
+                // Keep only the latest per key, ordered by when it was last replaced
+                if (context.deferred.remove(supersedeKey) != null) {
+                    context.coalesced++;
+                    coalescedTotal.increment();
+                }
+                context.deferred.put(supersedeKey, payload);
+                deferredTotal.increment();
+                return Outcome.DEFERRED;
+            }
+
+            // Replies and one-off notifications can't be recovered; the hard limit bounds them
+            write(conn, payload);
+            return Outcome.SENT;
+        }
+    }
+
+    private void flushBacklogged() {
+        long now = System.currentTimeMillis();
+        for (Iterator<WebSocket> it = backlogged.iterator(); it.hasNext(); ) {
+            WebSocket conn = it.next();
+            ConnectionContext context = conn.getAttachment();
+            if (context == null || !conn.isOpen()) {
+                it.remove();
+                if (context != null) {
+                    synchronized (context) {
+                        context.deferred.clear();
+                    }
+                }
+                continue;
+            }
+
+            try {
+                synchronized (context) {
+                    long bytes = bufferedBytes(conn);
+                    context.recordBuffered(bytes);
+                    if (bytes <= MAX_BUFFERED_BYTES && bufferedFrames(conn) <= MAX_BUFFERED_FRAMES) {
+                        context.overBudgetSince = 0;
+                        flushDeferred(conn, context);
+                        it.remove();
+                    } else if (context.overBudgetSince != 0 && now - context.overBudgetSince > SLOW_CONSUMER_MILLIS) {
+                        disconnect(conn, context, "over budget for " + (now - context.overBudgetSince) + "ms");
+                        it.remove();
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("Outbound flush failed", "remote", context.remoteAddress, "error", e.getMessage());
+            }
+        }
+    }
+
+    // Caller holds the context monitor
+    private static void flushDeferred(WebSocket conn, ConnectionContext context) {
+        if (context.deferred.isEmpty()) return;
+        for (Object payload : context.deferred.values()) {
+            write(conn, payload);
+        }
+        context.deferred.clear();
+    }
+
+    private void disconnect(WebSocket conn, ConnectionContext context, String reason) {
+        slowConsumerDisconnects.increment();
+        context.slowConsumer = true;
+        context.deferred.clear();
+        log.warn("Disconnecting slow consumer", "remote", context.remoteAddress, "sessionId", context.getSessionId(),
+            "reason", reason);
+        // No close handshake: the peer isn't reading, so it would never complete
+        conn.closeConnection(CloseFrame.POLICY_VALIDATION, "Slow consumer");
+    }
+
+    private static void write(WebSocket conn, Object payload) {
+        if (payload instanceof ByteBuffer) {
+            conn.send((ByteBuffer) payload);
+        } else if (payload instanceof Framedata) {
+            conn.sendFrame((Framedata) payload);
+        } else {
+            conn.send((String) payload);
+        }
+    }
+
+    /**
+     * Bytes queued on the socket. Walks at most BYTES_SAMPLE_FRAMES frames from the head and scales
+     * by the frame count, so a send costs the same however far behind a slow consumer is; the library
+     * gives no hook when a frame leaves the queue, so an exact running count isn't possible.
+     */
+    public static long bufferedBytes(WebSocket conn) {
+        if (!(conn instanceof WebSocketImpl)) return 0;
+        BlockingQueue<ByteBuffer> queue = ((WebSocketImpl) conn).outQueue;
+        int frames = queue.size();
+        if (frames == 0) return 0;
+        long sampled = 0;
+        int seen = 0;
+        for (ByteBuffer frame : queue) {
+            sampled += frame.remaining();
+            if (++seen == BYTES_SAMPLE_FRAMES) break;
+        }
+        return seen == 0 || seen >= frames ? sampled : sampled * frames / seen;
+    }
+
+    public static int bufferedFrames(WebSocket conn) {
+        return conn instanceof WebSocketImpl ? ((WebSocketImpl) conn).outQueue.size() : 0;
+    }
+
+    /**
+     * Buffered bytes and backpressure counters per registered session
+     */
+    public JsonObject snapshot(Map<String, WebSocket> connections) {
+        JsonObject stats = new JsonObject();
+        JsonArray perConnection = new JsonArray();
+        long totalBytes = 0;
+
+        for (Map.Entry<String, WebSocket> entry : connections.entrySet()) {
+            WebSocket conn = entry.getValue();
+            ConnectionContext context = conn.getAttachment();
+            long bytes = bufferedBytes(conn);
+            totalBytes += bytes;
+
+            JsonObject item = new JsonObject();
+            item.addProperty("sessionId", entry.getKey());
+            item.addProperty("bufferedBytes", bytes);
+            item.addProperty("bufferedFrames", bufferedFrames(conn));
+            if (context != null) {
+                synchronized (context) {
+                    item.addProperty("deferred", context.deferred.size());
+                    item.addProperty("coalesced", context.coalesced);
+                    item.addProperty("peakBufferedBytes", context.peakBufferedBytes);
+                    item.addProperty("overBudgetMillis", context.overBudgetSince == 0 ? 0 : System.currentTimeMillis() - context.overBudgetSince);
+                }
+            }
+            perConnection.add(item);
+        }
+
+        stats.addProperty("success", true);
+        stats.addProperty("maxBufferedBytes", MAX_BUFFERED_BYTES);
+        stats.addProperty("maxBufferedFrames", MAX_BUFFERED_FRAMES);
+        stats.addProperty("totalBufferedBytes", totalBytes);
+        stats.addProperty("backloggedConnections", backlogged.size());
+        stats.addProperty("deferredTotal", deferredTotal.sum());
+        stats.addProperty("coalescedTotal", coalescedTotal.sum());
+        stats.addProperty("slowConsumerDisconnects", slowConsumerDisconnects.sum());
+        stats.add("connections", perConnection);
+        return stats;
+    }
+}
@@ -0,0 +1,189 @@
+package com.stanstate.ttt;
+
+import com.google.gson.JsonObject;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Token buckets per client, checked before any parsing or database work
+ * Each operation class has a bucket per session (or per remote address when the request names
+ * no session), and every remote address also has one bucket across all classes, so a client
+ * can't dodge its limit by rotating session ids. Buckets live in fixed, striped tables of
+ * AtomicLongs indexed by key hash: a check is one CAS with no lock, no allocation and no map
+ * that an attacker could grow. Two keys hashing to the same slot share a bucket; with the
+ * default table size that is rare and only ever errs toward throttling.
+ *
+ * Each slot holds the bucket as a GCRA "theoretical arrival time": a request is allowed while
+ * that time is no more than burst - 1 intervals ahead of now, and moves it one interval on.
+ *
+ * Configuration (system properties; rate in requests/second):
+ *   ttt.ratelimit.move.rate=10       ttt.ratelimit.move.burst=20
+ *   (also .state, .lobby, .stats, .message and .address)
+ *   ttt.ratelimit.slots=16384        slots per table
+ *   ttt.ratelimit.enabled=true
+ */
+public final class RateLimiter {
+    /**
+     * Operation classes with their default rate and burst per session
+     */
+    public enum OperationClass {
+        MOVE(10, 20),       // moves
+        STATE(20, 40),      // game-state polls, spectating, batches
+        LOBBY(5, 10),       // match browser, join, create, leave
+        STATS(2, 5),        // player and server statistics
+        MESSAGE(50, 100);   // any WebSocket frame, checked before it is decoded
+
+        final double defaultRate;
+        final int defaultBurst;
+        final String label = name().toLowerCase(Locale.ROOT);
+
+        OperationClass(double defaultRate, int defaultBurst) {
+            this.defaultRate = defaultRate;
+            this.defaultBurst = defaultBurst;
+        }
+    }
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("ttt.ratelimit.enabled", "true"));
+    private static final long EPOCH = System.nanoTime() - 1;  // keeps now() positive so an empty slot (0) is full
+
+    private static RateLimiter instance;
+
+    private final Table[] sessionTables;
+    private final Table addressTable;
+    private final Metrics.Counter[][] violations;  // [class][0 = session, 1 = address]
+
+    // One striped table of buckets sharing a rate and burst
+    private static final class Table {
+        final AtomicLongArray slots;
+        final int mask;
+        final long intervalNanos;
+        final long toleranceNanos;
+        final double rate;
+        final int burst;
+
+        Table(int size, double rate, int burst) {
+            this.slots = new AtomicLongArray(size);
+            this.mask = size - 1;
+            this.rate = rate;
+            this.burst = Math.max(1, burst);
+            this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+            this.toleranceNanos = intervalNanos * (this.burst - 1);
+        }
+
+        boolean tryAcquire(int keyHash, long now) {
+            int index = spread(keyHash) & mask;
+            while (true) {
+                long stored = slots.get(index);
+                long arrival = Math.max(stored, now);
+                if (arrival - now > toleranceNanos) {
+                    return false;
+                }
+                if (slots.compareAndSet(index, stored, arrival + intervalNanos)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    RateLimiter(int slotsPerTable) {
+        int size = Integer.highestOneBit(Math.max(2, slotsPerTable - 1)) << 1;
+        OperationClass[] classes = OperationClass.values();
+        this.sessionTables = new Table[classes.length];
+        this.violations = new Metrics.Counter[classes.length][2];
+        for (OperationClass operation : classes) {
+            int i = operation.ordinal();
+            sessionTables[i] = new Table(size, rate(operation.label, operation.defaultRate),
+                Integer.getInteger("ttt.ratelimit." + operation.label + ".burst", operation.defaultBurst));
+            violations[i][0] = Metrics.counter("ttt_rate_limited_total", "Requests refused by the rate limiter",
+                "class", operation.label, "key", "session");
+            violations[i][1] = Metrics.counter("ttt_rate_limited_total", "Requests refused by the rate limiter",
+                "class", operation.label, "key", "address");
+        }
+        // Generous: players behind one NAT or proxy share an address
+        this.addressTable = new Table(size, rate("address", 200), Integer.getInteger("ttt.ratelimit.address.burst", 400));
+    }
+
+    public static synchronized RateLimiter getInstance() {
+        if (instance == null) {
+            instance = new RateLimiter(Integer.getInteger("ttt.ratelimit.slots", 16_384));
+        }
+        return instance;
+    }
+
+    private static double rate(String name, double defaultRate) {
+        String value = System.getProperty("ttt.ratelimit." + name + ".rate");
+        return value != null ? Double.parseDouble(value) : defaultRate;
+    }
+
+    /**
+     * Take one token from the session's bucket for this class and one from the address bucket;
+     * sessionHash is the session id's String.hashCode(), or the address hash when there is none
+     */
+    public boolean tryAcquire(OperationClass operation, int sessionHash, int addressHash) {
+        if (!ENABLED) return true;
+        long now = System.nanoTime() - EPOCH;
+        int i = operation.ordinal();
+        if (!sessionTables[i].tryAcquire(sessionHash, now)) {
+            violations[i][0].increment();
+            return false;
+        }
+        if (!addressTable.tryAcquire(addressHash, now)) {
+            violations[i][1].increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Session bucket only, for a second class check on input whose address was already charged
+     */
+    public boolean tryAcquire(OperationClass operation, int sessionHash) {
+        if (!ENABLED) return true;
+        int i = operation.ordinal();
+        if (sessionTables[i].tryAcquire(sessionHash, System.nanoTime() - EPOCH)) {
+            return true;
+        }
+        violations[i][0].increment();
+        return false;
+    }
+
+    // Hash codes of similar ids differ in low bits only; mix so they spread over the table
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Same value as s.substring(start).hashCode(), without the substring
+     */
+    static int hashFrom(String s, int start) {
+        int h = 0;
+        for (int i = start; i < s.length(); i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h;
+    }
+
+    public JsonObject snapshot() {
+        JsonObject stats = new JsonObject();
+        stats.addProperty("success", true);
+        stats.addProperty("enabled", ENABLED);
+        JsonObject classes = new JsonObject();
+        for (OperationClass operation : OperationClass.values()) {
+            int i = operation.ordinal();
+            JsonObject entry = new JsonObject();
+            entry.addProperty("rate", sessionTables[i].rate);
+            entry.addProperty("burst", sessionTables[i].burst);
+            entry.addProperty("limitedBySession", violations[i][0].get());
+            entry.addProperty("limitedByAddress", violations[i][1].get());
+            classes.add(operation.label, entry);
+        }
+        stats.add("classes", classes);
+        JsonObject address = new JsonObject();
+        address.addProperty("rate", addressTable.rate);
+        address.addProperty("burst", addressTable.burst);
+        stats.add("address", address);
+        return stats;
+    }
+}
@@ -0,0 +1,258 @@
+package com.stanstate.ttt;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * In-memory outbound log per session so a reconnecting client resumes from its last seen message
+ * Every buffered message is stamped with a per-session "sseq"; the client echoes the highest one
+ * back as "lastSeq" when it re-registers and gets everything after it in a single replay frame.
+ *
+ * State snapshots for the same match (and repeated waiting / match_start notices) supersede each
+ * other on append, so a client that was away for many moves only gets the latest snapshot.
+ */
+public class ReplayBuffer {
+    public static final int DEFAULT_CAPACITY = 64;
+    public static final long DEFAULT_RETENTION_MILLIS = 5 * 60_000;
+
+    private final ConcurrentHashMap<String, SessionLog> logs;
+    private final int capacity;
+    private final long retentionMillis;
+    private final AtomicLong buffered = new AtomicLong();  // entries across all sessions
+
+    private static final class Entry {
+        final long seq;
+        final String collapseKey;
+        final JsonObject message;
+        final long appendedAt;
+
+        Entry(long seq, String collapseKey, JsonObject message, long appendedAt) {
+            this.seq = seq;
+            this.collapseKey = collapseKey;
+            this.message = message;
+            this.appendedAt = appendedAt;
+        }
+    }
+
+    // Guarded by its own monitor
+    private static final class SessionLog {
+        final ArrayDeque<Entry> entries = new ArrayDeque<>();
+        long lastSeq = 0;
+        long evictedThrough = 0;   // highest seq dropped for capacity (not superseded)
+        long deliveredThrough = 0; // highest seq handed to a socket
+        long lastActivity = System.currentTimeMillis();
+        boolean dropped;           // removed from the map; an append racing the removal isn't counted
+    }
+
+    // Result of a resume request
+    public static class Replay {
+        public final List<JsonObject> messages;
+        public final long seq;
+        public final boolean complete;   // false when messages after lastSeq were evicted
+
+        Replay(List<JsonObject> messages, long seq, boolean complete) {
+            this.messages = messages;
+            this.seq = seq;
+            this.complete = complete;
+        }
+
+        public JsonObject toFrame() {
+            JsonObject frame = new JsonObject();
+            frame.addProperty("t", "replay");
+            frame.addProperty("seq", seq);
+            frame.addProperty("complete", complete);
+            JsonArray array = new JsonArray();
+            for (JsonObject message : messages) {
+                array.add(message);
+            }
+            frame.add("messages", array);
+            return frame;
+        }
+    }
+
+    public ReplayBuffer() {
+        this(DEFAULT_CAPACITY, DEFAULT_RETENTION_MILLIS);
+    }
+
+    public ReplayBuffer(int capacity, long retentionMillis) {
+        this.logs = new ConcurrentHashMap<>();
+        this.capacity = capacity;
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * Buffer a copy of the message stamped with the next session sequence number; returns the copy
+     */
+    public JsonObject append(String sessionId, JsonObject message) {
+        SessionLog log = logs.computeIfAbsent(sessionId, k -> new SessionLog());
+        JsonObject stamped = message.deepCopy();
+        String key = collapseKey(message);
+
+        synchronized (log) {
+            long seq = ++log.lastSeq;
+            stamped.addProperty("sseq", seq);
+            int before = log.entries.size();
+            if (key != null) {
+                log.entries.removeIf(entry -> key.equals(entry.collapseKey));
+            }
+            long now = System.currentTimeMillis();
+            log.entries.addLast(new Entry(seq, key, stamped, now));
+            while (log.entries.size() > capacity) {
+                log.evictedThrough = log.entries.removeFirst().seq;
+            }
+            if (!log.dropped) {
+                buffered.addAndGet(log.entries.size() - before);
+            }
+            log.lastActivity = now;
+        }
+        return stamped;
+    }
+
+    /**
+     * Everything buffered after lastSeq, oldest first; lastSeq < 0 means the client has seen nothing
+     */
+    public Replay replaySince(String sessionId, long lastSeq) {
+        SessionLog log = logs.get(sessionId);
+        if (log == null) {
+            return new Replay(new ArrayList<>(), 0, lastSeq <= 0);
+        }
+
+        synchronized (log) {
+            log.lastActivity = System.currentTimeMillis();
+            List<JsonObject> messages = new ArrayList<>();
+            for (Entry entry : log.entries) {
+                if (entry.seq > lastSeq) {
+                    messages.add(entry.message);
+                }
+            }
+            return new Replay(messages, log.lastSeq, lastSeq >= log.evictedThrough);
+        }
+    }
+
+    /**
+     * Record that everything up to seq was handed to the session's socket
+     */
+    public void markDelivered(String sessionId, long seq) {
+        SessionLog log = logs.get(sessionId);
+        if (log == null) return;
+        synchronized (log) {
+            log.deliveredThrough = Math.max(log.deliveredThrough, seq);
+        }
+    }
+
+    /**
+     * Highest seq handed to a socket; where a client that sends no lastSeq resumes
+     */
+    public long deliveredThrough(String sessionId) {
+        SessionLog log = logs.get(sessionId);
+        if (log == null) return 0;
+        synchronized (log) {
+            return log.deliveredThrough;
+        }
+    }
+
+    /**
+     * Age of the oldest buffered message not yet handed to the socket of a session that is
+     * connected, i.e. one a live client is still waiting for; 0 when there is none. Walks every
+     * session, so it is meant for health checks, not hot paths.
+     */
+    public long oldestUndeliveredMillis(Predicate<String> connected) {
+        long oldest = Long.MAX_VALUE;
+        for (var entry : logs.entrySet()) {
+            if (!connected.test(entry.getKey())) continue;
+            SessionLog log = entry.getValue();
+            synchronized (log) {
+                // Entries are in seq order, so the first undelivered one is the oldest
+                for (Entry buffered : log.entries) {
+                    if (buffered.seq > log.deliveredThrough) {
+                        oldest = Math.min(oldest, buffered.appendedAt);
+                        break;
+                    }
+                }
+            }
+        }
+        return oldest == Long.MAX_VALUE ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+    }
+
+    public long lastSeq(String sessionId) {
+        SessionLog log = logs.get(sessionId);
+        if (log == null) return 0;
+        synchronized (log) {
+            return log.lastSeq;
+        }
+    }
+
+    /**
+     * Drop logs of sessions that have been idle past the retention window and aren't kept alive
+     */
+    public int prune(Predicate<String> keep) {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        int removed = 0;
+        for (var entry : logs.entrySet()) {
+            SessionLog log = entry.getValue();
+            boolean expired;
+            synchronized (log) {
+                expired = log.lastActivity < cutoff;
+            }
+            if (expired && !keep.test(entry.getKey()) && logs.remove(entry.getKey(), log)) {
+                dropped(log);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public void remove(String sessionId) {
+        SessionLog log = logs.remove(sessionId);
+        if (log != null) {
+            dropped(log);
+        }
+    }
+
+    private void dropped(SessionLog log) {
+        synchronized (log) {
+            log.dropped = true;
+            buffered.addAndGet(-log.entries.size());
+        }
+    }
+
+    /**
+     * Sessions with a log
+     */
+    public int size() {
+        return logs.size();
+    }
+
+    /**
+     * Messages buffered across all sessions
+     */
+    public long bufferedMessages() {
+        return buffered.get();
+    }
+
+    // Messages with the same key replace each other; null means always kept
+    static String collapseKey(JsonObject message) {
+        if (!message.has("t")) return null;
+        String matchId = message.has("matchId") ? message.get("matchId").getAsString()
+            : message.has("match_id") ? message.get("match_id").getAsString() : "";
+
+        switch (message.get("t").getAsString()) {
+            case "game_state":
+            case "game_update":
+            case "game_over":
+                return "state:" + matchId;
+            case "match_start":
+                return "match_start:" + matchId;
+            case "waiting":
+                return "waiting";
+            default:
+                return null;
+        }
+    }
+}
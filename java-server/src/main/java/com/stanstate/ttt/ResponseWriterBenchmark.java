@@ -0,0 +1,117 @@
+package com.stanstate.ttt;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Allocation benchmark for the hot REST response bodies
+ * Renders /api/game-state, /api/matches and /api/move the old way (Gson tree, toJson, getBytes)
+ * and through JsonStreamWriter, and reports bytes allocated and time per response on this thread.
+ * Checks that both paths produce identical bytes first.
+ *
+ * Usage: ResponseWriterBenchmark [iterations=200000] [lobbyGames=20]
+ */
+public class ResponseWriterBenchmark {
+    private static final Gson gson = new Gson();
+    private static final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int lobbyGames = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        System.out.println("=== Response Writer Benchmark ===");
+        System.out.println(iterations + " responses per case, " + lobbyGames + " games in the lobby");
+
+        GameStateCache.GameState game = new GameStateCache.GameState("match-0000-benchmark", "session-x",
+            "session-o", "Alice", "Bob");
+        game.board = "X.O.X....";
+        game.currentPlayer = "O";
+        game.seq = 5;
+        ConnectionQualityTracker tracker = ConnectionQualityTracker.getInstance();
+        GameStateView view = GameStateView.of("session-x", game, tracker);
+
+        List<GameStateCache.GameState> lobby = new ArrayList<>();
+        for (int i = 0; i < lobbyGames; i++) {
+            GameStateCache.GameState waiting = new GameStateCache.GameState("match-" + i, "host-" + i, null,
+                "Player" + i, null);
+            waiting.status = i % 2 == 0 ? "waiting" : "active";
+            lobby.add(waiting);
+        }
+
+        run("game-state", iterations,
+            () -> gson.toJson(view.toJson()).getBytes(StandardCharsets.UTF_8),
+            view);
+        run("matches", iterations,
+            () -> gson.toJson(GameService.availableMatchesJson(lobby)).getBytes(StandardCharsets.UTF_8),
+            out -> GameService.writeAvailableMatches(out, lobby));
+        run("move", iterations,
+            () -> {
+                JsonObject response = new JsonObject();
+                response.addProperty("success", true);
+                return gson.toJson(response).getBytes(StandardCharsets.UTF_8);
+            },
+            RestApiServer.MOVE_ACCEPTED);
+    }
+
+    private static void run(String name, int iterations, Supplier<byte[]> tree, JsonStreamWriter.Body streamed) {
+        byte[] expected = tree.get();
+        JsonStreamWriter check = JsonStreamWriter.forThread();
+        streamed.writeTo(check);
+        if (!java.util.Arrays.equals(expected, check.toByteArray())) {
+            throw new IllegalStateException(name + ": outputs differ\n  tree:     "
+                + new String(expected, StandardCharsets.UTF_8) + "\n  streamed: " + check);
+        }
+
+        OutputStream sink = OutputStream.nullOutputStream();
+        // Warm up both paths so the JIT (and escape analysis) has had its chance
+        for (int i = 0; i < iterations; i++) {
+            tree.get();
+            write(streamed, sink);
+        }
+
+        long[] treeResult = measure(iterations, () -> {
+            byte[] bytes = tree.get();
+            try {
+                sink.write(bytes);
+            } catch (java.io.IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        long[] streamedResult = measure(iterations, () -> write(streamed, sink));
+
+        System.out.println("\n" + name + " (" + expected.length + " bytes)");
+        System.out.printf("  gson tree   %8.1f B/op  %8.1f ns/op%n",
+            treeResult[0] / (double) iterations, treeResult[1] / (double) iterations);
+        System.out.printf("  streamed    %8.1f B/op  %8.1f ns/op%n",
+            streamedResult[0] / (double) iterations, streamedResult[1] / (double) iterations);
+    }
+
+    private static void write(JsonStreamWriter.Body body, OutputStream sink) {
+        JsonStreamWriter writer = JsonStreamWriter.forThread();
+        body.writeTo(writer);
+        try {
+            writer.writeTo(sink);
+        } catch (java.io.IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // {bytes allocated, nanos} for iterations runs of the body
+    private static long[] measure(int iterations, Runnable body) {
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            body.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        return new long[] { threads.getThreadAllocatedBytes(thread) - allocatedBefore, elapsed };
+    }
+}
@@ -2,33 +2,66 @@ package com.stanstate.ttt;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
+import spark.Request;
 import spark.Spark;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.UUID;
 
 public class RestApiServer {
     private final GameService gameService;
+    private final HealthCheck healthCheck;
+    private final RateLimiter rateLimiter = RateLimiter.getInstance();
+    private final BatchExecutor batchExecutor;
     private final Gson gson;
     private final int port;
     
+    // Per-route limits for async requests; past them the client gets a 503 and the result is dropped
+    private static final Log log = Log.get("http");
+    private static final long MOVE_TIMEOUT_MILLIS = Long.getLong("ttt.http.moveTimeoutMillis", 2_000);
+    private static final long STATE_TIMEOUT_MILLIS = Long.getLong("ttt.http.stateTimeoutMillis", 2_000);
+    private static final long JOIN_TIMEOUT_MILLIS = Long.getLong("ttt.http.joinTimeoutMillis", 5_000);
+    private static final long MATCHES_TIMEOUT_MILLIS = Long.getLong("ttt.http.matchesTimeoutMillis", 3_000);
+    private static final long STATS_TIMEOUT_MILLIS = Long.getLong("ttt.http.statsTimeoutMillis", 5_000);
+    // Constant /api/move bodies, encoded once
+    static final JsonStreamWriter.Body MOVE_ACCEPTED = constantBody("{\"success\":true}");
+    static final JsonStreamWriter.Body MOVE_REJECTED = constantBody("{\"success\":false}");
+    private static final long BATCH_TIMEOUT_MILLIS = Long.getLong("ttt.http.batchTimeoutMillis", 5_000);
+    private static final String RATE_LIMITED = "{\"success\":false,\"error\":\"Rate limit exceeded\"}";
+    private static final String BAD_SINCE = "{\"success\":false,\"error\":\"since must be a non-negative integer\"}";
+    private static final long INVALID_SINCE = Long.MIN_VALUE;
+    private static final String GAME_STATE_PREFIX = "/api/game-state/";
+    private static final ThreadLocal<JsonScanner> SCANNER = ThreadLocal.withInitial(JsonScanner::new);
+    // Shared secret for admin routes (X-Admin-Token header); unset disables them
+    private static final String ADMIN_TOKEN = System.getProperty("ttt.admin.token", "");
+    private static final String ADMIN_ONLY = "{\"success\":false,\"error\":\"Admin token required\"}";
+    
     public RestApiServer(int port) {
         this.port = port;
         
         // Get the WebSocket notifier, fallback to new instance if needed
         WebSocketNotifier notifier = Server.getNotifier();
         if (notifier == null) {
-            System.out.println("Warning: Server.getNotifier() returned null, creating new WebSocketNotifier");
+            log.warn("Server.getNotifier() returned null, creating new WebSocketNotifier");
             notifier = new WebSocketNotifier();
         }
         
         this.gameService = new GameService(DatabaseManager.getInstance(), notifier);
+        this.batchExecutor = new BatchExecutor(new WebSocketCommandHandler(gameService));
+        this.healthCheck = new HealthCheck(gameService, notifier);
         this.gson = new Gson();
-        System.out.println("RestApiServer initialized with port " + port);
+        log.info("RestApiServer initialized", "port", port);
+    }
+    
+    public GameService getGameService() {
+        return gameService;
     }
     
     public void start() {
+        AsyncRoutes.install();
         Spark.port(port);
         setupRoutes();
-        System.out.println("HTTP API server started on port " + port);
+        log.info("HTTP API server started", "port", port);
     }
     
     private void setupRoutes() {
@@ -36,9 +69,25 @@ public class RestApiServer {
         Spark.before((request, response) -> {
             response.header("Access-Control-Allow-Origin", "*");
             response.header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
-            response.header("Access-Control-Allow-Headers", "Content-Type, Authorization");
+            response.header("Access-Control-Allow-Headers", "Content-Type, Authorization, If-None-Match");
+            response.header("Access-Control-Expose-Headers", "ETag");
+            if (log.isTraceEnabled()) {
+                log.trace("HTTP request", "route", request.requestMethod() + " " + request.pathInfo(), "body", request.body());
+            }
         });
 
+        // Throttle abusive clients before any route parses a body or queues work
+        Spark.before("/api/*", (request, response) -> {
+            RateLimiter.OperationClass operation = rateLimitClass(request.requestMethod(), request.pathInfo());
+            if (operation == null) return;
+            int addressHash = request.ip().hashCode();
+            if (!rateLimiter.tryAcquire(operation, sessionHash(request, addressHash), addressHash)) {
+                response.type("application/json");
+                response.header("Retry-After", "1");
+                Spark.halt(429, RATE_LIMITED);
+            }
+        });
+        
         // Health check endpoint
         Spark.get("/health", (request, response) -> {
             response.type("application/json");
@@ -48,6 +97,22 @@ public class RestApiServer {
             return gson.toJson(healthResponse);
         });
         
+        // Liveness: the process answers; restart only if this fails
+        Spark.get("/health/live", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(healthCheck.liveness());
+        });
+        
+        // Readiness: 503 with the failing checks when a resource is saturated; stop routing, don't restart
+        Spark.get("/health/ready", (request, response) -> {
+            response.type("application/json");
+            JsonObject readiness = healthCheck.readiness();
+            if (!readiness.get("ready").getAsBoolean()) {
+                response.status(503);
+            }
+            return gson.toJson(readiness);
+        });
+        
         // Handle preflight requests
         Spark.options("/*", (request, response) -> {
             return "OK";
@@ -56,11 +121,7 @@ public class RestApiServer {
         // Join game endpoint
         Spark.post("/api/join", (request, response) -> {
             response.type("application/json");
-            
-            try {
-                System.out.println("=== JOIN REQUEST ===");
-                System.out.println("Request body: " + request.body());
-                
+            return AsyncRoutes.respond(request, response, JOIN_TIMEOUT_MILLIS, () -> {
                 JsonObject requestBody = gson.fromJson(request.body(), JsonObject.class);
                 String sessionId = requestBody.has("sessionId") ? 
                     requestBody.get("sessionId").getAsString() : 
@@ -68,209 +129,255 @@ public class RestApiServer {
                 String playerName = requestBody.has("name") ? 
                     requestBody.get("name").getAsString() : 
                     "Player-" + sessionId.substring(0, 8);
+                log.debug("Join", "sessionId", sessionId, "player", playerName);
                 
-                System.out.println("Session ID: " + sessionId + ", Player: " + playerName);
-                
-                String matchId = gameService.joinGame(sessionId, playerName).get();
-                System.out.println("Join result - Match ID: " + matchId);
-                
-                JsonObject responseJson = new JsonObject();
-                responseJson.addProperty("success", true);
-                responseJson.addProperty("sessionId", sessionId);
-                responseJson.addProperty("matchId", matchId);
-                
-                return gson.toJson(responseJson);
-            } catch (Exception e) {
-                System.out.println("JOIN ERROR: " + e.getMessage());
-                e.printStackTrace();
-                JsonObject errorResponse = new JsonObject();
-                errorResponse.addProperty("success", false);
-                errorResponse.addProperty("error", e.getMessage());
-                response.status(500);
-                return gson.toJson(errorResponse);
-            }
+                return gameService.joinGame(sessionId, playerName).thenApply(matchId -> {
+                    JsonObject responseJson = new JsonObject();
+                    responseJson.addProperty("success", true);
+                    responseJson.addProperty("sessionId", sessionId);
+                    responseJson.addProperty("matchId", matchId);
+                    return gson.toJson(responseJson);
+                });
+            });
         });
         
         // NEW: Get available matches endpoint
         Spark.get("/api/matches", (request, response) -> {
             response.type("application/json");
-            
-            try {
-                System.out.println("=== GET MATCHES REQUEST ===");
-                
-                // Get available matches from GameService
-                JsonObject matchesResponse = gameService.getAvailableMatches().get();
-                System.out.println("Available matches response: " + matchesResponse);
-                
-                return gson.toJson(matchesResponse);
-            } catch (Exception e) {
-                System.out.println("GET MATCHES ERROR: " + e.getMessage());
-                e.printStackTrace();
-                JsonObject errorResponse = new JsonObject();
-                errorResponse.addProperty("success", false);
-                errorResponse.addProperty("error", e.getMessage());
-                response.status(500);
-                return gson.toJson(errorResponse);
-            }
+            // Admitted as MATCHES work, then streamed from the live cache when the response is written
+            return AsyncRoutes.respondJson(request, response, MATCHES_TIMEOUT_MILLIS, gameService::availableMatchesBody);
         });
         
         // NEW: Create match endpoint
         Spark.post("/api/create-match", (request, response) -> {
             response.type("application/json");
-            
-            try {
-                System.out.println("=== CREATE MATCH REQUEST ===");
-                System.out.println("Request body: " + request.body());
-                
+            return AsyncRoutes.respond(request, response, JOIN_TIMEOUT_MILLIS, () -> {
                 JsonObject requestBody = gson.fromJson(request.body(), JsonObject.class);
                 String sessionId = requestBody.get("sessionId").getAsString();
                 String playerName = requestBody.get("playerName").getAsString();
                 String matchName = requestBody.has("matchName") ? requestBody.get("matchName").getAsString() : playerName + "'s Game";
+                TimeControl timeControl = TimeControl.parse(
+                    requestBody.has("timeControl") ? requestBody.get("timeControl").getAsString() : null, TimeControl.custom());
                 
-                System.out.println("Create match - Session: " + sessionId + ", Player: " + playerName + ", Match: " + matchName);
-                
-                String matchId = gameService.createMatch(sessionId, playerName, matchName).get();
-                System.out.println("Created match: " + matchId);
-                
-                JsonObject responseJson = new JsonObject();
-                responseJson.addProperty("success", true);
-                responseJson.addProperty("matchId", matchId);
-                responseJson.addProperty("message", "Match created successfully");
-                
-                return gson.toJson(responseJson);
-            } catch (Exception e) {
-                System.out.println("CREATE MATCH ERROR: " + e.getMessage());
-                e.printStackTrace();
-                JsonObject errorResponse = new JsonObject();
-                errorResponse.addProperty("success", false);
-                errorResponse.addProperty("error", e.getMessage());
-                response.status(500);
-                return gson.toJson(errorResponse);
-            }
+                return gameService.createMatch(sessionId, playerName, matchName, timeControl).thenApply(matchId -> {
+                    JsonObject responseJson = new JsonObject();
+                    responseJson.addProperty("success", true);
+                    responseJson.addProperty("matchId", matchId);
+                    responseJson.addProperty("timeControl", timeControl.name);
+                    responseJson.addProperty("message", "Match created successfully");
+                    return gson.toJson(responseJson);
+                });
+            });
         });
         
         // NEW: Join specific match endpoint
         Spark.post("/api/join-match", (request, response) -> {
             response.type("application/json");
-            
-            try {
-                System.out.println("=== JOIN SPECIFIC MATCH REQUEST ===");
-                System.out.println("Request body: " + request.body());
-                
+            return AsyncRoutes.respond(request, response, JOIN_TIMEOUT_MILLIS, () -> {
                 JsonObject requestBody = gson.fromJson(request.body(), JsonObject.class);
                 String sessionId = requestBody.get("sessionId").getAsString();
                 String playerName = requestBody.get("playerName").getAsString();
                 String matchId = requestBody.get("matchId").getAsString();
                 
-                System.out.println("Join specific match - Session: " + sessionId + ", Player: " + playerName + ", Match: " + matchId);
-                
-                boolean success = gameService.joinSpecificMatch(sessionId, playerName, matchId).get();
-                System.out.println("Join specific match result: " + success);
-                
-                JsonObject responseJson = new JsonObject();
-                responseJson.addProperty("success", success);
-                if (success) {
-                    responseJson.addProperty("matchId", matchId);
-                    responseJson.addProperty("message", "Joined match successfully");
-                } else {
-                    responseJson.addProperty("error", "Failed to join match - may be full or not exist");
-                }
-                
-                return gson.toJson(responseJson);
-            } catch (Exception e) {
-                System.out.println("JOIN SPECIFIC MATCH ERROR: " + e.getMessage());
-                e.printStackTrace();
-                JsonObject errorResponse = new JsonObject();
-                errorResponse.addProperty("success", false);
-                errorResponse.addProperty("error", e.getMessage());
-                response.status(500);
-                return gson.toJson(errorResponse);
-            }
+                return gameService.joinSpecificMatch(sessionId, playerName, matchId).thenApply(success -> {
+                    JsonObject responseJson = new JsonObject();
+                    responseJson.addProperty("success", success);
+                    if (success) {
+                        responseJson.addProperty("matchId", matchId);
+                        responseJson.addProperty("message", "Joined match successfully");
+                    } else {
+                        responseJson.addProperty("error", "Failed to join match - may be full or not exist");
+                    }
+                    return gson.toJson(responseJson);
+                });
+            });
         });
         
         // Make move endpoint
         Spark.post("/api/move", (request, response) -> {
             response.type("application/json");
-            
-            try {
-                System.out.println("=== MOVE REQUEST ===");
-                System.out.println("Request body: " + request.body());
-                
+            return AsyncRoutes.respondJson(request, response, MOVE_TIMEOUT_MILLIS, () -> {
                 JsonObject requestBody = gson.fromJson(request.body(), JsonObject.class);
                 String sessionId = requestBody.get("sessionId").getAsString();
                 String matchId = requestBody.get("matchId").getAsString();
                 int cell = requestBody.get("cell").getAsInt();
                 
-                System.out.println("Move request - Session: " + sessionId + ", Match: " + matchId + ", Cell: " + cell);
-                
-                boolean success = gameService.makeMove(sessionId, matchId, cell).get();
-                System.out.println("Move result: " + success);
-                
-                JsonObject responseJson = new JsonObject();
-                responseJson.addProperty("success", success);
-                
-                return gson.toJson(responseJson);
-            } catch (Exception e) {
-                System.out.println("MOVE ERROR: " + e.getMessage());
-                e.printStackTrace();
-                JsonObject errorResponse = new JsonObject();
-                errorResponse.addProperty("success", false);
-                errorResponse.addProperty("error", e.getMessage());
-                response.status(500);
-                return gson.toJson(errorResponse);
-            }
+                return gameService.makeMove(sessionId, matchId, cell).thenApply(success -> success ? MOVE_ACCEPTED : MOVE_REJECTED);
+            });
         });
         
         // NEW: Game state polling endpoint - replaces WebSocket notifications
         Spark.get("/api/game-state/:sessionId", (request, response) -> {
-            response.type("application/json");
+            long started = System.nanoTime();
+            String sessionId = request.params(":sessionId");
+            // Clients holding state up to ?since=N only get the deltas after it
+            String sinceParam = request.queryParams("since");
+            long since = parseSince(sinceParam);
+            if (since == INVALID_SINCE) {
+                response.status(400);
+                response.type("application/json");
+                AsyncRoutes.observe(request, 400, started);
+                return BAD_SINCE;
+            }
             
-            try {
-                String sessionId = request.params(":sessionId");
-                System.out.println("=== GAME STATE POLL ===");
-                System.out.println("Session: " + sessionId);
-                
-                // Get current game state for this session
-                JsonObject gameState = gameService.getGameStateForSession(sessionId).get();
-                System.out.println("Game state response: " + gameState);
-                
-                return gson.toJson(gameState);
-            } catch (Exception e) {
-                System.out.println("GAME STATE POLL ERROR: " + e.getMessage());
-                e.printStackTrace();
-                JsonObject errorResponse = new JsonObject();
-                errorResponse.addProperty("success", false);
-                errorResponse.addProperty("error", e.getMessage());
-                response.status(500);
-                return gson.toJson(errorResponse);
+            // Full snapshots carry an ETag; an unchanged one costs a lookup and a compare, no body
+            String ifNoneMatch = request.headers("If-None-Match");
+            String unchangedTag = sinceParam == null && ifNoneMatch != null
+                ? gameService.unchangedStateTag(sessionId, ifNoneMatch) : null;
+            if (unchangedTag != null) {
+                response.status(304);
+                response.header("ETag", unchangedTag);
+                AsyncRoutes.observe(request, 304, started);
+                return "";
             }
+            
+            response.type("application/json");
+            if (sinceParam != null) {
+                return AsyncRoutes.respond(request, response, STATE_TIMEOUT_MILLIS,
+                    () -> gameService.getGameStateForSession(sessionId, since).thenApply(gson::toJson));
+            }
+            
+            // Full snapshot: streamed from a view, with its ETag
+            return AsyncRoutes.respondJson(request, response, STATE_TIMEOUT_MILLIS, () ->
+                gameService.getGameStateView(sessionId).thenApply(view -> {
+                    response.header("ETag", view.etag());
+                    return view;
+                }));
         });
         
         // NEW: Player statistics endpoint
         Spark.get("/api/stats/:playerName", (request, response) -> {
             response.type("application/json");
-            
-            try {
+            return AsyncRoutes.respond(request, response, STATS_TIMEOUT_MILLIS, () -> {
                 String playerName = request.params(":playerName");
-                System.out.println("=== PLAYER STATS REQUEST ===");
-                System.out.println("Player: " + playerName);
-                
-                JsonObject stats = gameService.getPlayerStats(playerName).get();
-                System.out.println("Stats response: " + stats);
+                return gameService.getPlayerStats(playerName).thenApply(gson::toJson);
+            });
+        });
+
+        // Leave the matchmaking queue
+        Spark.post("/api/leave-queue", (request, response) -> {
+            response.type("application/json");
+            return AsyncRoutes.respond(request, response, JOIN_TIMEOUT_MILLIS, () -> {
+                JsonObject requestBody = gson.fromJson(request.body(), JsonObject.class);
+                String sessionId = requestBody.get("sessionId").getAsString();
                 
-                return gson.toJson(stats);
-            } catch (Exception e) {
-                System.out.println("PLAYER STATS ERROR: " + e.getMessage());
-                e.printStackTrace();
-                JsonObject errorResponse = new JsonObject();
-                errorResponse.addProperty("success", false);
-                errorResponse.addProperty("error", e.getMessage());
-                response.status(500);
-                return gson.toJson(errorResponse);
+                return gameService.leaveQueue(sessionId).thenApply(cancelled -> {
+                    JsonObject responseJson = new JsonObject();
+                    responseJson.addProperty("success", true);
+                    responseJson.addProperty("cancelled", cancelled);
+                    return gson.toJson(responseJson);
+                });
+            });
+        });
+        
+        // Several ops in one request; ops for the same session run in order, the rest in parallel
+        Spark.post("/api/batch", (request, response) -> {
+            response.type("application/json");
+            return AsyncRoutes.respond(request, response, BATCH_TIMEOUT_MILLIS, () ->
+                batchExecutor.execute(gson.fromJson(request.body(), JsonObject.class), request.ip().hashCode())
+                    .thenApply(gson::toJson));
+        });
+        
+        // Matchmaking queue statistics (queue size, p99 queue time)
+        Spark.get("/api/matchmaking/stats", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(gameService.getMatchmakingStats());
+        });
+
+        // Outbound WebSocket buffers per connection (backpressure, slow consumers)
+        Spark.get("/api/ws/outbound", (request, response) -> {
+            response.type("application/json");
+            WebSocketNotifier notifier = Server.getNotifier();
+            return gson.toJson(OutboundBudget.getInstance().snapshot(
+                notifier != null ? notifier.getSessionConnections() : java.util.Collections.emptyMap()));
+        });
+
+        // WebSocket ping round trips, global and per session
+        Spark.get("/api/ws/rtt", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(ConnectionQualityTracker.getInstance().snapshot());
+        });
+
+        // permessage-deflate bytes before/after per message type
+        Spark.get("/api/ws/compression", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(ConfigurableDeflateExtension.snapshot());
+        });
+
+        // Spectator view of a match; live updates come from the WebSocket "watch" command
+        Spark.get("/api/spectate/:matchId", (request, response) -> {
+            response.type("application/json");
+            long since = parseSince(request.queryParams("since"));
+            if (since == INVALID_SINCE) {
+                response.status(400);
+                return BAD_SINCE;
+            }
+            return AsyncRoutes.respond(request, response, STATE_TIMEOUT_MILLIS,
+                () -> gameService.spectate(request.params(":matchId"), since).thenApply(view -> {
+                    if (!view.get("success").getAsBoolean()) {
+                        response.status(404);
+                    }
+                    return gson.toJson(view);
+                }));
+        });
+        
+        // Audience sizes and spectator fan-out counters
+        Spark.get("/api/spectators", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(SpectatorHub.getInstance().snapshot());
+        });
+
+        // Rate-limit budgets and violations per operation class
+        Spark.get("/api/ratelimit", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(rateLimiter.snapshot());
+        });
+        
+        // Async HTTP requests in flight, timed out and cancelled
+        Spark.get("/api/http/async", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(AsyncRoutes.snapshot());
+        });
+
+        // Prometheus text exposition of every registered metric
+        Spark.get("/metrics", (request, response) -> {
+            response.type("text/plain; version=0.0.4; charset=utf-8");
+            return Metrics.render();
+        });
+        
+        // Logging queue stats and per-category levels; POST {"category":"game","level":"DEBUG","sampleEvery":10}
+        Spark.get("/api/logging", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(Log.snapshot());
+        });
+        
+        // Admin only: TRACE on "http" logs request bodies
+        Spark.post("/api/logging", (request, response) -> {
+            response.type("application/json");
+            if (!isAdmin(request)) {
+                response.status(403);
+                return ADMIN_ONLY;
+            }
+            try {
+                JsonObject requestBody = gson.fromJson(request.body(), JsonObject.class);
+                String category = requestBody.get("category").getAsString();
+                Log.Level level = requestBody.has("level") ? Log.Level.parse(requestBody.get("level").getAsString()) : null;
+                Integer sampleEvery = requestBody.has("sampleEvery") ? requestBody.get("sampleEvery").getAsInt() : null;
+                Log.configure(category, level, sampleEvery);
+                log.info("Logging reconfigured", "category", category, "level", level, "sampleEvery", sampleEvery);
+                return gson.toJson(Log.snapshot());
+            } catch (RuntimeException e) {
+                response.status(400);
+                JsonObject error = new JsonObject();
+                error.addProperty("success", false);
+                error.addProperty("error",
+                    "Expected {\"category\":..., \"level\":..., \"sampleEvery\":...} with a category listed by GET /api/logging");
+                return gson.toJson(error);
             }
         });
 
         // Health check
+        // Liveness alias kept for existing clients; readiness is /health/ready
         Spark.get("/api/health", (req, res) -> {
             res.type("application/json");
             JsonObject health = new JsonObject();
@@ -279,7 +386,70 @@ public class RestApiServer {
             return gson.toJson(health);
         });
         
-        System.out.println("REST API server started on http://localhost:" + port);
+        log.info("REST API routes ready", "url", "http://localhost:" + port);
+    }
+    
+    private static boolean isAdmin(Request request) {
+        String token = request.headers("X-Admin-Token");
+        return !ADMIN_TOKEN.isEmpty() && token != null && MessageDigest.isEqual(
+            ADMIN_TOKEN.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    // Game routes by operation class; diagnostics and admin routes are not limited
+    static RateLimiter.OperationClass rateLimitClass(String method, String path) {
+        if ("OPTIONS".equals(method)) return null;
+        if (path.equals("/api/move")) return RateLimiter.OperationClass.MOVE;
+        if (path.startsWith("/api/game-state/") || path.startsWith("/api/spectate/") || path.equals("/api/batch")) {
+            return RateLimiter.OperationClass.STATE;
+        }
+        if (path.equals("/api/matches") || path.equals("/api/join") || path.equals("/api/create-match")
+            || path.equals("/api/join-match") || path.equals("/api/leave-queue")) {
+            return RateLimiter.OperationClass.LOBBY;
+        }
+        if (path.startsWith("/api/stats/") || path.equals("/api/matchmaking/stats")) {
+            return RateLimiter.OperationClass.STATS;
+        }
+        return null;
+    }
+    
+    // ?since=N: -1 when absent, INVALID_SINCE unless it is a non-negative integer
+    private static long parseSince(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            long since = Long.parseLong(value);
+            return since >= 0 ? since : INVALID_SINCE;
+        } catch (NumberFormatException e) {
+            return INVALID_SINCE;
+        }
+    }
+
+    // Session id from the path or the top-level "sessionId" of a JSON body, hashed in place
+    private static int sessionHash(spark.Request request, int addressHash) {
+        String path = request.pathInfo();
+        if (path.startsWith(GAME_STATE_PREFIX)) {
+            return RateLimiter.hashFrom(path, GAME_STATE_PREFIX.length());
+        }
+        if ("POST".equals(request.requestMethod())) {
+            String body = request.body();  // cached by Spark for the route
+            if (body != null) {
+                try {
+                    JsonScanner scanner = SCANNER.get().reset(body);
+                    if (scanner.beginObject() && scanner.findField("sessionId") && scanner.readString()) {
+                        return scanner.spanHash();
+                    }
+                } catch (JsonScanner.MalformedJsonException e) {
+                    // The route reports it
+                }
+            }
+        }
+        return addressHash;
+    }
+    
+    private static JsonStreamWriter.Body constantBody(String json) {
+        byte[] bytes = json.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        return out -> out.raw(bytes);
     }
     
     public void stop() {
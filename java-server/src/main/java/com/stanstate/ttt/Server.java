@@ -2,100 +2,178 @@ package com.stanstate.ttt;
 import com.google.gson.*;
 import org.java_websocket.server.WebSocketServer;
 import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.PingFrame;
 import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class Server extends WebSocketServer {
   private static WebSocketNotifier wsNotifier;
+  private volatile WebSocketCommandHandler commandHandler;
+  
+  // Socket threads only pick a lane; decoding and handling run on the workers
+  static final int DEFAULT_DECODERS = Integer.getInteger("ttt.ws.decoders", Runtime.getRuntime().availableProcessors());
+  static final int DEFAULT_WORKERS = Integer.getInteger("ttt.ws.workers", Runtime.getRuntime().availableProcessors());
+  private static ShardedExecutor sharedWorkers;
+  private final ShardedExecutor workers;
+  private final RateLimiter rateLimiter = RateLimiter.getInstance();
+  
+  // Every thread that scans a message reuses its own scanner
+  private static final Log log = Log.get("ws");
+  private static final ThreadLocal<JsonScanner> SCANNER = ThreadLocal.withInitial(JsonScanner::new);
+  private String[] handlerTypes;
+  private MessageHandler[] handlers;
+  
+  private static final long PING_INTERVAL_MILLIS = Long.getLong("ttt.ws.pingIntervalMillis", 15_000);
+  private static final long PONG_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(
+      Long.getLong("ttt.ws.pongTimeoutMillis", 3 * PING_INTERVAL_MILLIS));
+  private volatile TimerService.Timeout pingTask;
   
   public Server(int port) { 
-    super(new InetSocketAddress(port)); 
-    if (wsNotifier == null) {
-      wsNotifier = new WebSocketNotifier();
+    this(port, DEFAULT_DECODERS, sharedWorkers(), ConfigurableDeflateExtension.ENABLED
+        ? new ConfigurableDeflateExtension(ConfigurableDeflateExtension.DEFAULT_LEVEL, ConfigurableDeflateExtension.DEFAULT_THRESHOLD)
+        : null);
+  }
+  
+  public Server(int port, int decoders, ShardedExecutor workers) {
+    this(port, decoders, workers, null);
+  }
+  
+  /**
+   * Several instances (one per port) can run side by side; they share the static notifier registry
+   * A non-null deflate extension offers permessage-deflate to clients that ask for it.
+   */
+  public Server(int port, int decoders, ShardedExecutor workers, ConfigurableDeflateExtension deflate) {
+    super(new InetSocketAddress(port), decoders, supportedDrafts(deflate));
+    synchronized (Server.class) {
+      if (wsNotifier == null) {
+        wsNotifier = new WebSocketNotifier();
+      }
+    }
+    this.workers = workers;
+    registerHandlers();
+  }
+  
+  private static synchronized ShardedExecutor sharedWorkers() {
+    if (sharedWorkers == null) {
+      sharedWorkers = new ShardedExecutor("ws-worker", DEFAULT_WORKERS);
     }
+    return sharedWorkers;
+  }
+  
+  // Commands waiting on the shared worker lanes; 0 before the first connection starts them
+  public static synchronized int queuedWorkerTasks() {
+    return sharedWorkers != null ? sharedWorkers.queuedTasks() : 0;
+  }
+  
+  public static synchronized void shutdownWorkers() {
+    if (sharedWorkers != null) {
+      sharedWorkers.shutdown();
+    }
+  }
+  
+  // Clients may negotiate the binary sub-protocol; the empty protocol keeps plain JSON clients working
+  private static List<Draft> supportedDrafts(ConfigurableDeflateExtension deflate) {
+    List<IProtocol> protocols = List.of(new Protocol(BinaryProtocol.SUBPROTOCOL), new Protocol(""));
+    List<IExtension> extensions = deflate != null ? List.of(deflate) : Collections.emptyList();
+    return List.of(new Draft_6455(extensions, protocols));
   }
   
   public static WebSocketNotifier getNotifier() {
     return wsNotifier;
   }
   
+  // Enables lobby/game commands over the socket once the GameService exists
+  public void setCommandHandler(WebSocketCommandHandler commandHandler) {
+    this.commandHandler = commandHandler;
+  }
+  
   @Override 
   public void onOpen(WebSocket conn, ClientHandshake handshake) {
-    System.out.println("=== WebSocket onOpen ===");
-    System.out.println("Client connected: " + conn.getRemoteSocketAddress());
+    // Bind per-connection state to the socket; the session id is filled in on registration
+    ConnectionContext context = new ConnectionContext(conn);
+    conn.setAttachment(context);
+    log.debug("Client connected", "remote", context.remoteAddress, "binary", context.binaryProtocol);
     
     try {
       // Send welcome message
       String welcomeMessage = "{\"t\":\"server_hello\",\"msg\":\"Server can send to client\"}";
       conn.send(welcomeMessage);
-      System.out.println("Welcome message sent to client");
       
     } catch (Exception e) {
-      System.out.println("Error in onOpen: " + e.getMessage());
-      e.printStackTrace();
+      log.error("Error in onOpen", "remote", context.remoteAddress, e);
     }
   }
   
+  // Decoder for one message type, reading fields straight from the reusable scanner
+  @FunctionalInterface
+  private interface MessageHandler {
+    void handle(WebSocket conn, JsonScanner msg, String raw);
+  }
+  
   @Override 
   public void onMessage(WebSocket conn, String message) {
-    System.out.println("=== WebSocket onMessage ===");
-    System.out.println("Received from " + conn.getRemoteSocketAddress() + ": " + message);
+    if (!admitFrame(conn)) return;
+    workers.execute(laneKey(conn), () -> dispatch(conn, message));
+  }
+  
+  /**
+   * Per-frame budget, checked on the socket thread before anything is scanned or queued;
+   * frames over it are dropped (and counted) without a reply, which would only cost more
+   */
+  private boolean admitFrame(WebSocket conn) {
+    ConnectionContext context = ConnectionContext.of(conn);
+    String sessionId = context.getSessionId();
+    int addressHash = context.addressHash;
+    return rateLimiter.tryAcquire(RateLimiter.OperationClass.MESSAGE,
+      sessionId != null ? sessionId.hashCode() : System.identityHashCode(conn), addressHash);
+  }
+  
+  /**
+   * Lane for everything a connection does: its text and binary frames and finally its close all
+   * run in arrival order, whether or not the socket is bound to a session yet. Two players' moves
+   * on the same match may run on different lanes; the game's lock in GameStateCache orders them.
+   */
+  private static int laneKey(WebSocket conn) {
+    return System.identityHashCode(conn);
+  }
+  
+  private void dispatch(WebSocket conn, String message) {
+    JsonScanner msg = SCANNER.get().reset(message);
     
     try {
-      // Parse message to get session ID and handle different message types
-      if (message.contains("sessionId") || message.contains("t")) {
-        System.out.println("Processing structured message...");
-        Gson gson = new Gson();
-        JsonObject msg = gson.fromJson(message, JsonObject.class);
-        
-        // Handle heartbeat responses
-        if (msg.has("t") && "heartbeat_response".equals(msg.get("t").getAsString())) {
-          if (msg.has("sessionId")) {
-            String sessionId = msg.get("sessionId").getAsString();
-            wsNotifier.handleHeartbeatResponse(sessionId);
-            System.out.println("Processed heartbeat response from " + sessionId);
-          }
-          return;
-        }
-        
-        // Handle session registration
-        if (msg.has("sessionId")) {
-          String sessionId = msg.get("sessionId").getAsString();
-          System.out.println("Extracted sessionId: " + sessionId);
-          wsNotifier.registerConnection(sessionId, conn);
-          System.out.println("Registered WebSocket for session: " + sessionId);
-          
-          // Send enhanced welcome message with connection info
-          JsonObject response = new JsonObject();
-          response.addProperty("t", "connection_established");
-          response.addProperty("sessionId", sessionId);
-          response.addProperty("message", "WebSocket connection established successfully");
-          response.addProperty("timestamp", System.currentTimeMillis());
-          response.addProperty("serverVersion", "1.0.0");
-          conn.send(response.toString());
-        }
-        
-        // Handle connection quality feedback
-        if (msg.has("t") && "connection_quality".equals(msg.get("t").getAsString())) {
-          if (msg.has("sessionId") && msg.has("quality")) {
-            String sessionId = msg.get("sessionId").getAsString();
-            double quality = msg.get("quality").getAsDouble();
-            updateConnectionQuality(sessionId, quality);
-          }
-        }
-        
-      } else {
+      if (!msg.beginObject()) {
         // Handle legacy or simple messages
-        System.out.println("Message does not contain sessionId: " + message);
         JsonObject response = new JsonObject();
         response.addProperty("t", "echo");
         response.addProperty("original", message);
         response.addProperty("timestamp", System.currentTimeMillis());
         conn.send(response.toString());
+        return;
       }
       
-    } catch (JsonSyntaxException e) {
-      System.err.println("Invalid JSON received: " + e.getMessage());
+      // Dispatch on the "t" discriminator; untyped and unknown messages only bind the session
+      int type = msg.findField("t") && msg.readString() ? msg.spanIndex(handlerTypes) : -1;
+      if (type < 0) {
+        bindSession(conn, msg);
+      } else {
+        handlers[type].handle(conn, msg, message);
+      }
+      
+    } catch (JsonScanner.MalformedJsonException | JsonParseException e) {
+      log.warn("Invalid JSON received", "error", e.getMessage());
       try {
         JsonObject errorResponse = new JsonObject();
         errorResponse.addProperty("t", "error");
@@ -103,38 +181,165 @@ public class Server extends WebSocketServer {
         errorResponse.addProperty("timestamp", System.currentTimeMillis());
         conn.send(errorResponse.toString());
       } catch (Exception se) {
-        System.err.println("Failed to send error response: " + se.getMessage());
+        log.warn("Failed to send error response", "error", se.getMessage());
+      }
+    } catch (Exception e) {
+      log.error("Error processing message", e);
+    }
+  }
+  
+  private void registerHandlers() {
+    Map<String, MessageHandler> table = new LinkedHashMap<>();
+    // Retired JSON heartbeat: older clients may still answer, which must not register or echo
+    table.put("heartbeat_response", (conn, msg, raw) -> { });
+    table.put("connection_quality", this::onConnectionQuality);
+    for (String command : WebSocketCommandHandler.COMMANDS) {
+      RateLimiter.OperationClass operation = commandClass(command);
+      table.put(command, (conn, msg, raw) -> {
+        if (admitCommand(conn, msg, command, operation)) {
+          onCommand(conn, msg, command, raw);
+        }
+      });
+    }
+    handlerTypes = table.keySet().toArray(new String[0]);
+    handlers = table.values().toArray(new MessageHandler[0]);
+  }
+  
+  private void onConnectionQuality(WebSocket conn, JsonScanner msg, String raw) {
+    bindSession(conn, msg);
+    if (msg.findField("sessionId") && msg.readString()) {
+      String sessionId = msg.spanString();
+      if (msg.findField("quality")) {
+        updateConnectionQuality(sessionId, msg.doubleValue());
       }
+    }
+  }
+  
+  static RateLimiter.OperationClass commandClass(String command) {
+    switch (command) {
+      case "move": return RateLimiter.OperationClass.MOVE;
+      case "state": case "sync": case "watch": case "unwatch": return RateLimiter.OperationClass.STATE;
+      case "stats": return RateLimiter.OperationClass.STATS;
+      default: return RateLimiter.OperationClass.LOBBY;
+    }
+  }
+  
+  // Per-class budget for a command, keyed like the HTTP routes so both transports share it;
+  // the frame already paid its address token in admitFrame
+  private boolean admitCommand(WebSocket conn, JsonScanner msg, String type, RateLimiter.OperationClass operation) {
+    ConnectionContext context = ConnectionContext.of(conn);
+    String sessionId = context.getSessionId();
+    int sessionHash = sessionId != null ? sessionId.hashCode()
+      : msg.findField("sessionId") && msg.readString() ? msg.spanHash() : context.addressHash;
+    if (rateLimiter.tryAcquire(operation, sessionHash)) {
+      return true;
+    }
+    JsonObject limited = new JsonObject();
+    limited.addProperty("t", "reply");
+    if (msg.findField("rid") && msg.readString()) limited.addProperty("rid", msg.spanString());
+    limited.addProperty("op", type);
+    limited.addProperty("success", false);
+    limited.addProperty("error", "Rate limit exceeded");
+    conn.send(limited.toString());
+    return false;
+  }
+  
+  // Lobby and game commands (join, create_match, join_match, move, state, matches)
+  private void onCommand(WebSocket conn, JsonScanner msg, String type, String raw) {
+    bindSession(conn, msg);
+    
+    WebSocketCommandHandler handler = commandHandler;
+    if (handler == null) {
+      JsonObject notReady = new JsonObject();
+      notReady.addProperty("t", "reply");
+      if (msg.findField("rid") && msg.readString()) notReady.addProperty("rid", msg.spanString());
+      notReady.addProperty("op", type);
+      notReady.addProperty("success", false);
+      notReady.addProperty("error", "Game service not ready");
+      conn.send(notReady.toString());
+      return;
+    }
+    handler.handle(conn, type, JsonParser.parseString(raw).getAsJsonObject());
+  }
+  
+  // Handle session registration (only when the socket isn't already bound to this session)
+  private void bindSession(WebSocket conn, JsonScanner msg) {
+    if (!msg.findField("sessionId") || !msg.readString()) {
+      return;
+    }
+    String bound = findSessionByConnection(conn);
+    if (bound != null && msg.spanEquals(bound)) {
+      return;
+    }
+    
+    String sessionId = msg.spanString();
+    // Resuming clients send the last "sseq" they saw and get the rest replayed
+    long lastSeq = msg.findField("lastSeq") ? msg.longValue() : -1;
+    wsNotifier.registerConnection(sessionId, conn, lastSeq);
+    
+    // Send enhanced welcome message with connection info
+    JsonObject response = new JsonObject();
+    response.addProperty("t", "connection_established");
+    response.addProperty("sessionId", sessionId);
+    response.addProperty("message", "WebSocket connection established successfully");
+    response.addProperty("timestamp", System.currentTimeMillis());
+    response.addProperty("serverVersion", "1.0.0");
+    conn.send(response.toString());
+  }
+  
+  // Binary frames from clients that negotiated BinaryProtocol
+  @Override
+  public void onMessage(WebSocket conn, ByteBuffer frame) {
+    if (!admitFrame(conn)) return;
+    workers.execute(laneKey(conn), () -> dispatchBinary(conn, frame));
+  }
+  
+  private void dispatchBinary(WebSocket conn, ByteBuffer frame) {
+    try {
+      byte type = BinaryProtocol.peekType(frame);
+      switch (type) {
+        case BinaryProtocol.HEARTBEAT_ACK:
+          // Retired with the application heartbeat; liveness is ping/pong now
+          break;
+        case BinaryProtocol.MOVE: {
+          WebSocketCommandHandler handler = commandHandler;
+          BinaryProtocol.Move move = BinaryProtocol.decodeMove(frame);
+          if (handler != null) {
+            handler.handleBinaryMove(conn, move);
+          }
+          break;
+        }
+        default:
+          log.warn("Unsupported binary message type", "type", type, "remote", conn.getRemoteSocketAddress());
+      }
+    } catch (BinaryProtocol.ProtocolException e) {
+      log.warn("Invalid binary frame", "error", e.getMessage());
+      conn.close(1003, e.getMessage());
     } catch (Exception e) {
-      System.err.println("Error processing message: " + e.getMessage());
-      e.printStackTrace();
+      log.error("Error processing binary message", e);
     }
   }
   
   @Override 
   public void onClose(WebSocket conn, int code, String reason, boolean remote) { 
-    System.out.println("=== WebSocket onClose ===");
-    System.out.println("WebSocket disconnected: " + conn.getRemoteSocketAddress() + 
-                      " code=" + code + " reason=" + reason);
+    log.debug("WebSocket disconnected", "remote", conn.getRemoteSocketAddress(), "code", code, "reason", reason);
     
-    // Find and unregister the session by checking all connections
-    String disconnectedSession = findSessionByConnection(conn);
-    if (disconnectedSession != null) {
-      wsNotifier.unregisterConnection(disconnectedSession);
-      System.out.println("Unregistered session: " + disconnectedSession);
-    }
+    // O(1) unregister through the session attached to this socket, queued behind the connection's messages
+    workers.execute(laneKey(conn), () -> {
+      SpectatorHub.getInstance().unwatchAll(conn);
+      String disconnectedSession = wsNotifier.unregisterConnection(conn);
+      if (disconnectedSession != null) {
+        log.debug("Unregistered session", "sessionId", disconnectedSession);
+      }
+    });
   }
   
   @Override 
   public void onError(WebSocket conn, Exception ex) { 
-    System.err.println("=== WebSocket onError ===");
-    System.err.println("WebSocket error: " + ex.getMessage());
-    ex.printStackTrace();
-    
-    // Try to find and handle the errored connection
+    // conn is null for server-level errors (e.g. bind failures)
     String sessionId = findSessionByConnection(conn);
+    log.error("WebSocket error", "sessionId", sessionId, ex);
     if (sessionId != null) {
-      System.err.println("Error on session: " + sessionId);
       // Update connection quality to reflect error
       updateConnectionQuality(sessionId, 0.1);
     }
@@ -142,19 +347,71 @@ public class Server extends WebSocketServer {
   
   @Override
   public void onStart() {
-    System.out.println("=== WebSocket Server Started ===");
-    System.out.println("Server listening on: " + getAddress());
+    log.info("WebSocket server started", "address", getAddress());
+    Metrics.gauge("ttt_ws_connections", "Open WebSocket connections", () -> getConnections().size(),
+        "port", String.valueOf(getPort()));
+    // The library's lost-connection timer is replaced by our own pings, which also measure RTT
     setConnectionLostTimeout(0);
-    setConnectionLostTimeout(100);
+    pingTask = TimerService.getInstance().scheduleAtFixedRate("ws-ping-" + getPort(), this::pingConnections,
+      PING_INTERVAL_MILLIS, PING_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+  
+  @Override
+  public void stop(int timeout, String closeMessage) throws InterruptedException {
+    TimerService.Timeout ping = pingTask;
+    if (ping != null) ping.cancel();
+    super.stop(timeout, closeMessage);
+  }
+  
+  // Protocol-level ping carrying its send time, so the pong alone yields the RTT
+  private void pingConnections() {
+    long now = System.nanoTime();
+    for (WebSocket conn : getConnections()) {
+      ConnectionContext context = ConnectionContext.of(conn);
+      if (now - context.lastPongNanos > PONG_TIMEOUT_NANOS) {
+        log.info("Ping timeout, closing", "remote", context.remoteAddress);
+        conn.closeConnection(CloseFrame.ABNORMAL_CLOSE, "Ping timeout");
+        continue;
+      }
+      if (!conn.isOpen()) continue;
+      
+      try {
+        PingFrame ping = new PingFrame();
+        ping.setPayload(ByteBuffer.allocate(8).putLong(0, System.nanoTime()));
+        conn.sendFrame(ping);
+        if (context.getSessionId() != null) {
+          ConnectionQualityTracker.getInstance().onPingSent(context.getSessionId());
+        }
+      } catch (Exception e) {
+        log.warn("Failed to ping", "remote", context.remoteAddress, "error", e.getMessage());
+      }
+    }
+  }
+  
+  @Override
+  public void onWebsocketPong(WebSocket conn, Framedata frame) {
+    ConnectionContext context = ConnectionContext.of(conn);
+    long now = System.nanoTime();
+    context.lastPongNanos = now;
+    
+    // Unsolicited pongs (no timestamp) still count for liveness
+    ByteBuffer payload = frame.getPayloadData();
+    if (payload.remaining() == 8) {
+      long rttNanos = now - payload.getLong(payload.position());
+      if (rttNanos >= 0) {
+        ConnectionQualityTracker.getInstance().onPong(context.getSessionId(), rttNanos);
+      }
+    }
   }
   
   private String findSessionByConnection(WebSocket conn) {
-    // This is a simplified approach - in a real system we'd need better tracking
-    // For now, return null and rely on cleanup tasks
-    return null;
+    if (conn == null) return null;
+    ConnectionContext context = conn.getAttachment();
+    return context == null ? null : context.getSessionId();
   }
   
   private void updateConnectionQuality(String sessionId, double quality) {
+    ConnectionQualityTracker.getInstance().reportQuality(sessionId, quality);
     try {
       DatabaseManager dbManager = DatabaseManager.getInstance();
       try (java.sql.Connection conn = dbManager.getConnection()) {
@@ -164,10 +421,10 @@ public class Server extends WebSocketServer {
         stmt.setDouble(1, quality);
         stmt.setString(2, sessionId);
         stmt.executeUpdate();
-        System.out.println("Updated connection quality for " + sessionId + " to " + quality);
+        log.debug("Updated connection quality", "sessionId", sessionId, "quality", quality);
       }
     } catch (java.sql.SQLException e) {
-      System.err.println("Failed to update connection quality: " + e.getMessage());
+      log.warn("Failed to update connection quality", "sessionId", sessionId, "error", e.getMessage());
     }
   }
 }
\ No newline at end of file
@@ -0,0 +1,83 @@
+package com.stanstate.ttt;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed set of single-threaded lanes; work for the same key always runs on the same lane, in order
+ * Keeps per-key (e.g. per-connection) ordering without a shared lock and spreads different keys across cores
+ */
+public class ShardedExecutor {
+    private static final Log log = Log.get("executor");
+    private final ThreadPoolExecutor[] lanes;
+
+    public ShardedExecutor(String name, int laneCount) {
+        this.lanes = new ThreadPoolExecutor[Math.max(1, laneCount)];
+        for (int i = 0; i < lanes.length; i++) {
+            String threadName = name + "-" + i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, threadName);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        Metrics.gauge("ttt_executor_queued_tasks", "Tasks waiting in an executor's queue", this::queuedTasks,
+            "executor", name);
+    }
+
+    /**
+     * Run on the lane owning this key hash; use String.hashCode() so ids hash the same everywhere
+     */
+    public void execute(int keyHash, Runnable task) {
+        executeOnLane(laneFor(keyHash), task);
+    }
+
+    /**
+     * Run on a lane picked by laneFor, for callers that batch work for many keys per lane
+     */
+    public void executeOnLane(int lane, Runnable task) {
+        lanes[lane].execute(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("Task failed", e);
+            }
+        });
+    }
+
+    public int laneFor(int keyHash) {
+        // Spread the hash so ids with similar low bits don't pile onto one lane
+        int h = keyHash ^ (keyHash >>> 16);
+        return Math.floorMod(h * 0x9E3779B9, lanes.length);
+    }
+
+    public int laneCount() {
+        return lanes.length;
+    }
+
+    public int queuedTasks() {
+        int queued = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            queued += lane.getQueue().size();
+        }
+        return queued;
+    }
+
+    public void shutdown() {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+        try {
+            for (ThreadPoolExecutor lane : lanes) {
+                if (!lane.awaitTermination(5, TimeUnit.SECONDS)) {
+                    lane.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            for (ThreadPoolExecutor lane : lanes) {
+                lane.shutdownNow();
+            }
+        }
+    }
+}
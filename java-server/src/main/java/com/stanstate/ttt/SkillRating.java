@@ -0,0 +1,132 @@
+package com.stanstate.ttt;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Elo skill ratings per player
+ * Ratings live in memory for matchmaking and are persisted next to player_stats
+ */
+public class SkillRating {
+    private static final Log log = Log.get("rating");
+    public static final double DEFAULT_RATING = 1200.0;
+    private static final double PROVISIONAL_K = 40.0;
+    private static final double ESTABLISHED_K = 20.0;
+    private static final int PROVISIONAL_GAMES = 30;
+
+    private static SkillRating instance;
+    private final DatabaseManager dbManager;
+    private final ConcurrentHashMap<String, Rating> ratings;
+
+    // Rating cache entry
+    public static class Rating {
+        public volatile double value;
+        public volatile int ratedGames;
+
+        public Rating(double value, int ratedGames) {
+            this.value = value;
+            this.ratedGames = ratedGames;
+        }
+    }
+
+    private SkillRating() {
+        this.dbManager = DatabaseManager.getInstance();
+        this.ratings = new ConcurrentHashMap<>();
+    }
+
+    public static synchronized SkillRating getInstance() {
+        if (instance == null) {
+            instance = new SkillRating();
+        }
+        return instance;
+    }
+
+    public double getRating(String playerName) {
+        if (playerName == null) return DEFAULT_RATING;
+        return ratings.computeIfAbsent(playerName, this::loadRating).value;
+    }
+
+    /**
+     * Apply a finished game to both players' ratings and persist them
+     * result is "X_wins", "O_wins" or "draw"; player X is the first argument
+     */
+    public void recordResult(Connection conn, String playerXName, String playerOName, String result) {
+        if (playerXName == null || playerOName == null || playerXName.equals(playerOName)) {
+            return;
+        }
+
+        Rating x = ratings.computeIfAbsent(playerXName, this::loadRating);
+        Rating o = ratings.computeIfAbsent(playerOName, this::loadRating);
+
+        double scoreX;
+        if ("draw".equals(result)) {
+            scoreX = 0.5;
+        } else if (result != null && result.startsWith("X")) {
+            scoreX = 1.0;
+        } else {
+            scoreX = 0.0;
+        }
+
+        // Lock both entries in a stable order so concurrent games can't interleave updates
+        Rating first = playerXName.compareTo(playerOName) < 0 ? x : o;
+        Rating second = first == x ? o : x;
+        synchronized (first) {
+            synchronized (second) {
+                double expectedX = expectedScore(x.value, o.value);
+                double newX = x.value + kFactor(x) * (scoreX - expectedX);
+                double newO = o.value + kFactor(o) * ((1.0 - scoreX) - (1.0 - expectedX));
+
+                x.value = newX;
+                x.ratedGames++;
+                o.value = newO;
+                o.ratedGames++;
+            }
+        }
+
+        saveRating(conn, playerXName, x);
+        saveRating(conn, playerOName, o);
+
+        log.info("Updated ratings", "playerX", playerXName + "=" + Math.round(x.value),
+            "playerO", playerOName + "=" + Math.round(o.value));
+    }
+
+    public static double expectedScore(double rating, double opponentRating) {
+        return 1.0 / (1.0 + Math.pow(10.0, (opponentRating - rating) / 400.0));
+    }
+
+    private static double kFactor(Rating rating) {
+        return rating.ratedGames < PROVISIONAL_GAMES ? PROVISIONAL_K : ESTABLISHED_K;
+    }
+
+    private Rating loadRating(String playerName) {
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                 "SELECT rating, rated_games FROM player_stats WHERE player_name = ?")) {
+            stmt.setString(1, playerName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return new Rating(rs.getDouble("rating"), rs.getInt("rated_games"));
+                }
+            }
+        } catch (SQLException e) {
+            log.warn("Failed to load rating", "player", playerName, "error", e.getMessage());
+        }
+        return new Rating(DEFAULT_RATING, 0);
+    }
+
+    private void saveRating(Connection conn, String playerName, Rating rating) {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO player_stats (player_name, rating, rated_games) VALUES (?, ?, ?) " +
+                "ON CONFLICT(player_name) DO UPDATE SET rating = excluded.rating, rated_games = excluded.rated_games")) {
+            stmt.setString(1, playerName);
+            stmt.setDouble(2, rating.value);
+            stmt.setInt(3, rating.ratedGames);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            log.warn("Failed to save rating", "player", playerName, "error", e.getMessage());
+        }
+    }
+}
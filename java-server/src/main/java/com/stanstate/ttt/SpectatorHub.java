@@ -0,0 +1,182 @@
+package com.stanstate.ttt;
+
+import com.google.gson.JsonObject;
+import org.java_websocket.WebSocket;
+import org.java_websocket.framing.BinaryFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.TextFrame;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Observers following a match over WebSocket
+ * Each update is serialized once (JSON text, plus the binary encoding if any watcher negotiated it)
+ * and the bytes are shared by every watcher's frame. Fan-out runs on dedicated spectator lanes, never
+ * on the game or socket threads, and goes through OutboundBudget so a slow watcher only coalesces
+ * or gets disconnected - it can't hold up player updates.
+ */
+public class SpectatorHub {
+    static final int LANES = Integer.getInteger("ttt.spectator.lanes",
+        Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+    static final int MAX_WATCHES_PER_CONNECTION = Integer.getInteger("ttt.spectator.maxWatches", 8);
+
+    private static SpectatorHub instance;
+    private final ConcurrentHashMap<String, Set<WebSocket>> audiences;
+    private final ShardedExecutor lanes;
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private SpectatorHub() {
+        this.audiences = new ConcurrentHashMap<>();
+        this.lanes = new ShardedExecutor("spectator", LANES);
+    }
+
+    public static synchronized SpectatorHub getInstance() {
+        if (instance == null) {
+            instance = new SpectatorHub();
+        }
+        return instance;
+    }
+
+    /**
+     * Subscribe a connection to a match; false when it already watches too many matches
+     */
+    public boolean watch(String matchId, WebSocket conn) {
+        ConnectionContext context = ConnectionContext.of(conn);
+        if (!context.watching.contains(matchId) && context.watching.size() >= MAX_WATCHES_PER_CONNECTION) {
+            return false;
+        }
+        context.watching.add(matchId);
+        audiences.computeIfAbsent(matchId, k -> ConcurrentHashMap.newKeySet()).add(conn);
+        return true;
+    }
+
+    public boolean unwatch(String matchId, WebSocket conn) {
+        ConnectionContext context = conn.getAttachment();
+        if (context != null) {
+            context.watching.remove(matchId);
+        }
+        Set<WebSocket> audience = audiences.get(matchId);
+        boolean removed = audience != null && audience.remove(conn);
+        if (audience != null && audience.isEmpty()) {
+            audiences.remove(matchId, audience);
+        }
+        return removed;
+    }
+
+    /**
+     * Drop every subscription of a closed connection
+     */
+    public void unwatchAll(WebSocket conn) {
+        ConnectionContext context = conn.getAttachment();
+        if (context == null) return;
+        for (String matchId : context.watching) {
+            unwatch(matchId, conn);
+        }
+    }
+
+    /**
+     * Match is over: forget its audience once the final update has been queued
+     */
+    public void close(String matchId) {
+        Set<WebSocket> audience = audiences.remove(matchId);
+        if (audience == null) return;
+        for (WebSocket conn : audience) {
+            ConnectionContext context = conn.getAttachment();
+            if (context != null) {
+                context.watching.remove(matchId);
+            }
+        }
+    }
+
+    public int audienceSize(String matchId) {
+        Set<WebSocket> audience = audiences.get(matchId);
+        return audience == null ? 0 : audience.size();
+    }
+
+    /**
+     * Fan one update out to everyone watching the match
+     */
+    public void publish(String matchId, JsonObject message) {
+        Set<WebSocket> audience = audiences.get(matchId);
+        if (audience == null || audience.isEmpty()) return;
+        published.increment();
+
+        ByteBuffer text = ByteBuffer.wrap(message.toString().getBytes(StandardCharsets.UTF_8));
+        ByteBuffer binary = null;
+        boolean binaryEncoded = false;
+        String supersedeKey = OutboundBudget.supersedeKey(message);
+
+        // A watcher always lands on the same lane, so it sees updates in publish order
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        List<WebSocket>[] byLane = new List[lanes.laneCount()];
+        for (WebSocket conn : audience) {
+            ConnectionContext context = conn.getAttachment();
+            if (!binaryEncoded && context != null && context.binaryProtocol) {
+                binary = BinaryProtocol.encode(message);
+                binaryEncoded = true;
+            }
+            int lane = lanes.laneFor(System.identityHashCode(conn));
+            if (byLane[lane] == null) byLane[lane] = new ArrayList<>();
+            byLane[lane].add(conn);
+        }
+
+        ByteBuffer binaryPayload = binary;
+        for (int lane = 0; lane < byLane.length; lane++) {
+            List<WebSocket> watchers = byLane[lane];
+            if (watchers != null) {
+                lanes.executeOnLane(lane, () -> deliver(watchers, text, binaryPayload, supersedeKey));
+            }
+        }
+    }
+
+    private void deliver(List<WebSocket> watchers, ByteBuffer text, ByteBuffer binary, String supersedeKey) {
+        OutboundBudget budget = OutboundBudget.getInstance();
+        for (WebSocket conn : watchers) {
+            ConnectionContext context = conn.getAttachment();
+            boolean useBinary = binary != null && context != null && context.binaryProtocol;
+
+            // Frames are per connection (extensions rewrite the payload); the bytes are shared
+            DataFrame frame = useBinary ? new BinaryFrame() : new TextFrame();
+            frame.setPayload((useBinary ? binary : text).duplicate());
+            try {
+                switch (budget.send(conn, frame, supersedeKey)) {
+                    case SENT: delivered.increment(); break;
+                    case DEFERRED: deferred.increment(); break;
+                    default: dropped.increment();
+                }
+            } catch (Exception e) {
+                dropped.increment();
+            }
+        }
+    }
+
+    public JsonObject snapshot() {
+        int watchers = 0;
+        for (Set<WebSocket> audience : audiences.values()) {
+            watchers += audience.size();
+        }
+        JsonObject stats = new JsonObject();
+        stats.addProperty("success", true);
+        stats.addProperty("watchedMatches", audiences.size());
+        stats.addProperty("watchers", watchers);
+        stats.addProperty("lanes", lanes.laneCount());
+        stats.addProperty("queuedFanouts", lanes.queuedTasks());
+        stats.addProperty("published", published.sum());
+        stats.addProperty("delivered", delivered.sum());
+        stats.addProperty("deferred", deferred.sum());
+        stats.addProperty("dropped", dropped.sum());
+        return stats;
+    }
+
+    public void shutdown() {
+        lanes.shutdown();
+    }
+}
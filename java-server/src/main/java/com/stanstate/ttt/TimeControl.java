@@ -0,0 +1,114 @@
+package com.stanstate.ttt;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clock settings for a match: a limit per move, a total budget per player and an increment
+ * added to the mover's budget after each move. A zero limit is off; with both off the match is
+ * untimed. Named presets cover the usual modes, and a custom control is written
+ * "perMove/total/increment" in seconds, e.g. "15/120/2".
+ *
+ * Configuration (system properties, read once by configure() at startup):
+ *   ttt.clock.ranked=standard    control for matchmaking pairs
+ *   ttt.clock.custom=standard    control for created matches that name none
+ */
+public final class TimeControl {
+    private static final long MAX_SECONDS = 3_600;
+
+    public static final TimeControl UNTIMED = new TimeControl("untimed", 0, 0, 0);
+    public static final TimeControl STANDARD = new TimeControl("standard", 120, 0, 0);  // TttRoom's turn timer
+    public static final TimeControl RAPID = new TimeControl("rapid", 30, 300, 5);
+    public static final TimeControl BLITZ = new TimeControl("blitz", 10, 60, 2);
+    public static final TimeControl BULLET = new TimeControl("bullet", 5, 20, 1);
+
+    private static final TimeControl[] PRESETS = {UNTIMED, STANDARD, RAPID, BLITZ, BULLET};
+
+    private static volatile TimeControl ranked = STANDARD;
+    private static volatile TimeControl custom = STANDARD;
+
+    public final String name;
+    final long perMoveNanos;
+    final long totalNanos;
+    final long incrementNanos;
+
+    private TimeControl(String name, long perMoveSeconds, long totalSeconds, long incrementSeconds) {
+        this.name = name;
+        this.perMoveNanos = TimeUnit.SECONDS.toNanos(perMoveSeconds);
+        this.totalNanos = TimeUnit.SECONDS.toNanos(totalSeconds);
+        this.incrementNanos = TimeUnit.SECONDS.toNanos(incrementSeconds);
+    }
+
+    /**
+     * A preset by name or a custom "perMove/total/increment" control; null or blank gives the fallback
+     */
+    public static TimeControl parse(String spec, TimeControl fallback) {
+        if (spec == null || spec.isBlank()) {
+            return fallback;
+        }
+        String value = spec.trim().toLowerCase(Locale.ROOT);
+        for (TimeControl preset : PRESETS) {
+            if (preset.name.equals(value)) return preset;
+        }
+
+        String[] parts = value.split("/");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Unknown time control " + spec);
+        }
+        long[] seconds = new long[3];
+        for (int i = 0; i < 3; i++) {
+            try {
+                seconds[i] = Long.parseLong(parts[i].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Unknown time control " + spec);
+            }
+            if (seconds[i] < 0 || seconds[i] > MAX_SECONDS) {
+                throw new IllegalArgumentException("Time control limits must be 0-" + MAX_SECONDS + " seconds");
+            }
+        }
+        if (seconds[0] == 0 && seconds[1] == 0) {
+            return UNTIMED;
+        }
+        return new TimeControl(seconds[0] + "/" + seconds[1] + "/" + seconds[2], seconds[0], seconds[1], seconds[2]);
+    }
+
+    /**
+     * Read ttt.clock.ranked and ttt.clock.custom; called by Main before any listener opens, so a bad
+     * value stops startup with an IllegalArgumentException naming the property
+     */
+    public static void configure() {
+        TimeControl rankedControl = property("ttt.clock.ranked");
+        TimeControl customControl = property("ttt.clock.custom");
+        ranked = rankedControl;
+        custom = customControl;
+    }
+
+    private static TimeControl property(String name) {
+        try {
+            return parse(System.getProperty(name), STANDARD);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(name + ": " + e.getMessage(), e);
+        }
+    }
+
+    public static TimeControl ranked() {
+        return ranked;
+    }
+
+    public static TimeControl custom() {
+        return custom;
+    }
+
+    public boolean isTimed() {
+        return perMoveNanos > 0 || totalNanos > 0;
+    }
+
+    public boolean hasTotal() {
+        return totalNanos > 0;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,111 @@
+package com.stanstate.ttt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-match deadline churn: ScheduledThreadPoolExecutor against the TimerService wheel
+ * Each thread plays the turn-clock pattern, scheduling a deadline two minutes out and cancelling
+ * the previous one, on top of a standing population of live deadlines. The executor keeps every
+ * deadline in one locked heap (O(log n) per operation, all threads on one lock); the wheel only
+ * pushes onto lock-free queues and leaves bucket work to its own thread.
+ *
+ * Usage: TimerBenchmark [operationsPerThread=200000] [liveDeadlines=100000] [maxThreads=cores]
+ */
+public class TimerBenchmark {
+    private interface Clock {
+        Object schedule(Runnable task);
+
+        void cancel(Object handle);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int live = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        System.out.println("=== Timer Benchmark ===");
+        System.out.println(operations + " schedule+cancel pairs per thread over " + live + " live deadlines");
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);  // otherwise cancelled tasks stay in the heap for two minutes
+        Clock heap = new Clock() {
+            public Object schedule(Runnable task) {
+                return executor.schedule(task, 120, TimeUnit.SECONDS);
+            }
+
+            public void cancel(Object handle) {
+                ((ScheduledFuture<?>) handle).cancel(false);
+            }
+        };
+        TimerService timer = new TimerService(10, 512, 1, 1);
+        Clock wheel = new Clock() {
+            public Object schedule(Runnable task) {
+                return timer.schedule(task, 120, TimeUnit.SECONDS);
+            }
+
+            public void cancel(Object handle) {
+                ((TimerService.Timeout) handle).cancel();
+            }
+        };
+
+        Runnable noop = () -> { };
+        for (int i = 0; i < live; i++) {
+            heap.schedule(noop);
+            wheel.schedule(noop);
+        }
+
+        List<String> rows = new ArrayList<>();
+        for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+            // Warm-up pass, then the measured one
+            measure(heap, threads, operations / 4, noop);
+            double heapRate = measure(heap, threads, operations, noop);
+            measure(wheel, threads, operations / 4, noop);
+            double wheelRate = measure(wheel, threads, operations, noop);
+            rows.add(String.format(" %7d | %12.0f | %12.0f", threads, heapRate / 1000, wheelRate / 1000));
+            if (threads >= maxThreads) break;
+        }
+
+        System.out.println("\nschedule+cancel pairs/s (thousands)");
+        System.out.println(" threads | sched. exec. | timer wheel");
+        for (String row : rows) {
+            System.out.println(row);
+        }
+        System.out.println("\nScheduler threads before: GameStateCache 2, DatabaseManager 1, WebSocketNotifier 3 per"
+            + " instance, MatchmakingQueue 1 per queue, OutboundBudget 1, ping 1 per server; after: 1 wheel + "
+            + Integer.getInteger("ttt.timer.taskThreads", 2) + " task threads");
+        executor.shutdownNow();
+        timer.shutdown();
+    }
+
+    private static double measure(Clock clock, int threads, int operations, Runnable task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    Object previous = clock.schedule(task);
+                    for (int i = 0; i < operations; i++) {
+                        Object next = clock.schedule(task);
+                        clock.cancel(previous);
+                        previous = next;
+                    }
+                    clock.cancel(previous);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return (double) threads * operations / ((System.nanoTime() - begin) / 1e9);
+    }
+}
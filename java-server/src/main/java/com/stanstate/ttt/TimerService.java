@@ -0,0 +1,348 @@
+package com.stanstate.ttt;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Process-wide hashed timer wheel for deadlines and periodic maintenance
+ * One thread advances the wheel a tick at a time and expires the bucket under it. Scheduling is a
+ * push onto a lock-free queue and cancelling is a single CAS, so both are O(1) and never contend on
+ * a heap the way ScheduledThreadPoolExecutor does; the wheel thread moves new timeouts into their
+ * bucket and drops cancelled ones the next time it passes them (within one rotation). Timeouts
+ * fire within one tick of their deadline, which is plenty for turn clocks, retries and sweeps.
+ *
+ * One-shot timeouts run on the wheel thread and must only hand work off (e.g. to the game pool).
+ * Periodic tasks run on a small shared task pool and never overlap with themselves. That pool is
+ * for short in-memory jobs (matchmaking passes, pings, outbound flushes); jobs that block on the
+ * database or other I/O are scheduled with scheduleBlockingAtFixedRate onto a separate pool, so a
+ * slow query delays other blocking jobs but never a matchmaking pass or a ping.
+ *
+ * Configuration (system properties):
+ *   ttt.timer.tickMillis=10       tick length
+ *   ttt.timer.wheelSize=512       buckets (one rotation = tick x size)
+ *   ttt.timer.taskThreads=2       threads for periodic tasks
+ *   ttt.timer.blockingThreads=1   threads for periodic tasks that block (database maintenance)
+ */
+public final class TimerService {
+    /**
+     * Handle to a scheduled timeout or periodic task
+     */
+    public interface Timeout {
+        /**
+         * False if it already fired (one-shot) or was already cancelled
+         */
+        boolean cancel();
+
+        boolean isCancelled();
+    }
+
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+    private static final Log log = Log.get("timer");
+    private static final Metrics.Timer TICK_LAG = Metrics.timer("ttt_timer_tick_lag_seconds",
+        "How late the timer wheel started each tick");
+    private static final Metrics.Counter EXPIRED_TOTAL = Metrics.counter("ttt_timer_expired_total", "Timeouts that fired");
+    private static final Metrics.Counter CANCELLED_TOTAL = Metrics.counter("ttt_timer_cancelled_total", "Timeouts cancelled");
+
+    private static TimerService instance;
+
+    private static final class Entry implements Timeout {
+        private static final int INIT = 0, CANCELLED = 1, EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Entry> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Entry.class, "state");
+
+        final TimerService timer;
+        final Runnable task;
+        final long deadline;  // nanos since the wheel started
+        volatile int state;
+
+        // Owned by the wheel thread
+        long remainingRounds;
+        Entry next;
+        Entry prev;
+
+        Entry(TimerService timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, INIT, CANCELLED)) return false;
+            timer.pending.decrement();
+            CANCELLED_TOTAL.increment();
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        void expire() {
+            if (!STATE.compareAndSet(this, INIT, EXPIRED)) return;
+            timer.pending.decrement();
+            EXPIRED_TOTAL.increment();
+            try {
+                task.run();
+            } catch (Throwable e) {
+                log.error("Timeout task failed", e);
+            }
+        }
+    }
+
+    // Doubly linked list of entries, touched only by the wheel thread
+    private static final class Bucket {
+        Entry head;
+        Entry tail;
+
+        void add(Entry entry) {
+            if (head == null) {
+                head = tail = entry;
+            } else {
+                tail.next = entry;
+                entry.prev = tail;
+                tail = entry;
+            }
+        }
+
+        Entry remove(Entry entry) {
+            Entry next = entry.next;
+            if (entry.prev != null) entry.prev.next = next;
+            if (entry.next != null) entry.next.prev = entry.prev;
+            if (entry == head) head = next;
+            if (entry == tail) tail = entry.prev;
+            entry.prev = entry.next = null;
+            return next;
+        }
+
+        void expire(long tickDeadline) {
+            Entry entry = head;
+            while (entry != null) {
+                if (entry.state == Entry.CANCELLED) {
+                    entry = remove(entry);
+                } else if (entry.remainingRounds <= 0 && entry.deadline <= tickDeadline) {
+                    Entry next = remove(entry);
+                    entry.expire();
+                    entry = next;
+                } else {
+                    entry.remainingRounds--;
+                    entry = entry.next;
+                }
+            }
+        }
+    }
+
+    // A repeating task: re-armed on the wheel after each run, so runs never overlap
+    private final class Periodic implements Timeout, Runnable {
+        final String name;
+        final Runnable task;
+        final Executor pool;
+        final long periodNanos;
+        final boolean fixedRate;
+        long nextRun;
+        volatile boolean stopped;
+        volatile Timeout current;
+
+        Periodic(String name, Runnable task, Executor pool, long firstRun, long periodNanos, boolean fixedRate) {
+            this.name = name;
+            this.task = task;
+            this.pool = pool;
+            this.nextRun = firstRun;
+            this.periodNanos = periodNanos;
+            this.fixedRate = fixedRate;
+        }
+
+        // Fires on the wheel thread; the task itself runs on its pool
+        @Override
+        public void run() {
+            if (stopped) return;
+            pool.execute(() -> {
+                try {
+                    if (!stopped) task.run();
+                } catch (Throwable e) {
+                    log.error("Periodic task failed", "task", name, e);
+                } finally {
+                    if (!stopped) {
+                        nextRun = fixedRate ? nextRun + periodNanos : System.nanoTime() + periodNanos;
+                        current = scheduleAt(nextRun, this);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public boolean cancel() {
+            if (stopped) return false;
+            stopped = true;
+            Timeout armed = current;
+            if (armed != null) armed.cancel();
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return stopped;
+        }
+    }
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startTime;
+    private final Queue<Entry> scheduled = new ConcurrentLinkedQueue<>();
+    private final LongAdder pending = new LongAdder();
+    private final ThreadPoolExecutor taskPool;
+    private final ThreadPoolExecutor blockingPool;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private long tick;  // wheel thread only
+
+    TimerService(long tickMillis, int wheelSize, int taskThreads, int blockingThreads) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int size = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.taskPool = pool("timer-task-", taskThreads);
+        this.blockingPool = pool("timer-blocking-", blockingThreads);
+        this.startTime = System.nanoTime();
+        this.thread = new Thread(this::wheelLoop, "timer-wheel");
+        thread.setDaemon(true);
+        thread.start();
+
+        Metrics.gauge("ttt_timer_pending", "Scheduled timeouts not yet fired or cancelled", pending::sum);
+        Metrics.gauge("ttt_executor_queued_tasks", "Tasks waiting in an executor's queue",
+            () -> taskPool.getQueue().size(), "executor", "timer");
+        Metrics.gauge("ttt_executor_queued_tasks", "Tasks waiting in an executor's queue",
+            () -> blockingPool.getQueue().size(), "executor", "timer-blocking");
+    }
+
+    private static ThreadPoolExecutor pool(String prefix, int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 0L,
+            TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, prefix + threadCount.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            });
+    }
+
+    public static synchronized TimerService getInstance() {
+        if (instance == null) {
+            instance = new TimerService(Long.getLong("ttt.timer.tickMillis", 10),
+                Integer.getInteger("ttt.timer.wheelSize", 512), Integer.getInteger("ttt.timer.taskThreads", 2),
+                Integer.getInteger("ttt.timer.blockingThreads", 1));
+        }
+        return instance;
+    }
+
+    /**
+     * Run task on the wheel thread once delay has passed; keep it short and non-blocking
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return scheduleAt(System.nanoTime() + unit.toNanos(Math.max(0, delay)), task);
+    }
+
+    /**
+     * Run task on the wheel thread at a System.nanoTime() deadline
+     */
+    public Timeout scheduleAt(long deadlineNanoTime, Runnable task) {
+        Entry entry = new Entry(this, task, deadlineNanoTime - startTime);
+        pending.increment();
+        scheduled.add(entry);
+        return entry;
+    }
+
+    /**
+     * Run task on the task pool every period, measured from the planned start of the previous run
+     */
+    public Timeout scheduleAtFixedRate(String name, Runnable task, long initialDelay, long period, TimeUnit unit) {
+        return startPeriodic(name, task, taskPool, initialDelay, period, unit, true);
+    }
+
+    /**
+     * Same, on the blocking pool, for tasks that wait on the database or other I/O
+     */
+    public Timeout scheduleBlockingAtFixedRate(String name, Runnable task, long initialDelay, long period, TimeUnit unit) {
+        return startPeriodic(name, task, blockingPool, initialDelay, period, unit, true);
+    }
+
+    /**
+     * Run task on the task pool with delay between the end of one run and the start of the next
+     */
+    public Timeout scheduleWithFixedDelay(String name, Runnable task, long initialDelay, long delay, TimeUnit unit) {
+        return startPeriodic(name, task, taskPool, initialDelay, delay, unit, false);
+    }
+
+    private Timeout startPeriodic(String name, Runnable task, Executor pool, long initialDelay, long period,
+                                  TimeUnit unit, boolean fixedRate) {
+        Periodic periodic = new Periodic(name, task, pool, System.nanoTime() + unit.toNanos(initialDelay),
+            Math.max(tickNanos, unit.toNanos(period)), fixedRate);
+        periodic.current = scheduleAt(periodic.nextRun, periodic);
+        return periodic;
+    }
+
+    private void wheelLoop() {
+        while (running) {
+            long tickDeadline = tickNanos * (tick + 1);
+            long lag = awaitTick(tickDeadline);
+            if (!running) break;
+            TICK_LAG.recordMicros(lag / 1_000);
+            transferScheduled();
+            wheel[(int) (tick & mask)].expire(tickDeadline);
+            tick++;
+        }
+    }
+
+    // Sleeps until the tick's deadline; returns how late we woke
+    private long awaitTick(long tickDeadline) {
+        while (running) {
+            long now = System.nanoTime() - startTime;
+            long wait = tickDeadline - now;
+            if (wait <= 0) {
+                return -wait;
+            }
+            LockSupport.parkNanos(this, wait);
+        }
+        return 0;
+    }
+
+    private void transferScheduled() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Entry entry = scheduled.poll();
+            if (entry == null) return;
+            if (entry.state != Entry.INIT) continue;
+            long due = entry.deadline / tickNanos;
+            entry.remainingRounds = (due - tick) / wheel.length;
+            // Already due: the current tick picks it up
+            long ticks = Math.max(due, tick);
+            wheel[(int) (ticks & mask)].add(entry);
+        }
+    }
+
+    public long pending() {
+        return pending.sum();
+    }
+
+    /**
+     * Stop the wheel; timeouts not yet fired are dropped and periodic tasks stop
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+        taskPool.shutdown();
+        blockingPool.shutdown();
+        log.info("Timer wheel stopped", "pending", pending.sum());
+    }
+}
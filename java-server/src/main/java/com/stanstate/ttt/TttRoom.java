@@ -1,12 +1,13 @@
 package com.stanstate.ttt;
 import com.google.gson.JsonObject;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 public class TttRoom extends Room {
+  private static final Log log = Log.get("room");
   private ClientSession p1, p2;
   private int xMask=0, oMask=0; private boolean xTurn=true;
-  private ScheduledFuture<?> timer;
+  private TimerService.Timeout timer;
+  private int turnSeq;  // bumped on every move, so a stale forfeit can tell
   private static final int[] WINS = {
     0b111000000,0b000111000,0b000000111,
     0b100100100,0b010010010,0b001001001,
@@ -21,33 +22,29 @@ public class TttRoom extends Room {
   }
   @Override public void onMove(ClientSession s, int cell){
     sched.execute(() -> {
-      System.out.println("MOVE: Player " + (s==p1?"X":"O") + " attempting move at cell " + cell + " in match " + id);
       boolean isX = (s==p1);
       if (xTurn != isX) {
-        System.out.println("MOVE REJECTED: Not " + (isX?"X":"O") + "'s turn (current turn: " + (xTurn?"X":"O") + ")");
+        log.debug("Move rejected: not your turn", "match", id, "cell", cell);
         return;
       }
       if (cell<0||cell>8) {
-        System.out.println("MOVE REJECTED: Invalid cell " + cell);
+        log.debug("Move rejected: invalid cell", "match", id, "cell", cell);
         return;
       }
       int bit = 1 << (8 - cell);
       if (((xMask|oMask)&bit)!=0) {
-        System.out.println("MOVE REJECTED: Cell " + cell + " already occupied");
+        log.debug("Move rejected: cell occupied", "match", id, "cell", cell);
         return;
       }
       if (isX) xMask|=bit; else oMask|=bit;
       xTurn=!xTurn;
-      System.out.println("MOVE ACCEPTED: Cell " + cell + " marked by " + (isX?"X":"O") + ", next turn: " + (xTurn?"X":"O"));
-      System.out.println("BOARD STATE: " + boardString());
+      if (log.isDebugEnabled()) log.debug("Move accepted", "match", id, "cell", cell, "board", boardString());
       String res = result();
-      System.out.println("GAME RESULT: " + res);
       if (!"ongoing".equals(res)){ 
-        System.out.println("GAME ENDING: " + res);
+        log.info("Game over", "match", id, "result", res);
         cancelTimer(); 
         broadcastOver(res); 
       } else { 
-        System.out.println("GAME CONTINUING: Scheduling new timer");
         scheduleTimer(); 
         broadcastState(res); 
       }
@@ -65,19 +62,21 @@ public class TttRoom extends Room {
     if ((xMask|oMask)==0b111111111) return "draw";
     return "ongoing";
   }
+  // O(1) wheel timeout per turn; it fires on the wheel thread and hands the forfeit to the room's executor
   private void scheduleTimer(){ 
     cancelTimer(); 
-    System.out.println("TIMER: Scheduling 120-second forfeit timer for match " + id + ", current turn: " + (xTurn ? "X" : "O"));
-    timer=sched.schedule(() -> {
-      System.out.println("TIMER EXPIRED: 120 seconds elapsed for match " + id + ", declaring forfeit for " + (xTurn ? "X" : "O"));
+    int turn = ++turnSeq;
+    timer = TimerService.getInstance().schedule(() -> sched.execute(() -> {
+      if (turn != turnSeq) return;  // a move or the game's end landed while this was queued
+      log.info("Turn timer expired, forfeit", "match", id, "turn", xTurn ? "X" : "O");
       String winner = xTurn?"O":"X"; 
       broadcastOver("forfeit:"+winner);
-    }, 120, TimeUnit.SECONDS); 
+    }), 120, TimeUnit.SECONDS);
   }
   private void cancelTimer(){ 
+    turnSeq++;
     if (timer!=null) {
-      System.out.println("TIMER: Canceling forfeit timer for match " + id);
-      timer.cancel(false); 
+      timer.cancel(); 
     }
   }
   private void broadcastState(String res){
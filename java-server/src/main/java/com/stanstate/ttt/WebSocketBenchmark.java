@@ -0,0 +1,116 @@
+package com.stanstate.ttt;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process WebSocket throughput benchmark
+ * Starts a Server for each decoder/worker count (1, 2, 4 ... cores), opens N client connections
+ * and measures connection setup rate and "state" command round trips per second. The commands
+ * run through a real GameService, so each round trip includes admission and the game-state read.
+ *
+ * Usage: WebSocketBenchmark [connections=200] [messagesPerConnection=200] [basePort=19080]
+ */
+public class WebSocketBenchmark {
+    // One game service for all runs; the servers share the static notifier it pushes through
+    private static WebSocketCommandHandler commandHandler;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int messagesPerConnection = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int basePort = args.length > 2 ? Integer.parseInt(args[2]) : 19080;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.println("=== WebSocket Benchmark ===");
+        System.out.println(connections + " connections x " + messagesPerConnection + " messages, " + cores + " cores");
+
+        // Every client is one local host; the per-address rate limit would measure itself
+        if (System.getProperty("ttt.ratelimit.enabled") == null) {
+            System.setProperty("ttt.ratelimit.enabled", "false");
+        }
+        // Every command is sent before the first reply is read; admission would shed the burst
+        if (System.getProperty("ttt.admission.queue.state") == null) {
+            System.setProperty("ttt.admission.queue.state", String.valueOf(connections * messagesPerConnection));
+        }
+        DatabaseManager.getInstance().initializeDatabase();
+
+        List<String> results = new ArrayList<>();
+        int run = 0;
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            results.add(runOnce(basePort + run++, threads, connections, messagesPerConnection));
+            if (threads >= cores) break;
+        }
+
+        System.out.println("\n threads | connect/s | round trips/s");
+        for (String line : results) {
+            System.out.println(line);
+        }
+        System.exit(0);
+    }
+
+    private static String runOnce(int port, int threads, int connections, int messagesPerConnection) throws Exception {
+        ShardedExecutor workers = new ShardedExecutor("bench-worker", threads);
+        Server server = new Server(port, threads, workers);
+        if (commandHandler == null) {
+            commandHandler = new WebSocketCommandHandler(new GameService(DatabaseManager.getInstance(), Server.getNotifier()));
+        }
+        server.setCommandHandler(commandHandler);
+        server.start();
+        Thread.sleep(500);
+
+        CountDownLatch replies = new CountDownLatch(connections * messagesPerConnection);
+        AtomicLong failures = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        List<WebSocketClient> clients = new ArrayList<>();
+
+        long connectStart = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            WebSocketClient client = new WebSocketClient(new URI("ws://127.0.0.1:" + port)) {
+                @Override public void onOpen(ServerHandshake handshake) { }
+                @Override public void onMessage(String message) {
+                    // A refused command (admission, deadline) still replies, but is reported apart
+                    if (!message.startsWith("{\"t\":\"reply\"")) return;
+                    if (message.contains("\"success\":false")) rejected.incrementAndGet();
+                    replies.countDown();
+                }
+                @Override public void onClose(int code, String reason, boolean remote) { }
+                @Override public void onError(Exception ex) { failures.incrementAndGet(); }
+            };
+            if (client.connectBlocking(5, TimeUnit.SECONDS)) {
+                client.send("{\"t\":\"register\",\"sessionId\":\"bench-" + port + "-" + i + "\"}");
+                clients.add(client);
+            } else {
+                failures.incrementAndGet();
+            }
+        }
+        double connectSeconds = (System.nanoTime() - connectStart) / 1e9;
+
+        long start = System.nanoTime();
+        for (int m = 0; m < messagesPerConnection; m++) {
+            for (WebSocketClient client : clients) {
+                client.send("{\"t\":\"state\",\"rid\":\"" + m + "\",\"ignored\":{\"pad\":[1,2,3]}}");
+            }
+        }
+        boolean completed = replies.await(60, TimeUnit.SECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long received = (long) connections * messagesPerConnection - replies.getCount() - rejected.get();
+
+        for (WebSocketClient client : clients) {
+            client.closeBlocking();
+        }
+        server.stop(1000);
+        workers.shutdown();
+
+        String line = String.format(" %7d | %9.0f | %13.0f%s", threads, clients.size() / connectSeconds,
+            received / seconds, completed && failures.get() == 0 && rejected.get() == 0 ? ""
+                : "  (incomplete, " + failures.get() + " failures, " + rejected.get() + " rejected)");
+        System.out.println(line);
+        return line;
+    }
+}
@@ -0,0 +1,253 @@
+package com.stanstate.ttt;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.java_websocket.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Lobby and game commands over the already-open WebSocket
+ * Mirrors the /api/* routes so a move skips the HTTP round trip entirely.
+ *
+ * Request:  {"t":"move","rid":"42","matchId":"...","cell":4}
+ * Reply:    {"t":"reply","rid":"42","op":"move","success":true,...}
+ *
+ * The session is taken from the socket's registration, or from "sessionId" in the command.
+ * Moves are pushed to both players as {"t":"delta","seq":n,...}; a client that sees a gap
+ * sends {"t":"sync","since":lastSeq} to get the missing deltas or a full snapshot.
+ *
+ * Spectators need no session: {"t":"watch","matchId":"..."} replies with a snapshot and then
+ * streams the match's deltas until {"t":"unwatch"}, the end of the match, or disconnect.
+ */
+public class WebSocketCommandHandler {
+    private static final Log log = Log.get("ws");
+    private final GameService gameService;
+
+    public WebSocketCommandHandler(GameService gameService) {
+        this.gameService = gameService;
+    }
+
+    static final String[] COMMANDS = {
+        "join", "leave_queue", "create_match", "join_match", "move", "state", "sync", "matches",
+        "stats", "watch", "unwatch"
+    };
+
+    public static boolean isCommand(String type) {
+        for (String command : COMMANDS) {
+            if (command.equals(type)) return true;
+        }
+        return false;
+    }
+
+    public void handle(WebSocket conn, String type, JsonObject msg) {
+        String rid = msg.has("rid") ? msg.get("rid").getAsString() : null;
+        String sessionId = resolveSession(conn, msg);
+
+        if (sessionId == null && !allowsAnonymous(type)) {
+            sendError(conn, rid, type, "Session not registered - send sessionId first");
+            return;
+        }
+
+        CompletableFuture<JsonObject> result;
+        try {
+            result = execute(conn, type, sessionId, msg);
+        } catch (Exception e) {
+            // Missing or malformed fields
+            sendError(conn, rid, type, "Invalid command: " + e.getMessage());
+            return;
+        }
+
+        // Reply when the game thread finishes; the socket thread never blocks
+        result.whenComplete((payload, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                sendError(conn, rid, type, cause.getMessage());
+            } else {
+                sendReply(conn, rid, type, payload);
+            }
+        });
+    }
+
+    /**
+     * Binary MOVE frame; replied to with a binary MOVE_RESULT carrying the new state
+     */
+    public void handleBinaryMove(WebSocket conn, BinaryProtocol.Move move) {
+        ConnectionContext context = conn.getAttachment();
+        String sessionId = context == null ? null : context.getSessionId();
+        if (sessionId == null) {
+            sendBinary(conn, BinaryProtocol.moveResult(move.rid, false, ".........", "X", false, "ongoing"));
+            return;
+        }
+
+        gameService.makeMove(sessionId, move.matchId, move.cell)
+            .thenCompose(moved -> gameService.getGameStateForSession(sessionId).thenApply(state -> {
+                boolean hasMatch = state.has("hasMatch") && state.get("hasMatch").getAsBoolean();
+                return BinaryProtocol.moveResult(move.rid, moved,
+                    hasMatch ? state.get("board").getAsString() : ".........",
+                    hasMatch ? state.get("currentTurn").getAsString() : "X",
+                    hasMatch && state.get("yourTurn").getAsBoolean(),
+                    hasMatch ? state.get("result").getAsString() : "ongoing");
+            }))
+            .whenComplete((frame, error) -> {
+                if (error != null) {
+                    log.warn("Binary move failed", "error", error.getMessage());
+                    sendBinary(conn, BinaryProtocol.moveResult(move.rid, false, ".........", "X", false, "ongoing"));
+                } else {
+                    sendBinary(conn, frame);
+                }
+            });
+    }
+
+    static boolean allowsAnonymous(String type) {
+        return "matches".equals(type) || "stats".equals(type) || "watch".equals(type) || "unwatch".equals(type);
+    }
+
+    /**
+     * Run one command; also used by BatchExecutor for /api/batch, where there is no socket (conn == null)
+     */
+    CompletableFuture<JsonObject> execute(WebSocket conn, String type, String sessionId, JsonObject msg) {
+        if (conn == null && ("watch".equals(type) || "unwatch".equals(type))) {
+            throw new IllegalArgumentException(type + " needs a WebSocket connection");
+        }
+
+        switch (type) {
+            case "join": {
+                String playerName = stringOr(msg, "name", "Player-" + sessionId.substring(0, Math.min(8, sessionId.length())));
+                return gameService.joinGame(sessionId, playerName).thenApply(matchId -> {
+                    JsonObject payload = success(true);
+                    payload.addProperty("sessionId", sessionId);
+                    payload.addProperty("matchId", matchId);
+                    return payload;
+                });
+            }
+            case "leave_queue":
+                return gameService.leaveQueue(sessionId).thenApply(cancelled -> {
+                    JsonObject payload = success(true);
+                    payload.addProperty("cancelled", cancelled);
+                    return payload;
+                });
+            case "create_match": {
+                String playerName = msg.get("playerName").getAsString();
+                String matchName = stringOr(msg, "matchName", playerName + "'s Game");
+                TimeControl timeControl = TimeControl.parse(stringOr(msg, "timeControl", null), TimeControl.custom());
+                return gameService.createMatch(sessionId, playerName, matchName, timeControl).thenApply(matchId -> {
+                    JsonObject payload = success(true);
+                    payload.addProperty("matchId", matchId);
+                    payload.addProperty("timeControl", timeControl.name);
+                    return payload;
+                });
+            }
+            case "join_match": {
+                String playerName = msg.get("playerName").getAsString();
+                String matchId = msg.get("matchId").getAsString();
+                return gameService.joinSpecificMatch(sessionId, playerName, matchId).thenApply(joined -> {
+                    JsonObject payload = success(joined);
+                    payload.addProperty("matchId", matchId);
+                    if (!joined) payload.addProperty("error", "Failed to join match - may be full or not exist");
+                    return payload;
+                });
+            }
+            case "move": {
+                String matchId = msg.get("matchId").getAsString();
+                int cell = msg.get("cell").getAsInt();
+                // Reply with the resulting state so the mover needs no follow-up query
+                return gameService.makeMove(sessionId, matchId, cell)
+                    .thenCompose(moved -> gameService.getGameStateForSession(sessionId).thenApply(state -> {
+                        state.addProperty("success", moved);
+                        return state;
+                    }));
+            }
+            case "state":
+                return gameService.getGameStateForSession(sessionId);
+            case "sync":
+                // Resync after a seq gap: deltas since "since", or a full snapshot if they're gone
+                return gameService.getGameStateForSession(sessionId, msg.has("since") ? msg.get("since").getAsLong() : -1);
+            case "matches":
+                return gameService.getAvailableMatches();
+            case "stats":
+                return gameService.getPlayerStats(msg.get("playerName").getAsString());
+            case "watch": {
+                String matchId = msg.get("matchId").getAsString();
+                // Subscribe first so nothing published while the snapshot is read is missed
+                if (!SpectatorHub.getInstance().watch(matchId, conn)) {
+                    return CompletableFuture.failedFuture(
+                        new IllegalStateException("Watching too many matches (max " + SpectatorHub.MAX_WATCHES_PER_CONNECTION + ")"));
+                }
+                return gameService.spectate(matchId, msg.has("since") ? msg.get("since").getAsLong() : -1).thenApply(state -> {
+                    if (!state.get("success").getAsBoolean()) {
+                        SpectatorHub.getInstance().unwatch(matchId, conn);
+                    }
+                    return state;
+                });
+            }
+            case "unwatch": {
+                String matchId = msg.get("matchId").getAsString();
+                JsonObject payload = success(SpectatorHub.getInstance().unwatch(matchId, conn));
+                payload.addProperty("matchId", matchId);
+                return CompletableFuture.completedFuture(payload);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown command " + type);
+        }
+    }
+
+    private static String resolveSession(WebSocket conn, JsonObject msg) {
+        ConnectionContext context = conn.getAttachment();
+        if (context != null && context.getSessionId() != null) {
+            return context.getSessionId();
+        }
+        return msg.has("sessionId") ? msg.get("sessionId").getAsString() : null;
+    }
+
+    private static String stringOr(JsonObject msg, String key, String fallback) {
+        return msg.has(key) ? msg.get(key).getAsString() : fallback;
+    }
+
+    private static JsonObject success(boolean success) {
+        JsonObject payload = new JsonObject();
+        payload.addProperty("success", success);
+        return payload;
+    }
+
+    private static void sendReply(WebSocket conn, String rid, String op, JsonObject payload) {
+        JsonObject reply = new JsonObject();
+        reply.addProperty("t", "reply");
+        if (rid != null) reply.addProperty("rid", rid);
+        reply.addProperty("op", op);
+        for (Map.Entry<String, JsonElement> entry : payload.entrySet()) {
+            reply.add(entry.getKey(), entry.getValue());
+        }
+        send(conn, reply);
+    }
+
+    private static void sendError(WebSocket conn, String rid, String op, String error) {
+        JsonObject reply = new JsonObject();
+        reply.addProperty("t", "reply");
+        if (rid != null) reply.addProperty("rid", rid);
+        reply.addProperty("op", op);
+        reply.addProperty("success", false);
+        reply.addProperty("error", error);
+        send(conn, reply);
+    }
+
+    private static void sendBinary(WebSocket conn, ByteBuffer frame) {
+        if (!conn.isOpen()) return;
+        try {
+            OutboundBudget.getInstance().send(conn, frame, null);
+        } catch (Exception e) {
+            log.warn("Failed to send binary reply", "error", e.getMessage());
+        }
+    }
+
+    private static void send(WebSocket conn, JsonObject reply) {
+        if (!conn.isOpen()) return;
+        try {
+            OutboundBudget.getInstance().send(conn, reply.toString(), null);
+        } catch (Exception e) {
+            log.warn("Failed to send command reply", "error", e.getMessage());
+        }
+    }
+}
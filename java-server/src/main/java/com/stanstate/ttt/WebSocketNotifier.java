@@ -2,51 +2,98 @@ package com.stanstate.ttt;
 
 import com.google.gson.JsonObject;
 import org.java_websocket.WebSocket;
+import java.nio.ByteBuffer;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.List;
-import java.util.ArrayList;
 
 public class WebSocketNotifier {
+    private static final Log log = Log.get("notify");
     private final DatabaseManager dbManager;
     private final Map<String, WebSocket> sessionConnections;
-    private final ScheduledExecutorService retryScheduler;
-    private final ScheduledExecutorService heartbeatScheduler;
+    private final TimerService.Timeout replayPruneTask;
+    private final TimerService.Timeout sweepTask;
+    private final TimerService.Timeout statusTask;
+    private final ReplayBuffer replayBuffer;
+    
+    // player_sessions status changes, written in one batch on the timer's blocking pool rather than
+    // by the thread that sends or closes (often the matchmaking pass or a WebSocket worker)
+    private static final long STATUS_FLUSH_SECONDS = 5;
+    private final Set<String> heardFrom = ConcurrentHashMap.newKeySet();
+    private final Set<String> disconnected = ConcurrentHashMap.newKeySet();
     
     public WebSocketNotifier() {
-        this.dbManager = DatabaseManager.getInstance();
-        this.sessionConnections = new ConcurrentHashMap<>();
-        this.retryScheduler = Executors.newScheduledThreadPool(2);
-        this.heartbeatScheduler = Executors.newScheduledThreadPool(1);
-        
-        // Start retry and heartbeat tasks
-        startRetryTask();
-        startHeartbeatTask();
+        this(DatabaseManager.getInstance());
     }
     
     public WebSocketNotifier(DatabaseManager dbManager) {
         this.dbManager = dbManager;
         this.sessionConnections = new ConcurrentHashMap<>();
-        this.retryScheduler = Executors.newScheduledThreadPool(2);
-        this.heartbeatScheduler = Executors.newScheduledThreadPool(1);
+        this.replayBuffer = new ReplayBuffer();
         
-        startRetryTask();
-        startHeartbeatTask();
+        // Start replay pruning, connection sweep and session status tasks
+        this.replayPruneTask = startReplayPruneTask();
+        this.sweepTask = startHeartbeatTask();
+        this.statusTask = TimerService.getInstance().scheduleBlockingAtFixedRate("session-status", this::flushSessionStatus,
+            STATUS_FLUSH_SECONDS, STATUS_FLUSH_SECONDS, TimeUnit.SECONDS);
+        registerMetrics();
     }
     
     public void registerConnection(String sessionId, WebSocket connection) {
-        sessionConnections.put(sessionId, connection);
-        System.out.println("Registered WebSocket for session: " + sessionId);
+        registerConnection(sessionId, connection, -1);
+    }
+    
+    /**
+     * Bind a socket to a session and resume its message stream
+     * lastSeq is the highest "sseq" the client has seen; clients that send it get one batched
+     * replay frame from memory. Older clients send none and get, one by one, only what was never
+     * handed to a socket, so earlier match starts aren't replayed on every reconnect.
+     * Nothing on this path touches the database, so reconnect storms stay off SQLite.
+     */
+    public void registerConnection(String sessionId, WebSocket connection, long lastSeq) {
+        ConnectionContext context = ConnectionContext.of(connection);
+        
+        // Same socket re-registering under a new session id: drop the old index entry
+        String previousSession = context.getSessionId();
+        if (previousSession != null && !previousSession.equals(sessionId)) {
+            sessionConnections.remove(previousSession, connection);
+        }
+        context.setSessionId(sessionId);
         
-        // Update connection status in database
-        dbManager.updateHeartbeat(sessionId);
+        // Session reconnecting on a new socket: detach the stale socket so its close can't unregister us
+        WebSocket replaced = sessionConnections.put(sessionId, connection);
+        if (replaced != null && replaced != connection) {
+            ConnectionContext replacedContext = replaced.getAttachment();
+            if (replacedContext != null) {
+                replacedContext.setSessionId(null);
+            }
+            replaced.close();
+        }
+        log.debug("Registered WebSocket", "sessionId", sessionId);
         
-        // Send any pending messages that were waiting for this connection
-        sendPendingMessages(sessionId);
+        // Replay whatever the client missed while it was away
+        long since = lastSeq >= 0 ? lastSeq : replayBuffer.deliveredThrough(sessionId);
+        ReplayBuffer.Replay replay = replayBuffer.replaySince(sessionId, since);
+        try {
+            if (lastSeq >= 0) {
+                OutboundBudget.getInstance().send(connection, replay.toFrame().toString(), null);
+            } else {
+                for (JsonObject message : replay.messages) {
+                    deliver(connection, message);
+                }
+            }
+            replayBuffer.markDelivered(sessionId, replay.seq);
+            if (!replay.messages.isEmpty()) {
+                log.debug("Replayed messages", "sessionId", sessionId, "count", replay.messages.size(), "since", lastSeq);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to replay messages", "sessionId", sessionId, "error", e.getMessage());
+        }
         
         // Send connection confirmation
         try {
@@ -54,70 +101,168 @@ public class WebSocketNotifier {
             confirmMessage.addProperty("t", "connection_confirmed");
             confirmMessage.addProperty("sessionId", sessionId);
             confirmMessage.addProperty("timestamp", System.currentTimeMillis());
+            confirmMessage.addProperty("sseq", replay.seq);
             connection.send(confirmMessage.toString());
         } catch (Exception e) {
-            System.err.println("Failed to send connection confirmation: " + e.getMessage());
+            log.warn("Failed to send connection confirmation", "sessionId", sessionId, "error", e.getMessage());
         }
     }
     
-    public void unregisterConnection(String sessionId) {
-        sessionConnections.remove(sessionId);
-        System.out.println("Unregistered WebSocket for session: " + sessionId);
+    /**
+     * O(1) cleanup for a closed or errored socket using its attached session
+     * Returns the session id that was unregistered, or null if the socket was not bound
+     */
+    public String unregisterConnection(WebSocket connection) {
+        ConnectionContext context = connection == null ? null : connection.getAttachment();
+        String sessionId = context == null ? null : context.getSessionId();
+        if (sessionId == null) {
+            return null;
+        }
         
-        // Update connection status in database
+        context.setSessionId(null);
+        if (!sessionConnections.remove(sessionId, connection)) {
+            return null; // session already moved to a newer socket
+        }
+        markDisconnected(sessionId);
+        return sessionId;
+    }
+    
+    public void unregisterConnection(String sessionId) {
+        WebSocket connection = sessionConnections.remove(sessionId);
+        if (connection != null) {
+            ConnectionContext context = connection.getAttachment();
+            if (context != null) {
+                context.setSessionId(null);
+            }
+        }
+        markDisconnected(sessionId);
+    }
+    
+    private void markDisconnected(String sessionId) {
+        ConnectionQualityTracker.getInstance().remove(sessionId);
+        log.debug("Unregistered WebSocket", "sessionId", sessionId);
+        heardFrom.remove(sessionId);
+        disconnected.add(sessionId);
+    }
+    
+    // Disconnects first, so a session that left and came back within one flush ends up connected
+    private void flushSessionStatus() {
+        List<String> gone = drain(disconnected);
+        List<String> seen = drain(heardFrom);
+        if (gone.isEmpty() && seen.isEmpty()) {
+            return;
+        }
         try (Connection conn = dbManager.getConnection()) {
-            PreparedStatement stmt = conn.prepareStatement(
-                "UPDATE player_sessions SET connection_status = 'disconnected' WHERE session_id = ?"
-            );
-            stmt.setString(1, sessionId);
-            stmt.executeUpdate();
+            conn.setAutoCommit(false);
+            try (PreparedStatement markGone = conn.prepareStatement(
+                     "UPDATE player_sessions SET connection_status = 'disconnected' WHERE session_id = ?");
+                 PreparedStatement markSeen = conn.prepareStatement(
+                     "UPDATE player_sessions SET last_heartbeat = CURRENT_TIMESTAMP, connection_status = 'connected' WHERE session_id = ?")) {
+                for (String sessionId : gone) {
+                    markGone.setString(1, sessionId);
+                    markGone.addBatch();
+                }
+                for (String sessionId : seen) {
+                    markSeen.setString(1, sessionId);
+                    markSeen.addBatch();
+                }
+                markGone.executeBatch();
+                markSeen.executeBatch();
+            }
+            conn.commit();
+            log.debug("Flushed session status", "disconnected", gone.size(), "active", seen.size());
         } catch (SQLException e) {
-            System.err.println("Failed to update disconnection status: " + e.getMessage());
+            log.warn("Failed to update session status", "disconnected", gone.size(), "active", seen.size(), "error", e.getMessage());
+        }
+    }
+    
+    private static List<String> drain(Set<String> sessions) {
+        List<String> drained = new ArrayList<>();
+        for (Iterator<String> it = sessions.iterator(); it.hasNext(); ) {
+            drained.add(it.next());
+            it.remove();
         }
+        return drained;
+    }
+    
+    private void registerMetrics() {
+        Metrics.gauge("ttt_ws_sessions", "Sessions with a registered WebSocket", sessionConnections::size);
+        Metrics.gauge("ttt_replay_buffered_messages", "Messages held for replay to reconnecting clients",
+            replayBuffer::bufferedMessages);
+        Metrics.gauge("ttt_replay_sessions", "Sessions with a replay log", replayBuffer::size);
     }
     
-    // Enhanced message sending with retry logic and redundancy
+    /**
+     * Age of the oldest message a connected session hasn't been handed yet (see ReplayBuffer)
+     */
+    public long oldestUndeliveredMillis() {
+        return replayBuffer.oldestUndeliveredMillis(this::isConnected);
+    }
+
+    public boolean isConnected(String sessionId) {
+        WebSocket connection = sessionConnections.get(sessionId);
+        return connection != null && connection.isOpen();
+    }
+    
+    // Buffered for replay first, so a failed or missed send is recovered on reconnect
     public void sendToSession(String sessionId, JsonObject message) {
+        JsonObject stamped = replayBuffer.append(sessionId, message);
         WebSocket connection = sessionConnections.get(sessionId);
         
         if (connection != null && connection.isOpen()) {
             try {
-                String messageStr = message.toString();
-                connection.send(messageStr);
-                System.out.println("Sent message to " + sessionId + ": " + messageStr);
+                OutboundBudget.Outcome outcome = deliver(connection, stamped);
+                log.trace("Sent message", "sessionId", sessionId, "message", stamped, "outcome", outcome);
+                if (outcome == OutboundBudget.Outcome.SENT || outcome == OutboundBudget.Outcome.DEFERRED) {
+                    replayBuffer.markDelivered(sessionId, stamped.get("sseq").getAsLong());
+                }
                 
-                // Update last successful communication
-                dbManager.updateHeartbeat(sessionId);
+                // Last successful communication, written by the next status flush
+                heardFrom.add(sessionId);
                 
             } catch (Exception e) {
-                System.err.println("Failed to send message to " + sessionId + ": " + e.getMessage());
-                // Store as pending for retry
-                storePendingNotification(sessionId, message.get("t").getAsString(), message.toString());
+                log.warn("Failed to send message, kept for replay", "sessionId", sessionId, "error", e.getMessage());
             }
         } else {
-            System.out.println("No active connection for " + sessionId + ", storing as pending");
-            // Store message for when connection returns
-            storePendingNotification(sessionId, message.get("t").getAsString(), message.toString());
+            log.debug("No active connection, kept for replay", "sessionId", sessionId);
         }
     }
     
-    // Store notification in database for retry/redundancy
-    public void storePendingNotification(String sessionId, String type, String data) {
-        try (Connection conn = dbManager.getConnection()) {
-            PreparedStatement stmt = conn.prepareStatement(
-                "INSERT INTO pending_notifications (session_id, notification_type, data, attempts, next_retry) " +
-                "VALUES (?, ?, ?, 0, datetime('now', '+5 seconds'))"
-            );
-            stmt.setString(1, sessionId);
-            stmt.setString(2, type);
-            stmt.setString(3, data);
-            stmt.executeUpdate();
-            System.out.println("Stored pending notification for " + sessionId + " type: " + type);
-        } catch (SQLException e) {
-            System.err.println("Failed to store pending notification: " + e.getMessage());
+    /**
+     * Best-effort send for messages that clients can recover on their own (e.g. seq-numbered deltas)
+     * Nothing is stored when the session has no open connection
+     */
+    public boolean sendIfConnected(String sessionId, JsonObject message) {
+        WebSocket connection = sessionConnections.get(sessionId);
+        if (connection == null || !connection.isOpen()) {
+            return false;
+        }
+        try {
+            deliver(connection, message);
+            return true;
+        } catch (Exception e) {
+            log.warn("Failed to send message", "sessionId", sessionId, "error", e.getMessage());
+            return false;
         }
     }
     
+    /**
+     * Send in the connection's negotiated format; binary clients still get JSON
+     * for message types that have no binary encoding
+     */
+    private OutboundBudget.Outcome deliver(WebSocket connection, JsonObject message) {
+        OutboundBudget budget = OutboundBudget.getInstance();
+        String supersedeKey = OutboundBudget.supersedeKey(message);
+        ConnectionContext context = connection.getAttachment();
+        if (context != null && context.binaryProtocol) {
+            ByteBuffer frame = BinaryProtocol.encode(message);
+            if (frame != null) {
+                return budget.send(connection, frame, supersedeKey);
+            }
+        }
+        return budget.send(connection, message.toString(), supersedeKey);
+    }
+    
     public void notifyWaiting(String sessionId) {
         JsonObject notification = new JsonObject();
         notification.addProperty("t", "waiting");
@@ -157,7 +302,7 @@ public class WebSocketNotifier {
                 notifyGameState(matchId, ".........", "X", "ongoing");
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            log.error("Failed to notify match start", "matchId", matchId, e);
         }
     }
     
@@ -187,199 +332,43 @@ public class WebSocketNotifier {
                 
                 sendToSession(player1, stateNotification);
                 sendToSession(player2, stateNotification);
+                SpectatorHub.getInstance().publish(matchId, stateNotification);
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            log.error("Failed to notify game state", "matchId", matchId, e);
         }
     }
     
-    // Enhanced pending message system using database
-    public void sendPendingMessages(String sessionId) {
-        try (Connection conn = dbManager.getConnection()) {
-            PreparedStatement stmt = conn.prepareStatement(
-                "SELECT id, notification_type, data FROM pending_notifications " +
-                "WHERE session_id = ? AND delivered = FALSE ORDER BY created_at"
-            );
-            stmt.setString(1, sessionId);
-            ResultSet rs = stmt.executeQuery();
-            
-            List<Integer> deliveredIds = new ArrayList<>();
-            
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String data = rs.getString("data");
-                
-                try {
-                    WebSocket connection = sessionConnections.get(sessionId);
-                    if (connection != null && connection.isOpen()) {
-                        connection.send(data);
-                        deliveredIds.add(id);
-                        System.out.println("Delivered pending message to " + sessionId + ": " + data);
-                    } else {
-                        break; // Connection lost, stop trying
-                    }
-                } catch (Exception e) {
-                    System.err.println("Failed to deliver pending message: " + e.getMessage());
-                    break;
-                }
+    // Background task management, on the shared timer
+    private TimerService.Timeout startReplayPruneTask() {
+        return TimerService.getInstance().scheduleAtFixedRate("replay-prune", () -> {
+            int pruned = replayBuffer.prune(this::isConnected);
+            if (pruned > 0) {
+                log.info("Pruned replay buffers for idle sessions", "count", pruned);
             }
-            
-            // Mark delivered messages
-            if (!deliveredIds.isEmpty()) {
-                for (int id : deliveredIds) {
-                    PreparedStatement markDelivered = conn.prepareStatement(
-                        "UPDATE pending_notifications SET delivered = TRUE WHERE id = ?"
-                    );
-                    markDelivered.setInt(1, id);
-                    markDelivered.executeUpdate();
-                }
-                System.out.println("Marked " + deliveredIds.size() + " messages as delivered for " + sessionId);
-            }
-            
-        } catch (SQLException e) {
-            System.err.println("Failed to send pending messages: " + e.getMessage());
-        }
-    }
-    
-    // Background task management
-    private void startRetryTask() {
-        retryScheduler.scheduleAtFixedRate(this::retryPendingNotifications, 10, 10, TimeUnit.SECONDS);
-    }
-    
-    private void startHeartbeatTask() {
-        heartbeatScheduler.scheduleAtFixedRate(this::sendHeartbeats, 30, 30, TimeUnit.SECONDS);
+        }, 60, 60, TimeUnit.SECONDS);
     }
     
-    private void retryPendingNotifications() {
-        try (Connection conn = dbManager.getConnection()) {
-            PreparedStatement stmt = conn.prepareStatement(
-                "SELECT id, session_id, notification_type, data, attempts " +
-                "FROM pending_notifications " +
-                "WHERE delivered = FALSE AND attempts < max_attempts AND next_retry <= datetime('now')"
-            );
-            ResultSet rs = stmt.executeQuery();
-            
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String sessionId = rs.getString("session_id");
-                String data = rs.getString("data");
-                int attempts = rs.getInt("attempts");
-                
-                WebSocket connection = sessionConnections.get(sessionId);
-                if (connection != null && connection.isOpen()) {
-                    try {
-                        connection.send(data);
-                        
-                        // Mark as delivered
-                        PreparedStatement markDelivered = conn.prepareStatement(
-                            "UPDATE pending_notifications SET delivered = TRUE WHERE id = ?"
-                        );
-                        markDelivered.setInt(1, id);
-                        markDelivered.executeUpdate();
-                        
-                        System.out.println("Retry successful for session " + sessionId);
-                        
-                    } catch (Exception e) {
-                        // Update retry count and schedule next retry
-                        int nextRetrySeconds = (int) Math.pow(2, attempts + 1); // Exponential backoff
-                        PreparedStatement updateRetry = conn.prepareStatement(
-                            "UPDATE pending_notifications SET attempts = attempts + 1, " +
-                            "next_retry = datetime('now', '+' || ? || ' seconds') WHERE id = ?"
-                        );
-                        updateRetry.setInt(1, nextRetrySeconds);
-                        updateRetry.setInt(2, id);
-                        updateRetry.executeUpdate();
-                        
-                        System.err.println("Retry failed for session " + sessionId + ", attempt " + (attempts + 1));
-                    }
-                } else {
-                    // No connection, schedule for later retry
-                    int nextRetrySeconds = 30; // Wait longer if no connection
-                    PreparedStatement updateRetry = conn.prepareStatement(
-                        "UPDATE pending_notifications SET next_retry = datetime('now', '+' || ? || ' seconds') WHERE id = ?"
-                    );
-                    updateRetry.setInt(1, nextRetrySeconds);
-                    updateRetry.setInt(2, id);
-                    updateRetry.executeUpdate();
-                }
-            }
-        } catch (SQLException e) {
-            System.err.println("Retry task failed: " + e.getMessage());
-        }
+    private TimerService.Timeout startHeartbeatTask() {
+        return TimerService.getInstance().scheduleAtFixedRate("connection-sweep", this::sweepClosedConnections,
+            30, 30, TimeUnit.SECONDS);
     }
     
-    private void sendHeartbeats() {
+    // Liveness itself is ping/pong in Server; this only drops sockets that closed without an onClose
+    private void sweepClosedConnections() {
         for (Map.Entry<String, WebSocket> entry : sessionConnections.entrySet()) {
-            String sessionId = entry.getKey();
             WebSocket connection = entry.getValue();
-            
-            if (connection.isOpen()) {
-                try {
-                    JsonObject heartbeat = new JsonObject();
-                    heartbeat.addProperty("t", "heartbeat");
-                    heartbeat.addProperty("timestamp", System.currentTimeMillis());
-                    connection.send(heartbeat.toString());
-                    
-                    // Update ping count in database
-                    try (Connection conn = dbManager.getConnection()) {
-                        PreparedStatement stmt = conn.prepareStatement(
-                            "UPDATE connection_health SET last_ping = CURRENT_TIMESTAMP, ping_count = ping_count + 1 " +
-                            "WHERE session_id = ?"
-                        );
-                        stmt.setString(1, sessionId);
-                        stmt.executeUpdate();
-                    }
-                    
-                } catch (Exception e) {
-                    System.err.println("Failed to send heartbeat to " + sessionId + ": " + e.getMessage());
-                    // Mark connection as potentially dead
-                    try (Connection conn = dbManager.getConnection()) {
-                        PreparedStatement stmt = conn.prepareStatement(
-                            "UPDATE connection_health SET missed_pings = missed_pings + 1, " +
-                            "connection_quality = connection_quality * 0.9 WHERE session_id = ?"
-                        );
-                        stmt.setString(1, sessionId);
-                        stmt.executeUpdate();
-                    } catch (SQLException se) {
-                        System.err.println("Failed to update missed ping count: " + se.getMessage());
-                    }
-                }
+            if (!connection.isOpen() && sessionConnections.remove(entry.getKey(), connection)) {
+                markDisconnected(entry.getKey());
             }
         }
     }
     
-    public void handleHeartbeatResponse(String sessionId) {
-        try (Connection conn = dbManager.getConnection()) {
-            PreparedStatement stmt = conn.prepareStatement(
-                "UPDATE connection_health SET last_pong = CURRENT_TIMESTAMP, " +
-                "missed_pings = 0, connection_quality = MIN(1.0, connection_quality + 0.1) " +
-                "WHERE session_id = ?"
-            );
-            stmt.setString(1, sessionId);
-            stmt.executeUpdate();
-            
-            // Update player session heartbeat as well
-            dbManager.updateHeartbeat(sessionId);
-            
-        } catch (SQLException e) {
-            System.err.println("Failed to handle heartbeat response: " + e.getMessage());
-        }
-    }
-    
     public void shutdown() {
-        retryScheduler.shutdown();
-        heartbeatScheduler.shutdown();
-        try {
-            if (!retryScheduler.awaitTermination(5, TimeUnit.SECONDS)) {
-                retryScheduler.shutdownNow();
-            }
-            if (!heartbeatScheduler.awaitTermination(5, TimeUnit.SECONDS)) {
-                heartbeatScheduler.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            retryScheduler.shutdownNow();
-            heartbeatScheduler.shutdownNow();
-        }
+        replayPruneTask.cancel();
+        sweepTask.cancel();
+        statusTask.cancel();
+        flushSessionStatus();
     }
     
     // Helper method for Server class to access session connections